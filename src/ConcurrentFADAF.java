@@ -0,0 +1,290 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+
+/**
+ * FADAFBackend on a lock-free DAFSkipList instead of DAFTree and HashTable.
+ * Every method can be called from any number of threads without external
+ * locking, and none of them blocks. lookupAny is answered by the skip list
+ * in O(log n), so no separate hash index is kept. Data is matched with
+ * equals. The optional indexes of FADAF (snapshots, Bloom filters, reverse
+ * index, expiry) belong to FADAF and are not part of this backend. The
+ * change feed is, but changes of one key made by different threads at the
+ * same time may be delivered in either order.
+ *
+ * @param <K> Generic type of key
+ * @param <D> Generic type of data
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class ConcurrentFADAF<K extends Comparable<? super K>, D> implements FADAFBackend<K, D> {
+
+    // instance variables
+    private final DAFSkipList<K, D> skipList; // ordered store
+    private volatile FADAFChangeFeed<K, D> changeFeed; // change listeners, null if disabled
+
+    /**
+     * Constructor for ConcurrentFADAF.
+     *
+     * @param capacity initial capacity, checked like FADAF for compatibility
+     * @throws IllegalArgumentException if capacity is less than the minimum
+     *                                  threshold
+     */
+    public ConcurrentFADAF(int capacity) {
+        if (capacity < HashTable.MIN_CAPACITY) {
+            throw new IllegalArgumentException();
+        }
+        skipList = new DAFSkipList<K, D>();
+    }
+
+    @Override
+    public int size() {
+        return skipList.size();
+    }
+
+    @Override
+    public int nUniqueKeys() {
+        return skipList.nUniqueKeys();
+    }
+
+    @Override
+    public boolean insert(K key, D data) {
+        if (!skipList.insert(key, data)) {
+            return false;
+        }
+        publish(FADAFChange.INSERT, key, data);
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(K key) {
+        if (!skipList.removeAll(key)) {
+            return false;
+        }
+        publish(FADAFChange.REMOVE_ALL, key, null);
+        return true;
+    }
+
+    @Override
+    public boolean remove(K key, D data) {
+        if (!skipList.remove(key, data)) {
+            return false;
+        }
+        publish(FADAFChange.REMOVE, key, data);
+        return true;
+    }
+
+    @Override
+    public boolean lookupAny(K key) {
+        return skipList.lookupAny(key);
+    }
+
+    @Override
+    public boolean lookup(K key, D data) {
+        return skipList.lookup(key, data);
+    }
+
+    /**
+     * Checks many keys at once, one by one since the skip list has no batch
+     * search.
+     *
+     * @param keys keys to check
+     * @return set of the positions of the keys that are present
+     * @throws NullPointerException if a key is null
+     */
+    public BitSet lookupAnyMany(K[] keys) {
+        BitSet found = new BitSet(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            found.set(i, skipList.lookupAny(keys[i]));
+        }
+        return found;
+    }
+
+    /**
+     * Checks many pairs at once, one by one since the skip list has no batch
+     * search.
+     *
+     * @param keys keys of the pairs
+     * @param data data of the pairs, in the same order
+     * @return set of the positions of the pairs that are present
+     * @throws IllegalArgumentException if the arrays differ in length
+     * @throws NullPointerException     if a key or data is null
+     */
+    public BitSet lookupMany(K[] keys, D[] data) {
+        if (keys.length != data.length) {
+            throw new IllegalArgumentException();
+        }
+        BitSet found = new BitSet(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            found.set(i, skipList.lookup(keys[i], data[i]));
+        }
+        return found;
+    }
+
+    @Override
+    public LinkedList<K> getAllKeys() {
+        LinkedList<K> result = new LinkedList<K>();
+        for (K key : skipList) {
+            result.add(key);
+        }
+        return result;
+    }
+
+    @Override
+    public LinkedList<D> getAllData(K key) {
+        return skipList.getAllData(key);
+    }
+
+    /**
+     * Returns all keys paired with data equal to the given one, in
+     * ascending order. Every key is visited.
+     *
+     * @param data target data
+     * @return a list of keys, without duplicates, empty list if none
+     * @throws NullPointerException if the data is null
+     */
+    public LinkedList<K> getAllKeys(D data) {
+        return skipList.getAllKeys(data);
+    }
+
+    /**
+     * Removes every pair whose data is equal to the given one. Every key is
+     * visited.
+     *
+     * @param data data to remove
+     * @return true if at least 1 pair is removed, false otherwise
+     * @throws NullPointerException if the data is null
+     */
+    public boolean removeAllByData(D data) {
+        boolean removed = false;
+        for (K key : skipList.getAllKeys(data)) {
+            removed |= remove(key, data);
+        }
+        return removed;
+    }
+
+    @Override
+    public LinkedList<K> getKeysInRange(K lo, K hi) {
+        return skipList.getKeysInRange(lo, hi);
+    }
+
+    /**
+     * Returns the number of keys less than the given key. Walks the skip
+     * list up to the key, O(n).
+     *
+     * @param key key to rank
+     * @return number of smaller keys, duplicates included
+     * @throws NullPointerException if the key is null
+     */
+    public int rank(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        int rank = 0;
+        for (K k : skipList) {
+            if (k.compareTo(key) >= 0) {
+                break;
+            }
+            rank++;
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the k-th smallest key, duplicates included. Walks the skip
+     * list up to the key, O(n).
+     *
+     * @param k index of the key, starting at 0
+     * @return k-th smallest key
+     * @throws IndexOutOfBoundsException if k is negative or not less than
+     *                                   size()
+     */
+    public K select(int k) {
+        if (k < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        int i = 0;
+        for (K key : skipList) {
+            if (i++ == k) {
+                return key;
+            }
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    /**
+     * Returns the number of keys in [lo, hi), duplicates included. Counts
+     * the keys of a range scan, O(log n + output).
+     *
+     * @param lo lower bound, inclusive
+     * @param hi upper bound, exclusive
+     * @return number of keys in range
+     * @throws NullPointerException if lo or hi is null
+     */
+    public int countRange(K lo, K hi) {
+        return skipList.getKeysInRange(lo, hi).size();
+    }
+
+    @Override
+    public K getMinKey() {
+        return skipList.getMinKey();
+    }
+
+    @Override
+    public K getMaxKey() {
+        return skipList.getMaxKey();
+    }
+
+    @Override
+    public boolean mergeInto(FADAFBackend<K, D> target) {
+        if (target == null) {
+            throw new NullPointerException();
+        }
+        if (target == this) {
+            return false;
+        }
+        return FADAF.absorbInto(target, skipList.groupIterator());
+    }
+
+    /**
+     * Turns on the change feed. Every insert, remove and removeAll that
+     * changes the content is published to the listeners of the feed.
+     *
+     * @param capacity size of the ring buffer of the feed
+     * @return the change feed, to subscribe listeners to
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public synchronized FADAFChangeFeed<K, D> enableChangeFeed(int capacity) {
+        if (changeFeed == null) {
+            changeFeed = new FADAFChangeFeed<K, D>(capacity);
+        }
+        return changeFeed;
+    }
+
+    /**
+     * Returns the change feed.
+     *
+     * @return change feed, or null if not enabled
+     */
+    public FADAFChangeFeed<K, D> getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * Publishes a change if the change feed is enabled.
+     *
+     * @param op   operation of FADAFChange
+     * @param key  key of the change
+     * @param data data, null for REMOVE_ALL
+     */
+    private void publish(int op, K key, D data) {
+        FADAFChangeFeed<K, D> feed = changeFeed;
+        if (feed != null) {
+            feed.publish(op, key, data);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counting Bloom filter over int hash values. Every slot is a 4-bit counter,
+ * sixteen of them packed into a long, so elements can be removed again. A
+ * counter that reaches 15 sticks there to keep the filter free of false
+ * negatives. mightContain never returns false for a value that was added
+ * and not removed. The statistics may be updated by concurrent readers.
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class CountingBloomFilter {
+
+    // constants
+    private static final int COUNTER_BITS = 4; // bits per counter
+    private static final long COUNTER_MAX = 15; // sticky maximum of a counter
+    private static final int COUNTERS_PER_WORD = Long.SIZE / COUNTER_BITS;
+
+    // instance variables
+    private final long[] counters; // packed 4-bit counters
+    private final int nSlots; // number of counters
+    private final int nHashes; // number of probes per element
+    private int nElems; // number of elements added and not removed
+    private final LongAdder negatives = new LongAdder(); // queries answered with a definite miss
+    private final LongAdder falsePositives = new LongAdder(); // queries answered maybe that were misses
+
+    /**
+     * Initializes a filter sized for the given number of elements and false
+     * positive rate.
+     *
+     * @param expectedElems expected number of elements
+     * @param fpp           wanted false positive probability
+     * @throws IllegalArgumentException if expectedElems is not positive or fpp
+     *                                  is not in (0, 1)
+     */
+    public CountingBloomFilter(int expectedElems, double fpp) {
+        if (expectedElems <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException();
+        }
+        double ln2 = Math.log(2);
+        long slots = (long) Math.ceil(-expectedElems * Math.log(fpp) / (ln2 * ln2));
+        slots = Math.max(COUNTERS_PER_WORD, Math.min(slots, Integer.MAX_VALUE - COUNTERS_PER_WORD));
+        this.nSlots = (int) slots;
+        this.nHashes = Math.max(1, (int) Math.round((double) slots / expectedElems * ln2));
+        this.counters = new long[(nSlots + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD];
+    }
+
+    /**
+     * Initializes a filter with the given counters, used by read.
+     *
+     * @param counters packed counters
+     * @param nSlots   number of counters
+     * @param nHashes  number of probes per element
+     * @param nElems   number of elements
+     */
+    private CountingBloomFilter(long[] counters, int nSlots, int nHashes, int nElems) {
+        this.counters = counters;
+        this.nSlots = nSlots;
+        this.nHashes = nHashes;
+        this.nElems = nElems;
+    }
+
+    /**
+     * Reads a filter written by write. The statistics start from zero.
+     *
+     * @param in input to read from
+     * @return the filter
+     * @throws IOException if reading fails or the input is not a filter
+     */
+    public static CountingBloomFilter read(DataInput in) throws IOException {
+        int nSlots = in.readInt();
+        int nHashes = in.readInt();
+        int nElems = in.readInt();
+        if (nSlots < COUNTERS_PER_WORD || nHashes < 1) {
+            throw new IOException("corrupt Bloom filter");
+        }
+        long[] counters = new long[(nSlots + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = in.readLong();
+        }
+        return new CountingBloomFilter(counters, nSlots, nHashes, nElems);
+    }
+
+    /**
+     * Writes the counters so that read can restore the filter.
+     *
+     * @param out output to write to
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(nSlots);
+        out.writeInt(nHashes);
+        out.writeInt(nElems);
+        for (long word : counters) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * Adds a hash value.
+     *
+     * @param hash hash value to add
+     */
+    public void add(int hash) {
+        int h1 = mix(hash);
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < nHashes; i++) {
+            int slot = Math.floorMod(h1 + i * h2, nSlots);
+            long c = get(slot);
+            if (c < COUNTER_MAX) {
+                set(slot, c + 1);
+            }
+        }
+        nElems++;
+    }
+
+    /**
+     * Removes a hash value that was added before.
+     *
+     * @param hash hash value to remove
+     */
+    public void remove(int hash) {
+        int h1 = mix(hash);
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < nHashes; i++) {
+            int slot = Math.floorMod(h1 + i * h2, nSlots);
+            long c = get(slot);
+            if (c > 0 && c < COUNTER_MAX) {
+                set(slot, c - 1);
+            }
+        }
+        nElems--;
+    }
+
+    /**
+     * Checks if a hash value may have been added.
+     *
+     * @param hash hash value to check
+     * @return false if the value was definitely not added, true otherwise
+     */
+    public boolean mightContain(int hash) {
+        if (!probe(hash)) {
+            negatives.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks like mightContain but leaves the statistics alone, for checks
+     * that are not lookups of a caller, like the ones on insert and remove.
+     *
+     * @param hash hash value to check
+     * @return false if the value was definitely not added, true otherwise
+     */
+    public boolean probe(int hash) {
+        int h1 = mix(hash);
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < nHashes; i++) {
+            if (get(Math.floorMod(h1 + i * h2, nSlots)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records that a query answered true by mightContain turned out to be a
+     * miss.
+     */
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    /**
+     * Removes every element and resets the statistics.
+     */
+    public void clear() {
+        Arrays.fill(counters, 0);
+        nElems = 0;
+        negatives.reset();
+        falsePositives.reset();
+    }
+
+    /**
+     * Returns the memory used by the counters.
+     *
+     * @return size of the counter array in bytes
+     */
+    public long memoryBytes() {
+        return (long) counters.length * Long.BYTES;
+    }
+
+    /**
+     * Returns the false positive probability expected for the current number
+     * of elements.
+     *
+     * @return expected false positive probability
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) nHashes * nElems / nSlots), nHashes);
+    }
+
+    /**
+     * Returns the false positive rate seen so far, that is the share of
+     * actual misses the filter did not reject.
+     *
+     * @return observed false positive rate, 0 if there were no misses
+     */
+    public double observedFalsePositiveRate() {
+        long fp = falsePositives.sum();
+        long misses = negatives.sum() + fp;
+        return (misses == 0) ? 0 : (double) fp / misses;
+    }
+
+    /**
+     * Returns the number of queries answered with a definite miss.
+     *
+     * @return number of definite misses
+     */
+    public long negatives() {
+        return negatives.sum();
+    }
+
+    /**
+     * Returns the value of a counter.
+     *
+     * @param slot index of the counter
+     * @return counter value
+     */
+    private long get(int slot) {
+        int shift = (slot % COUNTERS_PER_WORD) * COUNTER_BITS;
+        return (counters[slot / COUNTERS_PER_WORD] >>> shift) & COUNTER_MAX;
+    }
+
+    /**
+     * Sets the value of a counter.
+     *
+     * @param slot  index of the counter
+     * @param value new value, at most COUNTER_MAX
+     */
+    private void set(int slot, long value) {
+        int shift = (slot % COUNTERS_PER_WORD) * COUNTER_BITS;
+        int word = slot / COUNTERS_PER_WORD;
+        counters[word] = (counters[word] & ~(COUNTER_MAX << shift)) | (value << shift);
+    }
+
+    /**
+     * Scrambles a hash value so that nearby hash codes probe far apart slots.
+     *
+     * @param h hash value
+     * @return mixed hash value
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,674 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Immutable sorted run of a TieredFADAF on disk. A run holds one record
+ * per key in ascending key order: the data inserted, the data removed and
+ * whether the whole key was removed, all relative to the older runs. The
+ * records are packed into blocks of about BLOCK_SIZE bytes, and the first
+ * key of every block is kept in memory as a sparse index, so a lookup
+ * reads a single block. A counting Bloom filter over the keys lets most
+ * lookups of absent keys skip the run without touching the file.
+ * <p>
+ * Keys are stored as UTF-8 with prefix compression: a record keeps only
+ * the part of its key that differs from the key before it in the block,
+ * and the first record of a block keeps the whole key. Lengths and counts
+ * are variable length integers. A lookup rebuilds the keys of its block
+ * byte by byte and compares the bytes in String order, so only the record
+ * it finds is decoded.
+ * <p>
+ * The record area is memory mapped in segments of SEGMENT_SIZE bytes. A
+ * record never crosses a segment boundary, so runs may be larger than one
+ * mapping. The file layout is: records, block index, Bloom filter, and a
+ * fixed size trailer with the offsets of the three parts.
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class DAFRun {
+
+    // constants
+    public static final int BLOCK_SIZE = 4096; // bytes of records per index entry
+    public static final long SEGMENT_SIZE = 1L << 30; // bytes per memory mapping
+    public static final double FILTER_FPP = 0.01; // false positive rate of the key filter
+    private static final int MAGIC = 0xDAF00002; // last int of every run file, changes with the format
+    private static final int TRAILER_SIZE = 3 * Long.BYTES + 2 * Integer.BYTES;
+    private static final byte KEY_DELETED = 1; // record flag
+
+    // instance variables
+    private final File file; // run file
+    private final ByteBuffer[] segments; // mapped record area
+    private final String[] blockKeys; // first key of every block
+    private final long[] blockStarts; // offset of every block
+    private final long[] blockEnds; // offset after the last record of every block
+    private final CountingBloomFilter filter; // keys of the run
+    private final int nRecords; // number of records
+    private final long bytes; // size of the file
+
+    /**
+     * Record of one key. puts are in insertion order, dels and keyDeleted
+     * only hide data of older runs.
+     */
+    static final class Record {
+        final String key;
+        boolean keyDeleted; // true if every older pair of the key was removed
+        final List<String> puts; // data inserted
+        final List<String> dels; // data removed
+
+        /**
+         * Initializes a record.
+         *
+         * @param key        key of the record
+         * @param keyDeleted true if the older pairs of the key are removed
+         * @param puts       data inserted
+         * @param dels       data removed
+         */
+        Record(String key, boolean keyDeleted, List<String> puts, List<String> dels) {
+            this.key = key;
+            this.keyDeleted = keyDeleted;
+            this.puts = puts;
+            this.dels = dels;
+        }
+
+        /**
+         * Checks if the record changes nothing.
+         *
+         * @return true if it has no data and no removals
+         */
+        boolean isEmpty() {
+            return !keyDeleted && puts.isEmpty() && dels.isEmpty();
+        }
+
+        /**
+         * Combines the records of one key from consecutive tiers into the
+         * record the tiers amount to together. Data of older tiers comes
+         * first, as it was inserted first.
+         *
+         * @param newestFirst    records of the key, newest tier first
+         * @param dropTombstones true if no older tier exists below, so the
+         *                       removals have nothing left to hide
+         * @return combined record
+         */
+        static Record combine(List<Record> newestFirst, boolean dropTombstones) {
+            if (newestFirst.size() == 1 && !dropTombstones) {
+                return newestFirst.get(0);
+            }
+            HashSet<String> hidden = new HashSet<String>();
+            HashSet<String> seen = new HashSet<String>();
+            LinkedHashSet<String> dels = new LinkedHashSet<String>();
+            ArrayList<List<String>> parts = new ArrayList<List<String>>();
+            boolean keyDeleted = false;
+            for (Record record : newestFirst) {
+                ArrayList<String> part = new ArrayList<String>();
+                for (String data : record.puts) {
+                    if (!hidden.contains(data) && seen.add(data)) {
+                        part.add(data);
+                    }
+                }
+                parts.add(part);
+                hidden.addAll(record.dels);
+                dels.addAll(record.dels);
+                if (record.keyDeleted) {
+                    keyDeleted = true;
+                    break;
+                }
+            }
+            ArrayList<String> puts = new ArrayList<String>();
+            for (int i = parts.size() - 1; i >= 0; i--) {
+                puts.addAll(parts.get(i));
+            }
+            if (dropTombstones) {
+                return new Record(newestFirst.get(0).key, false, puts, Collections.<String>emptyList());
+            }
+            return new Record(newestFirst.get(0).key, keyDeleted, puts, new ArrayList<String>(dels));
+        }
+    }
+
+    /**
+     * Initializes a run from its parts, used by write and open.
+     *
+     * @param file        run file
+     * @param segments    mapped record area
+     * @param blockKeys   first key of every block
+     * @param blockStarts offset of every block
+     * @param blockEnds   end of every block
+     * @param filter      key filter
+     * @param nRecords    number of records
+     * @param bytes       size of the file
+     */
+    private DAFRun(File file, ByteBuffer[] segments, String[] blockKeys, long[] blockStarts,
+                   long[] blockEnds, CountingBloomFilter filter, int nRecords, long bytes) {
+        this.file = file;
+        this.segments = segments;
+        this.blockKeys = blockKeys;
+        this.blockStarts = blockStarts;
+        this.blockEnds = blockEnds;
+        this.filter = filter;
+        this.nRecords = nRecords;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Writes records into a new run file and opens it. Empty records are
+     * skipped.
+     *
+     * @param file     file to create
+     * @param records  records in strictly ascending key order
+     * @param expected upper bound of the number of records, sizes the filter
+     * @return the run
+     * @throws IOException if writing fails or a record is larger than a segment
+     */
+    static DAFRun write(File file, Iterator<Record> records, int expected) throws IOException {
+        CountingBloomFilter filter = new CountingBloomFilter(Math.max(1, expected), FILTER_FPP);
+        ArrayList<String> keys = new ArrayList<String>();
+        ArrayList<Long> starts = new ArrayList<Long>();
+        ArrayList<Long> ends = new ArrayList<Long>();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(buffer);
+        byte[] previous = new byte[0]; // key of the last record written
+        long pos = 0; // end of the last record written
+        int nRecords = 0;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            while (records.hasNext()) {
+                Record r = records.next();
+                if (r.isEmpty()) {
+                    continue;
+                }
+                byte[] key = r.key.getBytes(StandardCharsets.UTF_8);
+                boolean newBlock = starts.isEmpty() || pos - starts.get(starts.size() - 1) >= BLOCK_SIZE;
+                writeRecord(record, buffer, r, key, newBlock ? null : previous);
+                long start = pos;
+                if (pos % SEGMENT_SIZE + buffer.size() > SEGMENT_SIZE) {
+                    // pad to the next segment so the record is not split
+                    start = pos + SEGMENT_SIZE - pos % SEGMENT_SIZE;
+                    if (!newBlock) {
+                        newBlock = true;
+                        writeRecord(record, buffer, r, key, null);
+                    }
+                }
+                int length = buffer.size();
+                if (length > SEGMENT_SIZE) {
+                    throw new IOException("record of key " + r.key + " is larger than a segment");
+                }
+                if (newBlock) {
+                    if (!starts.isEmpty()) {
+                        ends.add(pos);
+                    }
+                    for (long i = pos; i < start; i++) {
+                        out.writeByte(0);
+                    }
+                    keys.add(r.key);
+                    starts.add(start);
+                }
+                buffer.writeTo(out);
+                previous = key;
+                pos = start + length;
+                filter.add(r.key.hashCode());
+                nRecords++;
+            }
+            if (!starts.isEmpty()) {
+                ends.add(pos);
+            }
+            buffer.reset();
+            record.writeInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                writeString(record, keys.get(i));
+                record.writeLong(starts.get(i));
+                record.writeLong(ends.get(i));
+            }
+            long indexStart = pos;
+            long filterStart = indexStart + buffer.size();
+            filter.write(record);
+            buffer.writeTo(out);
+            out.writeLong(pos);
+            out.writeLong(indexStart);
+            out.writeLong(filterStart);
+            out.writeInt(nRecords);
+            out.writeInt(MAGIC);
+        }
+        return open(file);
+    }
+
+    /**
+     * Opens a run file written by write and maps its records.
+     *
+     * @param file run file
+     * @return the run
+     * @throws IOException if reading fails or the file is not a complete run
+     */
+    static DAFRun open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long bytes = raf.length();
+            if (bytes < TRAILER_SIZE) {
+                throw new IOException("truncated run " + file);
+            }
+            raf.seek(bytes - TRAILER_SIZE);
+            long recordsEnd = raf.readLong();
+            long indexStart = raf.readLong();
+            raf.readLong(); // filter start, the filter follows the index
+            int nRecords = raf.readInt();
+            if (raf.readInt() != MAGIC || indexStart != recordsEnd || indexStart > bytes) {
+                throw new IOException("corrupt run " + file);
+            }
+            FileChannel channel = raf.getChannel();
+            channel.position(indexStart);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            int nBlocks = in.readInt();
+            String[] blockKeys = new String[nBlocks];
+            long[] blockStarts = new long[nBlocks];
+            long[] blockEnds = new long[nBlocks];
+            for (int i = 0; i < nBlocks; i++) {
+                blockKeys[i] = readString(in);
+                blockStarts[i] = in.readLong();
+                blockEnds[i] = in.readLong();
+            }
+            CountingBloomFilter filter = CountingBloomFilter.read(in);
+            ByteBuffer[] segments = new ByteBuffer[(int) ((recordsEnd + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                // the mapping stays valid after the channel is closed
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE, recordsEnd - start));
+            }
+            return new DAFRun(file, segments, blockKeys, blockStarts, blockEnds, filter, nRecords, bytes);
+        }
+    }
+
+    /**
+     * Returns the record of a key.
+     *
+     * @param key key to find
+     * @return record of the key, or null if the run has none
+     */
+    Record find(String key) {
+        if (!filter.mightContain(key.hashCode())) {
+            return null;
+        }
+        int block = blockOf(key);
+        if (block >= 0) {
+            byte[] target = key.getBytes(StandardCharsets.UTF_8);
+            BlockReader in = new BlockReader(block);
+            while (in.nextKey()) {
+                int cmp = in.compareKey(target);
+                if (cmp == 0) {
+                    return in.record();
+                }
+                if (cmp > 0) {
+                    break;
+                }
+                in.skipRecord();
+            }
+        }
+        filter.recordFalsePositive();
+        return null;
+    }
+
+    /**
+     * Returns the records from the given key on, read lazily in key order.
+     *
+     * @param lo smallest key to return, null to start at the first record
+     * @return iterator of records
+     */
+    Iterator<Record> cursor(final String lo) {
+        return new Iterator<Record>() {
+            private final byte[] from = (lo == null) ? null : lo.getBytes(StandardCharsets.UTF_8);
+            private int block = (lo == null) ? 0 : Math.max(0, blockOf(lo));
+            private BlockReader in; // current block, null before the first
+            private Record next = advance();
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Record next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Record result = next;
+                next = advance();
+                return result;
+            }
+
+            private Record advance() {
+                while (true) {
+                    while (in == null || !in.nextKey()) {
+                        if (block >= blockStarts.length) {
+                            return null;
+                        }
+                        in = new BlockReader(block++);
+                    }
+                    if (from == null || in.compareKey(from) >= 0) {
+                        return in.record();
+                    }
+                    in.skipRecord();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the run file.
+     *
+     * @return file
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of records, one per key.
+     *
+     * @return number of records
+     */
+    int nRecords() {
+        return nRecords;
+    }
+
+    /**
+     * Returns the size of the run file.
+     *
+     * @return bytes on disk
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the key filter of the run.
+     *
+     * @return Bloom filter over the keys
+     */
+    CountingBloomFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Finds the last block whose first key is not greater than the key.
+     *
+     * @param key key to find
+     * @return block index, -1 if the key is smaller than every key
+     */
+    private int blockOf(String key) {
+        int lo = 0;
+        int hi = blockKeys.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blockKeys[mid].compareTo(key) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reader of the records of one block. nextKey rebuilds the key of the
+     * next record from the key before it, then the record is either decoded
+     * by record or passed over by skipRecord.
+     */
+    private final class BlockReader {
+        private final ByteBuffer in; // private view of the block
+        private final int end; // end of the block in in
+        private byte[] key = new byte[64]; // key of the current record
+        private int keyLength; // bytes of key in use
+
+        /**
+         * Initializes a reader at the first record of a block.
+         *
+         * @param block block index
+         */
+        BlockReader(int block) {
+            long offset = blockStarts[block];
+            in = segments[(int) (offset / SEGMENT_SIZE)].duplicate();
+            in.position((int) (offset % SEGMENT_SIZE));
+            end = in.position() + (int) (blockEnds[block] - offset);
+        }
+
+        /**
+         * Reads the key of the next record.
+         *
+         * @return false if the block has no more records
+         */
+        boolean nextKey() {
+            if (in.position() >= end) {
+                return false;
+            }
+            int shared = readVarInt(in);
+            int suffix = readVarInt(in);
+            if (shared + suffix > key.length) {
+                key = Arrays.copyOf(key, Math.max(2 * key.length, shared + suffix));
+            }
+            in.get(key, shared, suffix);
+            keyLength = shared + suffix;
+            return true;
+        }
+
+        /**
+         * Compares the current key with a UTF-8 encoded key.
+         *
+         * @param other key to compare with
+         * @return negative, 0 or positive as the current key is smaller,
+         *         equal or greater in String order
+         */
+        int compareKey(byte[] other) {
+            return compareUtf8(key, keyLength, other, other.length);
+        }
+
+        /**
+         * Decodes the rest of the current record.
+         *
+         * @return the record
+         */
+        Record record() {
+            String k = new String(key, 0, keyLength, StandardCharsets.UTF_8);
+            boolean keyDeleted = in.get() == KEY_DELETED;
+            List<String> puts = readStrings(in);
+            List<String> dels = readStrings(in);
+            return new Record(k, keyDeleted, puts, dels);
+        }
+
+        /**
+         * Passes over the rest of the current record without decoding it.
+         */
+        void skipRecord() {
+            in.get();
+            for (int list = 0; list < 2; list++) {
+                for (int n = readVarInt(in); n > 0; n--) {
+                    int length = readVarInt(in);
+                    in.position(in.position() + length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares two UTF-8 encoded strings in the order of String.compareTo.
+     * Byte order is code point order, which differs from the UTF-16 order
+     * of String only where a supplementary character meets a character
+     * from U+E000 on: the first is stored as surrogates below U+E000 but
+     * encoded with a larger lead byte, so that case is reversed.
+     *
+     * @param a       first string
+     * @param aLength bytes of a in use
+     * @param b       second string
+     * @param bLength bytes of b in use
+     * @return negative, 0 or positive as a is smaller, equal or greater
+     */
+    static int compareUtf8(byte[] a, int aLength, byte[] b, int bLength) {
+        int n = Math.min(aLength, bLength);
+        for (int i = 0; i < n; i++) {
+            int x = a[i] & 0xff;
+            int y = b[i] & 0xff;
+            if (x != y) {
+                boolean swapped = (x >= 0xf0 && (y == 0xee || y == 0xef))
+                        || (y >= 0xf0 && (x == 0xee || x == 0xef));
+                return swapped ? y - x : x - y;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    /**
+     * Encodes a record into buffer, replacing what buffer held.
+     *
+     * @param record   output writing into buffer
+     * @param buffer   buffer of the encoded record
+     * @param r        record to encode
+     * @param key      UTF-8 key of the record
+     * @param previous UTF-8 key of the record before in the block, null
+     *                 for the first record of a block
+     * @throws IOException if writing fails
+     */
+    private static void writeRecord(DataOutputStream record, ByteArrayOutputStream buffer,
+                                    Record r, byte[] key, byte[] previous) throws IOException {
+        int shared = 0;
+        if (previous != null) {
+            int n = Math.min(key.length, previous.length);
+            while (shared < n && key[shared] == previous[shared]) {
+                shared++;
+            }
+        }
+        buffer.reset();
+        writeVarInt(record, shared);
+        writeVarInt(record, key.length - shared);
+        record.write(key, shared, key.length - shared);
+        record.writeByte(r.keyDeleted ? KEY_DELETED : 0);
+        writeStrings(record, r.puts);
+        writeStrings(record, r.dels);
+    }
+
+    /**
+     * Writes a non-negative int in 7 bit groups, low group first, so small
+     * values take one byte.
+     *
+     * @param out   output
+     * @param value value to write
+     * @throws IOException if writing fails
+     */
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads an int written by writeVarInt.
+     *
+     * @param in input
+     * @return the value
+     * @throws IOException if reading fails
+     */
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Decodes an int written by writeVarInt.
+     *
+     * @param in buffer positioned at the value
+     * @return the value
+     */
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes.
+     *
+     * @param out output
+     * @param s   string to write
+     * @throws IOException if writing fails
+     */
+    private static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a list of strings with its size first.
+     *
+     * @param out     output
+     * @param strings strings to write
+     * @throws IOException if writing fails
+     */
+    private static void writeStrings(DataOutput out, List<String> strings) throws IOException {
+        writeVarInt(out, strings.size());
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    /**
+     * Reads a string written by writeString.
+     *
+     * @param in input
+     * @return the string
+     * @throws IOException if reading fails
+     */
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes a string written by writeString.
+     *
+     * @param in buffer positioned at the string
+     * @return the string
+     */
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes a list written by writeStrings.
+     *
+     * @param in buffer positioned at the list
+     * @return the strings
+     */
+    private static List<String> readStrings(ByteBuffer in) {
+        int n = readVarInt(in);
+        if (n == 0) {
+            return new ArrayList<String>(0);
+        }
+        ArrayList<String> strings = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Lock-free ordered store with the same multi-valued semantics as DAFTree,
+ * built on a concurrent skip list with one tower per unique key. The data
+ * of a key is an immutable array that is replaced by compare-and-set, so
+ * readers never block and writers only retry when they race on the same
+ * key. Data is matched with equals and kept in insertion order. Iteration
+ * and range scans are weakly consistent: they never fail and reflect the
+ * state at some point during the traversal.
+ *
+ * @param <K> Generic type of key
+ * @param <D> Generic type of data
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class DAFSkipList<K extends Comparable<? super K>, D> implements Iterable<K> {
+
+    // instance variables
+    private final ConcurrentSkipListMap<K, Object[]> towers; // key to its data
+    private final AtomicInteger nElems; // number of elements stored
+    private final AtomicInteger nKeys; // number of unique keys stored
+
+    /**
+     * Initializes an empty DAFSkipList.
+     */
+    public DAFSkipList() {
+        this.towers = new ConcurrentSkipListMap<K, Object[]>();
+        this.nElems = new AtomicInteger();
+        this.nKeys = new AtomicInteger();
+    }
+
+    /**
+     * Returns the total number of elements stored.
+     *
+     * @return total number of elements stored
+     */
+    public int size() {
+        return nElems.get();
+    }
+
+    /**
+     * Returns the total number of unique keys stored.
+     *
+     * @return total number of unique keys stored
+     */
+    public int nUniqueKeys() {
+        return nKeys.get();
+    }
+
+    /**
+     * Inserts the given key-data pair.
+     *
+     * @param key  key to insert
+     * @param data data to insert
+     * @return true if inserted, false if already present
+     * @throws NullPointerException if key or data is null
+     */
+    public boolean insert(K key, D data) {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        // the function may run more than once, only the last run counts
+        final boolean[] changed = new boolean[2]; // inserted, new key
+        towers.compute(key, (k, old) -> {
+            changed[1] = (old == null);
+            if (old == null) {
+                changed[0] = true;
+                return new Object[]{data};
+            }
+            if (indexOf(old, data) >= 0) {
+                changed[0] = false;
+                return old;
+            }
+            changed[0] = true;
+            Object[] grown = Arrays.copyOf(old, old.length + 1);
+            grown[old.length] = data;
+            return grown;
+        });
+        if (changed[0]) {
+            nElems.incrementAndGet();
+            if (changed[1]) {
+                nKeys.incrementAndGet();
+            }
+        }
+        return changed[0];
+    }
+
+    /**
+     * Checks if the key is stored.
+     *
+     * @param key key to search
+     * @return true if found, false otherwise
+     * @throws NullPointerException if the key is null
+     */
+    public boolean lookupAny(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return towers.containsKey(key);
+    }
+
+    /**
+     * Checks if the specified key-data pair is stored.
+     *
+     * @param key  key to search
+     * @param data data to search
+     * @return true if found, false otherwise
+     * @throws NullPointerException if key or data is null
+     */
+    public boolean lookup(K key, D data) {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        Object[] all = towers.get(key);
+        return all != null && indexOf(all, data) >= 0;
+    }
+
+    /**
+     * Returns a LinkedList of all data associated with the given key.
+     *
+     * @param key key to search
+     * @return list of data (empty if no data found)
+     * @throws NullPointerException if the key is null
+     */
+    @SuppressWarnings("unchecked")
+    public LinkedList<D> getAllData(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        LinkedList<D> result = new LinkedList<D>();
+        Object[] all = towers.get(key);
+        if (all != null) {
+            for (Object d : all) {
+                result.add((D) d);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes the given key-data pair.
+     *
+     * @param key  key to remove
+     * @param data data to remove
+     * @return true if removed, false if the pair was not found
+     * @throws NullPointerException if key or data is null
+     */
+    public boolean remove(K key, D data) {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        final boolean[] changed = new boolean[2]; // removed, key gone
+        towers.computeIfPresent(key, (k, old) -> {
+            int index = indexOf(old, data);
+            changed[0] = (index >= 0);
+            changed[1] = (index >= 0 && old.length == 1);
+            if (index < 0) {
+                return old;
+            }
+            if (old.length == 1) {
+                return null;
+            }
+            Object[] shrunk = new Object[old.length - 1];
+            System.arraycopy(old, 0, shrunk, 0, index);
+            System.arraycopy(old, index + 1, shrunk, index, shrunk.length - index);
+            return shrunk;
+        });
+        if (changed[0]) {
+            nElems.decrementAndGet();
+            if (changed[1]) {
+                nKeys.decrementAndGet();
+            }
+        }
+        return changed[0];
+    }
+
+    /**
+     * Removes all pairs with the given key.
+     *
+     * @param key key to remove
+     * @return true if any pair is removed, false otherwise
+     * @throws NullPointerException if the key is null
+     */
+    public boolean removeAll(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        Object[] old = towers.remove(key);
+        if (old == null) {
+            return false;
+        }
+        nElems.addAndGet(-old.length);
+        nKeys.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns a LinkedList of all keys (including duplicates) in [lo, hi) in
+     * ascending order.
+     *
+     * @param lo lower bound, inclusive
+     * @param hi upper bound, exclusive
+     * @return list of keys (empty if no key in range)
+     * @throws NullPointerException if lo or hi is null
+     */
+    public LinkedList<K> getKeysInRange(K lo, K hi) {
+        if (lo == null || hi == null) {
+            throw new NullPointerException();
+        }
+        LinkedList<K> result = new LinkedList<K>();
+        if (lo.compareTo(hi) >= 0) {
+            return result;
+        }
+        for (Map.Entry<K, Object[]> e : towers.subMap(lo, true, hi, false).entrySet()) {
+            for (int i = 0; i < e.getValue().length; i++) {
+                result.add(e.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a LinkedList of all keys paired with data equal to the given
+     * one, in ascending order. Every tower is visited.
+     *
+     * @param data data to search
+     * @return list of keys (empty if none)
+     * @throws NullPointerException if the data is null
+     */
+    public LinkedList<K> getAllKeys(D data) {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        LinkedList<K> result = new LinkedList<K>();
+        for (Map.Entry<K, Object[]> e : towers.entrySet()) {
+            if (indexOf(e.getValue(), data) >= 0) {
+                result.add(e.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes every element.
+     */
+    public void clear() {
+        towers.clear();
+        nElems.set(0);
+        nKeys.set(0);
+    }
+
+    /**
+     * Returns the minimum key stored.
+     *
+     * @return minimum key, or null if no keys stored
+     */
+    public K getMinKey() {
+        Map.Entry<K, Object[]> e = towers.firstEntry();
+        return (e == null) ? null : e.getKey();
+    }
+
+    /**
+     * Returns the maximum key stored.
+     *
+     * @return maximum key, or null if no keys stored
+     */
+    public K getMaxKey() {
+        Map.Entry<K, Object[]> e = towers.lastEntry();
+        return (e == null) ? null : e.getKey();
+    }
+
+    /**
+     * Returns an iterator over all keys (including duplicates) in ascending
+     * order.
+     *
+     * @return iterator
+     */
+    public Iterator<K> iterator() {
+        final Iterator<Map.Entry<K, Object[]>> entries = towers.entrySet().iterator();
+        return new Iterator<K>() {
+            private K current; // key being repeated
+            private int remaining; // repetitions left for current
+
+            public boolean hasNext() {
+                return remaining > 0 || entries.hasNext();
+            }
+
+            public K next() {
+                if (remaining == 0) {
+                    Map.Entry<K, Object[]> e = entries.next();
+                    current = e.getKey();
+                    remaining = e.getValue().length;
+                }
+                remaining--;
+                return current;
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the unique keys in ascending order, each with
+     * its data in insertion order.
+     *
+     * @return iterator of key and data groups
+     */
+    @SuppressWarnings("unchecked")
+    Iterator<Map.Entry<K, List<D>>> groupIterator() {
+        final Iterator<Map.Entry<K, Object[]>> entries = towers.entrySet().iterator();
+        return new Iterator<Map.Entry<K, List<D>>>() {
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            public Map.Entry<K, List<D>> next() {
+                Map.Entry<K, Object[]> e = entries.next();
+                List<D> data = (List<D>) Arrays.asList(e.getValue());
+                return new AbstractMap.SimpleImmutableEntry<K, List<D>>(e.getKey(), data);
+            }
+        };
+    }
+
+    /**
+     * Returns the index of data in the given array.
+     *
+     * @param array data array of a key
+     * @param data  data to find
+     * @return index of data, -1 if not found
+     */
+    private static int indexOf(Object[] array, Object data) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i].equals(data)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+
+/**
+ * Immutable, persistent version of a DAFTree. Every update copies only the
+ * path from the root to the changed node and shares everything else with
+ * the previous version, so taking a snapshot is O(1) and a snapshot never
+ * changes once it is handed out. The tree is kept height balanced like an
+ * AVL tree, so updates copy O(log n) nodes whatever the key order. Data is
+ * matched by reference, like DAFTree. Old versions are reclaimed by the
+ * garbage collector as soon as no reader holds them.
+ *
+ * @param <K> Generic type of key
+ * @param <D> Generic type of data
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class DAFSnapshot<K extends Comparable<? super K>, D> implements Iterable<K> {
+
+    // instance variables
+    private final SnapNode<K, D> root; // root node
+    private final int nElems; // number of elements stored
+    private final int nKeys; // number of unique keys stored
+
+    /**
+     * Immutable node of the snapshot tree. All data of one key is kept in a
+     * single node in insertion order, the same order as a DAFTree dup chain.
+     *
+     * @param <K> Generic type of key
+     * @param <D> Generic type of data
+     */
+    private static final class SnapNode<K, D> {
+        final K key;
+        final Object[] data;
+        final SnapNode<K, D> left, right; // children
+        final int height; // nodes on the longest path down to a leaf
+
+        /**
+         * Initializes a SnapNode object.
+         *
+         * @param key   key of the node
+         * @param data  data of the node
+         * @param left  left child
+         * @param right right child
+         */
+        SnapNode(K key, Object[] data, SnapNode<K, D> left, SnapNode<K, D> right) {
+            this.key = key;
+            this.data = data;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+        }
+
+        /**
+         * Returns a copy of this node with the given children, rebalanced
+         * if their heights differ by more than one.
+         *
+         * @param left  new left child
+         * @param right new right child
+         * @return copied node, or the root of the rebalanced sub tree
+         */
+        SnapNode<K, D> withChildren(SnapNode<K, D> left, SnapNode<K, D> right) {
+            if (left == this.left && right == this.right) {
+                return this;
+            }
+            return balance(key, data, left, right);
+        }
+    }
+
+    /**
+     * Initializes a snapshot with the given root and counts.
+     *
+     * @param root   root node
+     * @param nElems number of elements
+     * @param nKeys  number of unique keys
+     */
+    private DAFSnapshot(SnapNode<K, D> root, int nElems, int nKeys) {
+        this.root = root;
+        this.nElems = nElems;
+        this.nKeys = nKeys;
+    }
+
+    /**
+     * Returns an empty snapshot.
+     *
+     * @param <K> Generic type of key
+     * @param <D> Generic type of data
+     * @return empty snapshot
+     */
+    static <K extends Comparable<? super K>, D> DAFSnapshot<K, D> empty() {
+        return new DAFSnapshot<K, D>(null, 0, 0);
+    }
+
+    /**
+     * Returns a snapshot of the given groups, built as a balanced tree in
+     * linear time.
+     *
+     * @param groups unique keys in ascending order, each with its data in
+     *               insertion order
+     * @param <K>    Generic type of key
+     * @param <D>    Generic type of data
+     * @return snapshot of the groups
+     */
+    static <K extends Comparable<? super K>, D> DAFSnapshot<K, D> build(Iterator<Map.Entry<K, List<D>>> groups) {
+        ArrayList<K> keys = new ArrayList<K>();
+        ArrayList<Object[]> data = new ArrayList<Object[]>();
+        int nElems = 0;
+        while (groups.hasNext()) {
+            Map.Entry<K, List<D>> group = groups.next();
+            keys.add(group.getKey());
+            data.add(group.getValue().toArray());
+            nElems += group.getValue().size();
+        }
+        return new DAFSnapshot<K, D>(buildHelper(keys, data, 0, keys.size()), nElems, keys.size());
+    }
+
+    /**
+     * helper for build, builds the sub tree of a range of groups
+     * @param keys keys in ascending order
+     * @param data data of every key
+     * @param lo   first group of the range
+     * @param hi   group after the last of the range
+     * @return root of the sub tree, null if the range is empty
+     */
+    private static <K, D> SnapNode<K, D> buildHelper(List<K> keys, List<Object[]> data, int lo, int hi) {
+        if (lo >= hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        return new SnapNode<K, D>(keys.get(mid), data.get(mid),
+                buildHelper(keys, data, lo, mid), buildHelper(keys, data, mid + 1, hi));
+    }
+
+    /**
+     * Returns the total number of elements stored in this snapshot.
+     *
+     * @return total number of elements stored
+     */
+    public int size() {
+        return this.nElems;
+    }
+
+    /**
+     * Returns the total number of unique keys stored in this snapshot.
+     *
+     * @return total number of unique keys stored
+     */
+    public int nUniqueKeys() {
+        return this.nKeys;
+    }
+
+    /**
+     * Checks if the key is stored in this snapshot.
+     *
+     * @param key key to search
+     * @return true if found, false otherwise
+     * @throws NullPointerException if the key is null
+     */
+    public boolean lookupAny(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return findNode(key) != null;
+    }
+
+    /**
+     * Checks if the specified key-data pair is stored in this snapshot.
+     *
+     * @param key  key to search
+     * @param data data to search
+     * @return true if found, false otherwise
+     * @throws NullPointerException if key or data is null
+     */
+    public boolean lookup(K key, D data) {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        SnapNode<K, D> node = findNode(key);
+        return node != null && indexOf(node.data, data) >= 0;
+    }
+
+    /**
+     * Returns a LinkedList of all data associated with the given key.
+     *
+     * @param key key to search
+     * @return list of data (empty if no data found)
+     * @throws NullPointerException if the key is null
+     */
+    @SuppressWarnings("unchecked")
+    public LinkedList<D> getAllData(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        LinkedList<D> result = new LinkedList<D>();
+        SnapNode<K, D> node = findNode(key);
+        if (node != null) {
+            for (Object d : node.data) {
+                result.add((D) d);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return a LinkedList of all keys (including duplicates) in ascending order.
+     *
+     * @return a list of all keys, empty list if no keys stored
+     */
+    public LinkedList<K> getAllKeys() {
+        LinkedList<K> result = new LinkedList<K>();
+        for (K key : this) {
+            result.add(key);
+        }
+        return result;
+    }
+
+    /**
+     * Return the minimum key stored.
+     *
+     * @return minimum key, or null if no keys stored
+     */
+    public K getMinKey() {
+        SnapNode<K, D> curr = root;
+        if (curr == null) {
+            return null;
+        }
+        while (curr.left != null) {
+            curr = curr.left;
+        }
+        return curr.key;
+    }
+
+    /**
+     * Return the maximum key stored.
+     *
+     * @return maximum key, or null if no keys stored
+     */
+    public K getMaxKey() {
+        SnapNode<K, D> curr = root;
+        if (curr == null) {
+            return null;
+        }
+        while (curr.right != null) {
+            curr = curr.right;
+        }
+        return curr.key;
+    }
+
+    /**
+     * Returns an iterator over all keys (including duplicates) in ascending
+     * order. The iterator never observes later updates.
+     *
+     * @return iterator
+     */
+    public Iterator<K> iterator() {
+        return new SnapshotIterator();
+    }
+
+    /**
+     * iterator class that iterates the keys in inorder, repeating each key
+     * once per data stored with it
+     */
+    private class SnapshotIterator implements Iterator<K> {
+        private final Stack<SnapNode<K, D>> stack = new Stack<SnapNode<K, D>>();
+        private SnapNode<K, D> current; // node whose key is being repeated
+        private int remaining; // repetitions left for current
+
+        /**
+         * Initializes a snapshot iterator instance.
+         */
+        SnapshotIterator() {
+            pushLeft(root);
+        }
+
+        /**
+         * Pushes the left most chain starting at node.
+         *
+         * @param node start of the chain
+         */
+        private void pushLeft(SnapNode<K, D> node) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+        }
+
+        /**
+         * Checks if the iterator has next element.
+         *
+         * @return true if there is a next, false otherwise
+         */
+        public boolean hasNext() {
+            return remaining > 0 || !stack.isEmpty();
+        }
+
+        /**
+         * Returns the next key of the iterator.
+         *
+         * @return next key
+         * @throws NoSuchElementException if the iterator reaches the end of traversal
+         */
+        public K next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (remaining == 0) {
+                current = stack.pop();
+                remaining = current.data.length;
+                pushLeft(current.right);
+            }
+            remaining--;
+            return current.key;
+        }
+    }
+
+    /**
+     * Returns a new snapshot that also contains the given pair.
+     *
+     * @param key  key to insert
+     * @param data data to insert
+     * @return new snapshot, or this snapshot if the pair was already present
+     */
+    DAFSnapshot<K, D> insert(K key, D data) {
+        boolean[] newKey = new boolean[1];
+        SnapNode<K, D> newRoot = insertHelper(root, key, data, newKey);
+        if (newRoot == root) {
+            return this;
+        }
+        return new DAFSnapshot<K, D>(newRoot, nElems + 1, newKey[0] ? nKeys + 1 : nKeys);
+    }
+
+    /**
+     * Returns a new snapshot without the given pair.
+     *
+     * @param key  key to remove
+     * @param data data to remove
+     * @return new snapshot, or this snapshot if the pair was not present
+     */
+    DAFSnapshot<K, D> remove(K key, D data) {
+        boolean[] keyGone = new boolean[1];
+        SnapNode<K, D> newRoot = removeHelper(root, key, data, keyGone);
+        if (newRoot == root) {
+            return this;
+        }
+        return new DAFSnapshot<K, D>(newRoot, nElems - 1, keyGone[0] ? nKeys - 1 : nKeys);
+    }
+
+    /**
+     * Returns a new snapshot without any pair of the given key.
+     *
+     * @param key key to remove
+     * @return new snapshot, or this snapshot if the key was not present
+     */
+    DAFSnapshot<K, D> removeAll(K key) {
+        SnapNode<K, D> node = findNode(key);
+        if (node == null) {
+            return this;
+        }
+        return new DAFSnapshot<K, D>(removeKeyHelper(root, key), nElems - node.data.length, nKeys - 1);
+    }
+
+    /**
+     * helper method, find the node that contains key
+     * @param key key to find
+     * @return node holding the key, or null if not found
+     */
+    private SnapNode<K, D> findNode(K key) {
+        SnapNode<K, D> curr = root;
+        while (curr != null) {
+            int cmp = key.compareTo(curr.key);
+            if (cmp == 0) {
+                return curr;
+            }
+            curr = (cmp < 0) ? curr.left : curr.right;
+        }
+        return null;
+    }
+
+    /**
+     * helper for insert, copies the search path
+     * @param node   root of the sub tree
+     * @param key    key to insert
+     * @param data   data to insert
+     * @param newKey set to true if the key was not present before
+     * @return new root of the sub tree, node itself if nothing changed
+     */
+    private SnapNode<K, D> insertHelper(SnapNode<K, D> node, K key, D data, boolean[] newKey) {
+        if (node == null) {
+            newKey[0] = true;
+            return new SnapNode<K, D>(key, new Object[]{data}, null, null);
+        }
+        int cmp = key.compareTo(node.key);
+        if (cmp < 0) {
+            return node.withChildren(insertHelper(node.left, key, data, newKey), node.right);
+        }
+        if (cmp > 0) {
+            return node.withChildren(node.left, insertHelper(node.right, key, data, newKey));
+        }
+        if (indexOf(node.data, data) >= 0) {
+            return node;
+        }
+        Object[] newData = Arrays.copyOf(node.data, node.data.length + 1);
+        newData[node.data.length] = data;
+        return new SnapNode<K, D>(node.key, newData, node.left, node.right);
+    }
+
+    /**
+     * helper for remove, copies the search path
+     * @param node    root of the sub tree
+     * @param key     key to remove
+     * @param data    data to remove
+     * @param keyGone set to true if the last data of the key was removed
+     * @return new root of the sub tree, node itself if nothing changed
+     */
+    private SnapNode<K, D> removeHelper(SnapNode<K, D> node, K key, D data, boolean[] keyGone) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = key.compareTo(node.key);
+        if (cmp < 0) {
+            return node.withChildren(removeHelper(node.left, key, data, keyGone), node.right);
+        }
+        if (cmp > 0) {
+            return node.withChildren(node.left, removeHelper(node.right, key, data, keyGone));
+        }
+        int index = indexOf(node.data, data);
+        if (index < 0) {
+            return node;
+        }
+        if (node.data.length == 1) {
+            keyGone[0] = true;
+            return unlink(node);
+        }
+        Object[] newData = new Object[node.data.length - 1];
+        System.arraycopy(node.data, 0, newData, 0, index);
+        System.arraycopy(node.data, index + 1, newData, index, newData.length - index);
+        return new SnapNode<K, D>(node.key, newData, node.left, node.right);
+    }
+
+    /**
+     * helper for removeAll, copies the search path
+     * @param node root of the sub tree
+     * @param key  key to remove, must be present
+     * @return new root of the sub tree
+     */
+    private SnapNode<K, D> removeKeyHelper(SnapNode<K, D> node, K key) {
+        int cmp = key.compareTo(node.key);
+        if (cmp < 0) {
+            return node.withChildren(removeKeyHelper(node.left, key), node.right);
+        }
+        if (cmp > 0) {
+            return node.withChildren(node.left, removeKeyHelper(node.right, key));
+        }
+        return unlink(node);
+    }
+
+    /**
+     * Removes the given node from its sub tree in BST style of replacement
+     * by in-order successor.
+     *
+     * @param node node to remove
+     * @return new root of the sub tree
+     */
+    private SnapNode<K, D> unlink(SnapNode<K, D> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        SnapNode<K, D> successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.key, successor.data, node.left, removeMin(node.right));
+    }
+
+    /**
+     * Returns a copy of the sub tree without its smallest node.
+     *
+     * @param node root of the sub tree
+     * @return new root of the sub tree
+     */
+    private SnapNode<K, D> removeMin(SnapNode<K, D> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return node.withChildren(removeMin(node.left), node.right);
+    }
+
+    /**
+     * Returns the height of a sub tree.
+     *
+     * @param node root of the sub tree
+     * @return height, 0 for an empty sub tree
+     */
+    private static int height(SnapNode<?, ?> node) {
+        return (node == null) ? 0 : node.height;
+    }
+
+    /**
+     * Returns a node with the given content and children, rotated so the
+     * heights of its children differ by at most one. The heights of left
+     * and right may differ by at most two, as after one insert or remove.
+     *
+     * @param key   key of the node
+     * @param data  data of the node
+     * @param left  left child
+     * @param right right child
+     * @return root of the balanced sub tree
+     */
+    private static <K, D> SnapNode<K, D> balance(K key, Object[] data, SnapNode<K, D> left, SnapNode<K, D> right) {
+        if (height(left) > height(right) + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new SnapNode<K, D>(left.key, left.data, left.left,
+                        new SnapNode<K, D>(key, data, left.right, right));
+            }
+            SnapNode<K, D> pivot = left.right;
+            return new SnapNode<K, D>(pivot.key, pivot.data,
+                    new SnapNode<K, D>(left.key, left.data, left.left, pivot.left),
+                    new SnapNode<K, D>(key, data, pivot.right, right));
+        }
+        if (height(right) > height(left) + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new SnapNode<K, D>(right.key, right.data,
+                        new SnapNode<K, D>(key, data, left, right.left), right.right);
+            }
+            SnapNode<K, D> pivot = right.left;
+            return new SnapNode<K, D>(pivot.key, pivot.data,
+                    new SnapNode<K, D>(key, data, left, pivot.left),
+                    new SnapNode<K, D>(right.key, right.data, pivot.right, right.right));
+        }
+        return new SnapNode<K, D>(key, data, left, right);
+    }
+
+    /**
+     * Returns the index of data in the given array. Data is matched by
+     * reference, like DAFTree.
+     *
+     * @param array data array of a node
+     * @param data  data to find
+     * @return index of data, -1 if not found
+     */
+    private static int indexOf(Object[] array, Object data) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == data) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
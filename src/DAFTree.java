@@ -17,10 +17,16 @@ import java.util.*;
 @SuppressWarnings("rawtypes")
 public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
 
+    // constants
+    public static final int COMPACT_RATIO = 4; // rebalance once size falls below peak / ratio
+    public static final int COMPACT_MIN = 64; // smallest peak that triggers a rebalance
+
     // instance variables
     private DAFNode<K, D> root; // root node
     private int nElems; // number of elements stored
     private int nKeys; // number of unique keys stored
+    private int peak; // most elements stored since the last rebuild
+    private boolean adaptive; // true if lookups splay and remember dup chain hits
 
     /**
      * DAFNode class
@@ -33,6 +39,8 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
         D data;
         DAFNode<K, D> left, dup, right; // children
         DAFNode<K, D> par; // parent
+        int size; // number of elements in this subtree, including dup chains
+        DAFNode<K, D> hint; // last data hit in the dup chain of a head, adaptive mode only
 
         /**
          * Initializes a DAFNode object.
@@ -51,6 +59,7 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
             this.right = null;
             this.par = null;
             this.dup = null;
+            this.size = 1;
         }
 
         /**
@@ -187,50 +196,89 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
         if(key == null || data == null) {
             throw new NullPointerException();
         }
-        //update number of keys and elements
-        if(lookup(key,data)) {
-            return null;
-        }
-        this.nElems++;
-        if (!lookupAny(key)){
-            this.nKeys++;
-        }
-        DAFNode<K, D> node= new DAFNode<K, D>(key,data);
-        //if root is null
-        if(root == null){
-            root = node;
+        Object event = FADAFEvents.begin(FADAFEvents.SLOW_OPERATION);
+        int[] visits = (event != null) ? new int[1] : null;
+        try {
+            //one search finds both the pair and the head of its key
+            DAFNode<K, D> head = findNodeHelper(root, key, visits);
+            if(head != null && chainHelper(head, data, visits)) {
+                return null;
+            }
+            //update number of keys and elements
+            this.nElems++;
+            peak = Math.max(peak, nElems);
+            if (head == null){
+                this.nKeys++;
+            }
+            DAFNode<K, D> node= new DAFNode<K, D>(key,data);
+            //if root is null
+            if(root == null){
+                root = node;
+                return node;
+            }
+            insertHelper(node, head, visits);
+            //every node above the new one gains one element
+            for(DAFNode<K, D> p = node.par; p != null; p = p.par) {
+                p.size++;
+            }
             return node;
+        } finally {
+            endOperation(event, "insert", key, visits);
         }
+    }
 
-        DAFNode<K, D> curr = root;
-        while(true){
-            if(node.key.compareTo(curr.key) < 0){
-                if(curr.left == null){
-                    curr.left = node;
-                    node.par = curr;
-                    return node;
+    /**
+     * helper function for insert, links the node below its parent
+     * @param node node to link, the tree must not be empty
+     * @param head head of the chain of the node key, null to search for
+     *             the place
+     * @param visits counter of visited nodes, null if not counted
+     */
+    private void insertHelper(DAFNode<K, D> node, DAFNode<K, D> head, int[] visits) {
+        DAFNode<K, D> curr = head;
+        if(curr == null) {
+            curr = root;
+            int lo = 0; //prefix shared with the nearest smaller node on the path
+            int hi = 0; //prefix shared with the nearest greater node on the path
+            while(true) {
+                if(visits != null) {
+                    visits[0]++;
                 }
-                //go left
-                curr = curr.left;
-            }
-            else if(node.key.compareTo(curr.key)>0){
-                if(curr.right == null){
-                    curr.right = node;
-                    node.par = curr;
-                    return node;
+                int cmp = compareFrom(node.key, curr.key, Math.min(lo, hi));
+                if(cmp < 0) {
+                    if(curr.left == null){
+                        curr.left = node;
+                        node.par = curr;
+                        return;
+                    }
+                    //go left
+                    hi = -cmp - 1;
+                    curr = curr.left;
                 }
-                //go right
-                curr = curr.right;
-            }
-            else{
-                if(curr.dup == null){
-                    curr.dup = node;
-                    node.par = curr;
-                    return node;
+                else if(cmp > 0) {
+                    if(curr.right == null){
+                        curr.right = node;
+                        node.par = curr;
+                        return;
+                    }
+                    //go right
+                    lo = cmp - 1;
+                    curr = curr.right;
                 }
-                curr = curr.dup;
+                else {
+                    break;
+                }
+            }
+        }
+        //append to the end of the dup chain
+        while(curr.dup != null) {
+            if(visits != null) {
+                visits[0]++;
             }
+            curr = curr.dup;
         }
+        curr.dup = node;
+        node.par = curr;
     }
 
     /**
@@ -244,98 +292,304 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
         if(key == null) {
             throw new NullPointerException();
         }
-        return lookupAnyHelper(root,key);
+        Object event = FADAFEvents.begin(FADAFEvents.SLOW_OPERATION);
+        int[] visits = (event != null) ? new int[1] : null;
+        try {
+            DAFNode<K, D> head = findNodeHelper(root, key, visits);
+            if(adaptive && head != null) {
+                splay(head);
+            }
+            return head != null;
+        } finally {
+            endOperation(event, "lookupAny", key, visits);
+        }
     }
 
     /**
-     * helper function for look up any
-     * @param node root where to start
-     * @param key key to search for
+     * Checks if the specified key-data pair is stored in the tree.
+     *
+     * @param key  key to search
+     * @param data data to search
      * @return true if found, false otherwise
+     * @throws NullPointerException if key or data is null
      */
-    private boolean lookupAnyHelper(DAFNode<K, D> node, K key){
-        if(node == null) {
-            return false;
+    public boolean lookup(K key, D data) {
+
+        if(key == null || data == null) {
+            throw new NullPointerException();
         }
-        if(node.key == key) {
-            return true;
+        Object event = FADAFEvents.begin(FADAFEvents.SLOW_OPERATION);
+        int[] visits = (event != null) ? new int[1] : null;
+        try {
+            DAFNode<K, D> head = findNodeHelper(root, key, visits);
+            if(head == null) {
+                return false;
+            }
+            boolean found = chainHelper(head, data, visits);
+            if(adaptive) {
+                splay(head);
+            }
+            return found;
+        } finally {
+            endOperation(event, "lookup", key, visits);
         }
-        return (lookupAnyHelper(node.left, key) || lookupAnyHelper(node.right, key));
     }
 
     /**
-     * Checks if the specified key-data pair is stored in the tree.
+     * Finds the stored data of a key that is equal to the given data.
      *
      * @param key  key to search
-     * @param data data to search
-     * @return true if found, false otherwise
+     * @param data data to compare with equals
+     * @return the first equal data in the dup chain, or null if there is none
      * @throws NullPointerException if key or data is null
      */
-    public boolean lookup(K key, D data) {
+    public D lookupEqual(K key, D data) {
 
         if(key == null || data == null) {
             throw new NullPointerException();
         }
-        return lookupHelper(root,key,data);
+        Object event = FADAFEvents.begin(FADAFEvents.SLOW_OPERATION);
+        int[] visits = (event != null) ? new int[1] : null;
+        try {
+            DAFNode<K, D> head = findNodeHelper(root, key, visits);
+            if(head == null) {
+                return null;
+            }
+            D stored = null;
+            for(DAFNode<K, D> curr = head; curr != null; curr = curr.dup) {
+                if(visits != null) {
+                    visits[0]++;
+                }
+                if(data.equals(curr.data)) {
+                    stored = curr.data;
+                    break;
+                }
+            }
+            if(adaptive) {
+                splay(head);
+            }
+            return stored;
+        } finally {
+            endOperation(event, "lookupEqual", key, visits);
+        }
     }
 
     /**
-     * helper function for look up
-     * @param node root to start
-     * @param key key to match
-     * @param data data to match
-     * @return true if found and false otherwise
+     * Checks many key-data pairs at once. Only the positions set in probes
+     * are checked, and the positions of pairs that are not stored are
+     * cleared. The probes are sorted by key and walk down the tree
+     * together: a node splits the sorted probes into the ones that go left,
+     * the ones that match it and the ones that go right, so every node on
+     * the shared part of the paths is read once per batch instead of once
+     * per probe. Adaptive mode does not splay during a batch.
+     *
+     * @param keys   keys of the pairs
+     * @param data   data of the pairs, same length as keys
+     * @param probes positions to check, left set only for pairs found
+     * @throws NullPointerException     if an array or a pair to check is null
+     * @throws IllegalArgumentException if keys and data differ in length
      */
-    private boolean lookupHelper(DAFNode<K, D> node, K key, D data){
-        if(node == null) {
-            return false;
+    public void lookupMany(K[] keys, D[] data, BitSet probes) {
+        if(keys == null || data == null || probes == null) {
+            throw new NullPointerException();
         }
-        if(node.key == key){
-            DAFNode<K, D> curr = node;
-            while(curr!=null){
-                if(curr.data == data) {
-                    return true;
+        if(keys.length != data.length) {
+            throw new IllegalArgumentException();
+        }
+        probes.clear(keys.length, Math.max(keys.length, probes.length()));
+        int[] order = new int[probes.cardinality()];
+        int n = 0;
+        for(int i = probes.nextSetBit(0); i >= 0; i = probes.nextSetBit(i+1)) {
+            if(keys[i] == null || data[i] == null) {
+                throw new NullPointerException();
+            }
+            order[n++] = i;
+        }
+        sortByKey(order, keys);
+
+        //each entry is a subtree and the range of sorted probes inside it
+        Stack<DAFNode<K, D>> nodes = new Stack<DAFNode<K, D>>();
+        Stack<int[]> ranges = new Stack<int[]>();
+        nodes.push(root);
+        ranges.push(new int[]{0, n});
+        while(!nodes.empty()) {
+            DAFNode<K, D> node = nodes.pop();
+            int[] range = ranges.pop();
+            int lo = range[0];
+            int hi = range[1];
+            while(lo < hi && node != null) {
+                K key = node.key;
+                int lt = lowerBound(order, keys, lo, hi, key, false);
+                int gt = lowerBound(order, keys, lt, hi, key, true);
+                if(lo < lt) {
+                    nodes.push(node.left);
+                    ranges.push(new int[]{lo, lt});
                 }
-                else {
-                    curr = curr.dup;
+                for(int i=lt; i<gt; i++) {
+                    int p = order[i];
+                    //keys equal by order but not by reference are not stored
+                    if(keys[p] != key || !chainHelper(node, data[p], null)) {
+                        probes.clear(p);
+                    }
                 }
+                lo = gt;
+                node = node.right;
+            }
+            for(int i=lo; i<hi; i++) {
+                probes.clear(order[i]);
             }
-            return false;
         }
-        // look up in the subtrees
-        return (lookupHelper(node.left, key, data) || lookupHelper(node.right, key, data));
     }
 
     /**
-     * helper method, find the node that contains key recursively
-     * @param node root of the tree or sub tree
-     * @param key key to find
-     * @return
+     * helper function for lookupMany, finds the first sorted probe whose
+     * key is not smaller than (or, if strict, is greater than) the given key
+     * @param order probe positions sorted by key
+     * @param keys keys of the probes
+     * @param lo first index to search
+     * @param hi index after the last to search
+     * @param key key to compare with
+     * @param strict true to skip keys equal to key as well
+     * @return index in [lo, hi]
      */
-    private DAFNode<K, D> findNodeHelper(DAFNode<K, D> node, K key){
-        if(node == null) {
-            return null;
+    private int lowerBound(int[] order, K[] keys, int lo, int hi, K key, boolean strict) {
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = keys[order[mid]].compareTo(key);
+            if(cmp < 0 || (strict && cmp == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
         }
-        if(node.key == key) {
-            return node;
+        return lo;
+    }
+
+    /**
+     * helper function for lookupMany, sorts probe positions by their keys
+     * with a bottom-up merge sort, which avoids boxing the positions
+     * @param order probe positions to sort
+     * @param keys keys of the probes
+     */
+    private void sortByKey(int[] order, K[] keys) {
+        int[] src = order;
+        int[] dst = new int[order.length];
+        for(int width = 1; width < order.length; width *= 2) {
+            for(int lo = 0; lo < order.length; lo += 2 * width) {
+                int mid = Math.min(lo + width, order.length);
+                int hi = Math.min(lo + 2 * width, order.length);
+                int i = lo, j = mid, k = lo;
+                while(i < mid && j < hi) {
+                    dst[k++] = (keys[src[j]].compareTo(keys[src[i]]) < 0) ? src[j++] : src[i++];
+                }
+                while(i < mid) {
+                    dst[k++] = src[i++];
+                }
+                while(j < hi) {
+                    dst[k++] = src[j++];
+                }
+            }
+            int[] temp = src;
+            src = dst;
+            dst = temp;
         }
-        DAFNode<K,D> leftNode;
-        DAFNode<K,D> rightNode;
-        //find the node recursively
-        leftNode = findNodeHelper(node.left, key);
-        rightNode = findNodeHelper(node.right, key);
-        //return the result
-        if(leftNode == null && rightNode == null) {
-            return null;
+        if(src != order) {
+            System.arraycopy(src, 0, order, 0, order.length);
+        }
+    }
+
+    /**
+     * helper function, checks the dup chain of a head for the data. In
+     * adaptive mode the last hit is remembered and checked first.
+     * @param head head of the chain
+     * @param data data to match
+     * @param visits counter of visited nodes, null if not counted
+     * @return true if found and false otherwise
+     */
+    private boolean chainHelper(DAFNode<K, D> head, D data, int[] visits){
+        if(head.hint != null && head.hint.data == data) {
+            if(visits != null) {
+                visits[0]++;
+            }
+            return true;
+        }
+        DAFNode<K, D> curr = head;
+        while(curr!=null){
+            if(visits != null) {
+                visits[0]++;
+            }
+            if(curr.data == data) {
+                if(adaptive && curr != head) {
+                    head.hint = curr;
+                }
+                return true;
+            }
+            curr = curr.dup;
         }
-        else{
-            if(leftNode!=null) {
-                return leftNode;
+        return false;
+    }
+
+    /**
+     * helper method, find the chain head of the key. Heads hold keys that
+     * are distinct by compareTo, so the search descends by order and then
+     * matches the head by reference.
+     * @param node root of the tree or sub tree
+     * @param key key to find
+     * @param visits counter of visited nodes, null if not counted
+     * @return head node, or null if not found
+     */
+    private DAFNode<K, D> findNodeHelper(DAFNode<K, D> node, K key, int[] visits){
+        DAFNode<K, D> curr = node;
+        int lo = 0; //prefix shared with the nearest smaller node on the path
+        int hi = 0; //prefix shared with the nearest greater node on the path
+        while(curr != null) {
+            if(visits != null) {
+                visits[0]++;
+            }
+            int cmp = compareFrom(key, curr.key, Math.min(lo, hi));
+            if(cmp == 0) {
+                return (curr.key == key) ? curr : null;
+            }
+            if(cmp < 0) {
+                hi = -cmp - 1;
+                curr = curr.left;
             }
             else {
-                return rightNode;
+                lo = cmp - 1;
+                curr = curr.right;
             }
         }
+        return null;
+    }
+
+    /**
+     * helper method, compares two keys and tells how long a prefix they
+     * share. Every key below a node lies between the nearest smaller and
+     * the nearest greater node on the search path, so it shares at least
+     * the shorter of the prefixes the searched key shares with those two.
+     * Strings are compared from there on, and keys with long common
+     * prefixes are not compared from the start again at every level.
+     * Other keys use compareTo and report no shared prefix.
+     * @param key key to compare
+     * @param other key to compare with
+     * @param from length of a prefix both keys are known to share
+     * @return 0 if the keys are equal, otherwise the length of the shared
+     * prefix plus one, negative if key is smaller
+     */
+    private static <K extends Comparable<? super K>> int compareFrom(K key, K other, int from) {
+        if(!(key instanceof String) || !(other instanceof String)) {
+            int cmp = key.compareTo(other);
+            return (cmp < 0) ? -1 : (cmp > 0) ? 1 : 0;
+        }
+        String a = (String) key;
+        String b = (String) other;
+        int n = Math.min(a.length(), b.length());
+        int i = Math.min(from, n);
+        while(i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        int cmp = (i < n) ? a.charAt(i) - b.charAt(i) : a.length() - b.length();
+        return (cmp < 0) ? -(i + 1) : (cmp > 0) ? i + 1 : 0;
     }
 
     /**
@@ -348,21 +602,387 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
         if(key == null) {
             throw new NullPointerException();
         }
-        //if not contained return an empty linked list
-        if(!this.lookupAny(key)) {
-            LinkedList<D> resultList = new LinkedList<D>();
-            return resultList;
+        Object event = FADAFEvents.begin(FADAFEvents.SLOW_OPERATION);
+        int[] visits = (event != null) ? new int[1] : null;
+        try {
+            DAFNode<K, D> temp = findNodeHelper(root, key, visits);
+            //if not contained return an empty linked list
+            if(temp == null) {
+                LinkedList<D> resultList = new LinkedList<D>();
+                return resultList;
+            }
+            if(adaptive) {
+                splay(temp);
+            }
+            LinkedList<D> result = new LinkedList<D>();
+            DAFNode<K, D> curr = temp;
+            while(curr!=null){
+                if(visits != null) {
+                    visits[0]++;
+                }
+                result.add(curr.data);
+                curr = curr.dup;
+            }
+            return result;
+        } finally {
+            endOperation(event, "getAllData", key, visits);
         }
-        DAFNode<K, D> temp = findNodeHelper(root,key);
-        LinkedList<D> result = new LinkedList<D>();
-        DAFNode<K, D> curr = temp;
-        while(curr!=null){
-            result.add(curr.data);
-            curr = curr.dup;
+    }
+
+    /**
+     * Returns a LinkedList of all keys (including duplicates) in [lo, hi) in
+     * ascending order. Sub trees outside of the range are skipped.
+     *
+     * @param lo lower bound, inclusive
+     * @param hi upper bound, exclusive
+     * @return list of keys (empty if no key in range)
+     * @throws NullPointerException if lo or hi is null
+     */
+    public LinkedList<K> getKeysInRange(K lo, K hi) {
+        if(lo == null || hi == null) {
+            throw new NullPointerException();
         }
+        LinkedList<K> result = new LinkedList<K>();
+        rangeHelper(root, lo, hi, result);
         return result;
     }
 
+    /**
+     * helper function for getKeysInRange
+     * @param node root of the tree or sub tree
+     * @param lo lower bound, inclusive
+     * @param hi upper bound, exclusive
+     * @param result list to add the keys to
+     */
+    private void rangeHelper(DAFNode<K, D> node, K lo, K hi, LinkedList<K> result) {
+        if(node == null) {
+            return;
+        }
+        boolean aboveLo = node.key.compareTo(lo) >= 0;
+        boolean belowHi = node.key.compareTo(hi) < 0;
+        if(aboveLo) {
+            rangeHelper(node.left, lo, hi, result);
+        }
+        if(aboveLo && belowHi) {
+            for(DAFNode<K, D> curr = node; curr != null; curr = curr.dup) {
+                result.add(curr.key);
+            }
+        }
+        if(belowHi) {
+            rangeHelper(node.right, lo, hi, result);
+        }
+    }
+
+    /**
+     * Returns the number of elements whose key is smaller than the given key.
+     * Runs in time proportional to the height of the tree.
+     *
+     * @param key key to rank
+     * @return number of smaller elements
+     * @throws NullPointerException if the key is null
+     */
+    public int rank(K key) {
+        if(key == null) {
+            throw new NullPointerException();
+        }
+        int rank = 0;
+        DAFNode<K, D> curr = root;
+        while(curr != null) {
+            int cmp = key.compareTo(curr.key);
+            if(cmp <= 0) {
+                if(cmp == 0) {
+                    return rank + size(curr.left);
+                }
+                curr = curr.left;
+            }
+            else {
+                //everything but the right subtree is smaller
+                rank += curr.size - size(curr.right);
+                curr = curr.right;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the key of the k-th smallest element (0 based, duplicates
+     * counted). Runs in time proportional to the height of the tree.
+     *
+     * @param k index of the element
+     * @return key of the element
+     * @throws IndexOutOfBoundsException if k is not in [0, size())
+     */
+    public K select(int k) {
+        if(k < 0 || k >= nElems) {
+            throw new IndexOutOfBoundsException();
+        }
+        DAFNode<K, D> curr = root;
+        while(true) {
+            int leftSize = size(curr.left);
+            int chainSize = curr.size - leftSize - size(curr.right);
+            if(k < leftSize) {
+                curr = curr.left;
+            }
+            else if(k < leftSize + chainSize) {
+                return curr.key;
+            }
+            else {
+                k -= leftSize + chainSize;
+                curr = curr.right;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of elements with keys in [lo, hi).
+     *
+     * @param lo lower bound, inclusive
+     * @param hi upper bound, exclusive
+     * @return number of elements in range
+     * @throws NullPointerException if lo or hi is null
+     */
+    public int countRange(K lo, K hi) {
+        if(lo == null || hi == null) {
+            throw new NullPointerException();
+        }
+        return Math.max(0, rank(hi) - rank(lo));
+    }
+
+    /**
+     * Replaces the content of the tree with the given keys and their data,
+     * building a perfectly balanced tree in O(n). Keys must be in strictly
+     * ascending order and every key needs at least one data.
+     *
+     * @param keys unique keys in ascending order, random access
+     * @param data data of every key in insertion order, random access
+     */
+    void bulkLoad(List<K> keys, List<? extends List<D>> data) {
+        Object event = FADAFEvents.begin(FADAFEvents.TREE_REBUILD);
+        nKeys = keys.size();
+        nElems = 0;
+        root = buildHelper(keys, data, 0, keys.size() - 1, null);
+        peak = nElems;
+        if(event != null) {
+            FADAFEvents.commit(event, nElems, nKeys);
+        }
+    }
+
+    /**
+     * Turns adaptive mode on or off. In adaptive mode lookup, lookupAny and
+     * getAllData splay the node of the key they find to the root, so keys
+     * that are looked up often stay near the top, and every head remembers
+     * the last data found in its dup chain and checks it first. Only the
+     * shape changes: iteration order and the order of data are the same as
+     * in a static tree. Lookups then modify the tree, so they must not run
+     * concurrently with each other or during an iteration.
+     *
+     * @param adaptive true to turn adaptive mode on
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        if(!adaptive) {
+            //hints are only kept up to date in adaptive mode
+            Stack<DAFNode<K, D>> stack = new Stack<DAFNode<K, D>>();
+            if(root != null) {
+                stack.push(root);
+            }
+            while(!stack.empty()) {
+                DAFNode<K, D> node = stack.pop();
+                node.hint = null;
+                if(node.left != null) {
+                    stack.push(node.left);
+                }
+                if(node.right != null) {
+                    stack.push(node.right);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if adaptive mode is on.
+     *
+     * @return true if lookups splay, false otherwise
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Moves a head to the root with splay rotations. Every zig-zig and
+     * zig-zag step roughly halves the depth of the nodes on the path, which
+     * keeps the amortized cost of an access O(log n).
+     *
+     * @param node head to move
+     */
+    private void splay(DAFNode<K, D> node) {
+        while(node.par != null) {
+            DAFNode<K, D> parent = node.par;
+            DAFNode<K, D> grand = parent.par;
+            if(grand == null) {
+                rotateUp(node); // zig
+            }
+            else if((grand.left == parent) == (parent.left == node)) {
+                rotateUp(parent); // zig-zig
+                rotateUp(node);
+            }
+            else {
+                rotateUp(node); // zig-zag
+                rotateUp(node);
+            }
+        }
+    }
+
+    /**
+     * Rotates a head above its parent, keeping the order of keys, the dup
+     * chains and the subtree sizes.
+     *
+     * @param node head to rotate up, its parent is a head
+     */
+    private void rotateUp(DAFNode<K, D> node) {
+        DAFNode<K, D> parent = node.par;
+        DAFNode<K, D> grand = parent.par;
+        if(parent.left == node) {
+            parent.left = node.right;
+            if(node.right != null) {
+                node.right.par = parent;
+            }
+            node.right = parent;
+        }
+        else {
+            parent.right = node.left;
+            if(node.left != null) {
+                node.left.par = parent;
+            }
+            node.left = parent;
+        }
+        parent.par = node;
+        node.par = grand;
+        if(grand == null) {
+            root = node;
+        }
+        else if(grand.left == parent) {
+            grand.left = node;
+        }
+        else {
+            grand.right = node;
+        }
+        parent.size = 1 + size(parent.dup) + size(parent.left) + size(parent.right);
+        node.size = 1 + size(node.dup) + size(node.left) + size(node.right);
+    }
+
+    /**
+     * Rebuilds the tree as a perfectly balanced one in O(n). The nodes are
+     * relinked, not copied, so nodes returned by insert stay valid and the
+     * iteration order does not change.
+     */
+    public void rebalance() {
+        Object event = FADAFEvents.begin(FADAFEvents.TREE_REBUILD);
+        ArrayList<DAFNode<K, D>> heads = new ArrayList<DAFNode<K, D>>(nKeys);
+        //in-order walk with an explicit stack, the tree may be very deep
+        Stack<DAFNode<K, D>> stack = new Stack<DAFNode<K, D>>();
+        DAFNode<K, D> curr = root;
+        while(curr != null || !stack.empty()) {
+            while(curr != null) {
+                stack.push(curr);
+                curr = curr.left;
+            }
+            curr = stack.pop();
+            heads.add(curr);
+            curr = curr.right;
+        }
+        root = relinkHelper(heads, 0, heads.size() - 1, null);
+        peak = nElems;
+        if(event != null) {
+            FADAFEvents.commit(event, nElems, nKeys);
+        }
+    }
+
+    /**
+     * Links the heads in [lo, hi] into a balanced subtree, with the middle
+     * one as its root. Dup chains stay attached to their heads.
+     *
+     * @param heads chain heads in ascending key order
+     * @param lo    first index, inclusive
+     * @param hi    last index, inclusive
+     * @param par   parent of the subtree root
+     * @return subtree root, null if the range is empty
+     */
+    private DAFNode<K, D> relinkHelper(List<DAFNode<K, D>> heads, int lo, int hi, DAFNode<K, D> par) {
+        if(lo > hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        DAFNode<K, D> head = heads.get(mid);
+        head.par = par;
+        head.left = relinkHelper(heads, lo, mid - 1, head);
+        head.right = relinkHelper(heads, mid + 1, hi, head);
+        head.size = 1 + size(head.dup) + size(head.left) + size(head.right);
+        return head;
+    }
+
+    /**
+     * Rebalances the tree once most of the elements it held at its peak
+     * are gone, so its depth follows the live size. The O(n) rebuild is
+     * paid for by the deletions since the last one.
+     */
+    private void compactIfSparse() {
+        if(peak >= COMPACT_MIN && nElems < peak / COMPACT_RATIO) {
+            rebalance();
+        }
+    }
+
+    /**
+     * Ends a slow operation event started by the given operation.
+     *
+     * @param event  event from FADAFEvents.begin, null if not recorded
+     * @param op     name of the operation
+     * @param key    key of the operation
+     * @param visits nodes visited by the operation, null if not recorded
+     */
+    private void endOperation(Object event, String op, K key, int[] visits) {
+        if(event != null) {
+            FADAFEvents.commit(event, op, key.hashCode(), visits[0]);
+        }
+    }
+
+    /**
+     * Builds a balanced subtree from the keys in [lo, hi], with the middle
+     * key as its root.
+     *
+     * @param keys unique keys in ascending order
+     * @param data data of every key
+     * @param lo   first index, inclusive
+     * @param hi   last index, inclusive
+     * @param par  parent of the subtree root
+     * @return subtree root, null if the range is empty
+     */
+    private DAFNode<K, D> buildHelper(List<K> keys, List<? extends List<D>> data,
+                                      int lo, int hi, DAFNode<K, D> par) {
+        if(lo > hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        K key = keys.get(mid);
+        List<D> group = data.get(mid);
+        DAFNode<K, D> head = new DAFNode<K, D>(key, group.get(0));
+        head.par = par;
+        //every node of the dup chain counts itself and the ones after it
+        DAFNode<K, D> prev = head;
+        for(int i = 1; i < group.size(); i++) {
+            DAFNode<K, D> dup = new DAFNode<K, D>(key, group.get(i));
+            dup.par = prev;
+            dup.size = group.size() - i;
+            prev.dup = dup;
+            prev = dup;
+        }
+        nElems += group.size();
+        head.left = buildHelper(keys, data, lo, mid - 1, head);
+        head.right = buildHelper(keys, data, mid + 1, hi, head);
+        head.size = group.size() + size(head.left) + size(head.right);
+        return head;
+    }
+
     /**
      * Removes the node with given key and data from the tree.
      *
@@ -373,22 +993,32 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
         if(key == null || data == null) {
             throw new NullPointerException();
         }
-        if(!this.lookup(key,data)) {
-            return false;
-        }
-        DAFNode<K, D> temp = findNodeHelper(root,key);
-        DAFNode<K, D> curr = temp;
-        while(curr!=null){
-            //delete and break
-            if(curr.data == data) {
-                this.remove(curr);
-                break;
+        Object event = FADAFEvents.begin(FADAFEvents.SLOW_OPERATION);
+        int[] visits = (event != null) ? new int[1] : null;
+        try {
+            DAFNode<K, D> temp = findNodeHelper(root, key, visits);
+            if(temp == null || !chainHelper(temp, data, visits)) {
+                return false;
             }
-            else {
-                curr = curr.dup;
+            DAFNode<K, D> curr = temp;
+            while(curr!=null){
+                if(visits != null) {
+                    visits[0]++;
+                }
+                //delete and break
+                if(curr.data == data) {
+                    this.remove(curr);
+                    break;
+                }
+                else {
+                    curr = curr.dup;
+                }
             }
+            compactIfSparse();
+            return true;
+        } finally {
+            endOperation(event, "remove", key, visits);
         }
-        return true;
     }
 
     /**
@@ -401,24 +1031,34 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
         if(key == null) {
             throw new NullPointerException();
         }
-        if(!this.lookupAny(key)) {
-            return false;
-        }
-        //delete the nodes having the same key
-        Stack<DAFNode<K, D>> stack = new Stack<DAFNode<K, D>>();
-        DAFNode<K, D> temp = findNodeHelper(root,key);
-        DAFNode<K, D> curr = temp;
-        while(curr!=null){
-            stack.push(curr);
-            curr = curr.dup;
-        }
-        //delete all the nodes in the stack
-        while(!stack.empty()){
-            DAFNode<K, D> temp2 = stack.peek();
-            remove(temp2);
-            stack.pop();
+        Object event = FADAFEvents.begin(FADAFEvents.SLOW_OPERATION);
+        int[] visits = (event != null) ? new int[1] : null;
+        try {
+            DAFNode<K, D> temp = findNodeHelper(root, key, visits);
+            if(temp == null) {
+                return false;
+            }
+            //delete the nodes having the same key
+            Stack<DAFNode<K, D>> stack = new Stack<DAFNode<K, D>>();
+            DAFNode<K, D> curr = temp;
+            while(curr!=null){
+                if(visits != null) {
+                    visits[0]++;
+                }
+                stack.push(curr);
+                curr = curr.dup;
+            }
+            //delete all the nodes in the stack
+            while(!stack.empty()){
+                DAFNode<K, D> temp2 = stack.peek();
+                remove(temp2);
+                stack.pop();
+            }
+            compactIfSparse();
+            return true;
+        } finally {
+            endOperation(event, "removeAll", key, visits);
         }
-        return true;
     }
 
     /**
@@ -506,6 +1146,32 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
         if (cur.dup == null && (cur.par == null || cur.par.dup != cur))
             nKeys--;
 
+        // lowest node whose subtree changes, sizes are fixed from there up
+        DAFNode<K, D> changed;
+        if (cur.par != null && cur.par.dup == cur) {
+            changed = cur.par; // inside a dup chain
+        } else if (cur.dup != null) {
+            changed = cur.dup; // dup is promoted and takes over the children
+        } else if (cur.left != null && cur.right != null) {
+            DAFNode<K, D> successor = findMin(cur.right);
+            changed = (successor.par == cur) ? successor : successor.par;
+        } else {
+            changed = cur.par;
+        }
+
+        // a hint must never point at a removed node
+        if (cur.par != null && cur.par.dup == cur) {
+            DAFNode<K, D> head = cur.par;
+            while (head.par != null && head.par.dup == head) {
+                head = head.par;
+            }
+            if (head.hint == cur) {
+                head.hint = null;
+            }
+        } else if (cur.dup != null) {
+            cur.dup.hint = (cur.hint == cur.dup) ? null : cur.hint;
+        }
+
         if (cur == root) {
             root = removeHelper(cur, cur.key, cur.data);
             if (root != null) {
@@ -516,16 +1182,40 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
             removeHelper(cur.par, cur.key, cur.data);
         }
         nElems--;
+        updateSizes(changed);
         return true;
     }
 
+    /**
+     * Recomputes the subtree sizes from the given node up to the root.
+     *
+     * @param node lowest node with a changed subtree, may be null
+     */
+    private void updateSizes(DAFNode<K, D> node) {
+        for (DAFNode<K, D> p = node; p != null; p = p.par) {
+            p.size = 1 + size(p.left) + size(p.right) + size(p.dup);
+        }
+    }
+
+    /**
+     * Returns the subtree size of a node.
+     *
+     * @param node node, may be null
+     * @return number of elements below and including node, 0 for null
+     */
+    private int size(DAFNode<K, D> node) {
+        return (node == null) ? 0 : node.size;
+    }
+
     /**
      * Helper to remove node recursively in BST style of replacement by in-order
      * successor, with modification of handling dup and also node are swapped
-     * instead of data field being replaced.
+     * instead of data field being replaced. The node is matched by reference,
+     * so of equal pairs exactly the given one is removed.
      *
      * @param root Root
      * @param key  To be removed
+     * @param data Data of the node to be removed
      * @return The node that replaces the node to be removed
      */
     private DAFNode<K, D> removeHelper(DAFNode<K, D> root, K key, D data) {
@@ -538,7 +1228,7 @@ public class DAFTree<K extends Comparable<? super K>, D> implements Iterable {
             root.left = replacedChild = removeHelper(root.left, key, data);
         } else if (key.compareTo(root.key) > 0) {
             root.right = replacedChild = removeHelper(root.right, key, data);
-        } else if (!data.equals(root.data)) { // this is different from bst
+        } else if (data != root.data || key != root.key) { // this is different from bst
             root.dup = replacedChild = removeHelper(root.dup, key, data);
         } else if (root.dup != null) { // this is different from bst
             // swap only left & right
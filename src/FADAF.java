@@ -4,6 +4,7 @@
  */
 
 import java.util.*;
+import java.util.function.*;
 
 /**
  * FADAF class with high performance
@@ -14,13 +15,74 @@ import java.util.*;
  * @since June 5th 2020
  */
 
-public class FADAF<K extends Comparable<? super K>, D> {
+public class FADAF<K extends Comparable<? super K>, D> implements FADAFBackend<K,D> {
+
+    // constants
+    public static final int EXPIRE_BATCH = 16; // most pairs expired by one call
+    private static final int UNION = 0; // set operations of merge
+    private static final int INTERSECT = 1;
+    private static final int DIFFERENCE = 2;
+    private static final int SMALL_GROUP = 8; // data groups scanned without a set
 
     /*
      * instance variables
      */
     HashTable<K> hashTable;
     DAFTree<K,D> DAFTree;
+    private volatile DAFSnapshot<K,D> version; // latest snapshot, null if disabled
+    private CountingBloomFilter keyFilter; // filter over keys, null if disabled
+    private CountingBloomFilter pairFilter; // filter over key-data pairs, null if disabled
+    private HashMap<D, LinkedHashMap<K, Integer>> reverseIndex; // data to keys and pair counts, null if disabled
+    private TimerWheel<Expiry> expiry; // pending time-to-live timers, null if disabled
+    private HashMap<K, KeyTimers> keyTimers; // deadlines of the keys with timers, null if disabled
+    private LongSupplier clock; // time source of the timers
+    private boolean expiring; // true while expired pairs are being removed
+    private volatile FADAFChangeFeed<K,D> changeFeed; // change listeners, null if disabled
+    private boolean interning; // true if keys are replaced by the instance already stored
+
+    /**
+     * Item of the expiry timer wheel: a pair, or a whole key if data is null.
+     * Data is matched by reference, like the pairs in the tree.
+     */
+    private static final class Expiry {
+        final Object key;
+        final Object data;
+
+        /**
+         * Initializes an Expiry object.
+         *
+         * @param key  key that expires
+         * @param data data that expires, null for all data of the key
+         */
+        Expiry(Object key, Object data) {
+            this.key = key;
+            this.data = data;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Expiry)) {
+                return false;
+            }
+            Expiry other = (Expiry) obj;
+            return key.equals(other.key) && data == other.data;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * key.hashCode() + System.identityHashCode(data);
+        }
+    }
+
+    /**
+     * Deadlines of the timers of one key, so that a read can tell in O(1)
+     * that nothing of the key is due.
+     */
+    private static final class KeyTimers {
+        long next = Long.MAX_VALUE; // no deadline of the key is earlier
+        long keyDeadline = Long.MAX_VALUE; // deadline of the whole key
+        final IdentityHashMap<Object, Long> pairs = new IdentityHashMap<Object, Long>(); // data to deadline
+    }
 
     /**
      * Constructor for FADAF.
@@ -44,6 +106,7 @@ public class FADAF<K extends Comparable<? super K>, D> {
      * @return count of key-data pairs
      */
     public int size() {
+        expire();
         return DAFTree.size();
     }
 
@@ -53,6 +116,7 @@ public class FADAF<K extends Comparable<? super K>, D> {
      * @return count of unique keys
      */
     public int nUniqueKeys() {
+        expire();
         return DAFTree.nUniqueKeys();
     }
 
@@ -68,15 +132,68 @@ public class FADAF<K extends Comparable<? super K>, D> {
         if(key == null || data == null) {
             throw new NullPointerException();
         }
-        //if exist return false
-        if(DAFTree.lookup(key,data)) {
+        expireSome(key);
+        key = canonical(key);
+        //if exist return false, a definite miss of the filter skips the search
+        if((pairFilter == null || pairFilter.probe(pairHash(key, data)))
+                && DAFTree.lookup(key,data)) {
             return false;
         }
-        hashTable.insert(key);
-        DAFTree.insert(key, data);
+        addPair(key, data);
+        return true;
+    }
+
+    /**
+     * Insert the given pair unless data equal to it is already stored with
+     * the key. The other operations match data by reference; this one lets
+     * callers that hold a copy of the data, like data read from the network,
+     * insert it without storing a second equal instance, and compares the
+     * data within the one search of the key.
+     *
+     * @param key  key of the pair to insert
+     * @param data data of the pair to insert
+     * @return true if the pair is inserted, false if equal data is present
+     * @throws NullPointerException if key or data is null
+     */
+    public boolean insertEqual(K key, D data) {
+        if(key == null || data == null) {
+            throw new NullPointerException();
+        }
+        expireSome(key);
+        key = canonical(key);
+        if((pairFilter == null || pairFilter.probe(pairHash(key, data)))
+                && DAFTree.lookupEqual(key, data) != null) {
+            return false;
+        }
+        addPair(key, data);
         return true;
     }
 
+    /**
+     * helper function, adds a pair that is not present to the tree and the
+     * indexes.
+     *
+     * @param key  canonical key of the pair
+     * @param data data of the pair
+     */
+    private void addPair(K key, D data) {
+        boolean newKey = hashTable.insert(key);
+        DAFTree.insert(key, data);
+        if(pairFilter != null) {
+            pairFilter.add(pairHash(key, data));
+            if(newKey) {
+                keyFilter.add(key.hashCode());
+            }
+        }
+        if(reverseIndex != null) {
+            indexPair(key, data);
+        }
+        if(version != null) {
+            version = version.insert(key, data);
+        }
+        publish(FADAFChange.INSERT, key, data);
+    }
+
     /**
      * Remove all key-data pairs that share the given key from the FADAF.
      *
@@ -88,11 +205,34 @@ public class FADAF<K extends Comparable<? super K>, D> {
         if(key == null) {
             throw new NullPointerException();
         }
-        if(!DAFTree.lookupAny(key)) {
+        expireSome(key);
+        key = canonical(key);
+        if((keyFilter != null && !keyFilter.probe(key.hashCode()))
+                || !DAFTree.lookupAny(key)) {
             return false;
         }
+        if(pairFilter != null || reverseIndex != null) {
+            for(D data : DAFTree.getAllData(key)) {
+                if(pairFilter != null) {
+                    pairFilter.remove(pairHash(key, data));
+                }
+                if(reverseIndex != null) {
+                    unindexPair(key, data);
+                }
+            }
+            if(keyFilter != null) {
+                keyFilter.remove(key.hashCode());
+            }
+        }
+        if(expiry != null) {
+            cancelTimer(key, null);
+        }
         DAFTree.removeAll(key);
         hashTable.delete(key);
+        if(version != null) {
+            version = version.removeAll(key);
+        }
+        publish(FADAFChange.REMOVE_ALL, key, null);
         return true;
     }
 
@@ -108,14 +248,75 @@ public class FADAF<K extends Comparable<? super K>, D> {
         if(key == null || data == null) {
             throw new NullPointerException();
         }
-        if(!DAFTree.lookup(key, data)) {
+        expireSome(key);
+        key = canonical(key);
+        if((pairFilter != null && !pairFilter.probe(pairHash(key, data)))
+                || !DAFTree.lookup(key, data)) {
             return false;
         }
-        hashTable.delete(key);
-        DAFTree.remove(key, data);
+        removePair(key, data);
+        return true;
+    }
+
+    /**
+     * Remove the pair whose data is the first stored data equal to the given
+     * data, comparing the data within the one search of the key.
+     *
+     * @param key  key of the pair to remove
+     * @param data data equal to the data of the pair to remove
+     * @return true if a pair is removed, false if no equal data is present
+     * @throws NullPointerException if key or data is null
+     */
+    public boolean removeEqual(K key, D data) {
+        if(key == null || data == null) {
+            throw new NullPointerException();
+        }
+        expireSome(key);
+        key = canonical(key);
+        if(pairFilter != null && !pairFilter.probe(pairHash(key, data))) {
+            return false;
+        }
+        D stored = DAFTree.lookupEqual(key, data);
+        if(stored == null) {
+            return false;
+        }
+        removePair(key, stored);
         return true;
     }
 
+    /**
+     * helper function, removes a present pair from the tree and the indexes.
+     *
+     * @param key  canonical key of the pair
+     * @param data stored data of the pair
+     */
+    private void removePair(K key, D data) {
+        DAFTree.remove(key, data);
+        //the key stays indexed while other data is still paired with it
+        if(!DAFTree.lookupAny(key)) {
+            hashTable.delete(key);
+            if(keyFilter != null) {
+                keyFilter.remove(key.hashCode());
+            }
+            if(expiry != null) {
+                cancelTimer(key, null);
+            }
+        }
+        else if(expiry != null) {
+            cancelTimer(key, data);
+        }
+        if(pairFilter != null) {
+            pairFilter.remove(pairHash(key, data));
+        }
+        if(reverseIndex != null) {
+            unindexPair(key, data);
+        }
+        if(version != null) {
+            version = version.remove(key, data);
+        }
+        publish(FADAFChange.REMOVE, key, data);
+    }
+
     /**
      * Check if any pair with the given key is stored.
      *
@@ -127,7 +328,18 @@ public class FADAF<K extends Comparable<? super K>, D> {
         if(key == null) {
             throw new NullPointerException();
         }
-        return hashTable.lookup(key);
+        expireSome(key);
+        if(keyFilter == null) {
+            return hashTable.lookup(key);
+        }
+        if(!keyFilter.mightContain(key.hashCode())) {
+            return false;
+        }
+        boolean found = hashTable.lookup(key);
+        if(!found) {
+            keyFilter.recordFalsePositive();
+        }
+        return found;
     }
 
     /**
@@ -142,7 +354,145 @@ public class FADAF<K extends Comparable<? super K>, D> {
         if(key == null || data == null) {
             throw new NullPointerException();
         }
-        return DAFTree.lookup(key, data);
+        expireSome(key);
+        key = canonical(key);
+        if(pairFilter == null) {
+            return DAFTree.lookup(key, data);
+        }
+        if(!pairFilter.mightContain(pairHash(key, data))) {
+            return false;
+        }
+        boolean found = DAFTree.lookup(key, data);
+        if(!found) {
+            pairFilter.recordFalsePositive();
+        }
+        return found;
+    }
+
+    /**
+     * Return the data stored with the key that is equal to the given data,
+     * comparing the data within the one search of the key.
+     *
+     * @param key  key to lookup
+     * @param data data equal to the stored data
+     * @return the first stored data equal to data, or null if there is none
+     * @throws NullPointerException if key or data is null
+     */
+    public D lookupEqual(K key, D data) {
+        if(key == null || data == null) {
+            throw new NullPointerException();
+        }
+        expireSome(key);
+        key = canonical(key);
+        if(pairFilter != null && !pairFilter.mightContain(pairHash(key, data))) {
+            return null;
+        }
+        D stored = DAFTree.lookupEqual(key, data);
+        if(stored == null && pairFilter != null) {
+            pairFilter.recordFalsePositive();
+        }
+        return stored;
+    }
+
+    /**
+     * Check many keys at once. Gives the same answers as calling lookupAny
+     * for every key, but hashes and probes the keys in groups so the
+     * memory accesses of different keys overlap.
+     *
+     * @param keys keys to lookup
+     * @return bit i is set if keys[i] is stored
+     * @throws NullPointerException if keys or any key is null
+     */
+    public BitSet lookupAnyMany(K[] keys) {
+        if(keys == null) {
+            throw new NullPointerException();
+        }
+        for(K key : keys) {
+            if(key == null) {
+                throw new NullPointerException();
+            }
+        }
+        BitSet found = new BitSet(keys.length);
+        if(expiry != null) {
+            //expiry removes entries while checking, one key at a time
+            for(int i=0; i<keys.length; i++) {
+                found.set(i, lookupAny(keys[i]));
+            }
+            return found;
+        }
+        found.set(0, keys.length);
+        if(keyFilter == null) {
+            hashTable.lookupMany(keys, found);
+            return found;
+        }
+        for(int i=0; i<keys.length; i++) {
+            if(!keyFilter.mightContain(keys[i].hashCode())) {
+                found.clear(i);
+            }
+        }
+        BitSet passed = (BitSet) found.clone();
+        hashTable.lookupMany(keys, found);
+        passed.andNot(found);
+        for(int i = passed.nextSetBit(0); i >= 0; i = passed.nextSetBit(i+1)) {
+            keyFilter.recordFalsePositive();
+        }
+        return found;
+    }
+
+    /**
+     * Check many key-data pairs at once. Gives the same answers as calling
+     * lookup for every pair, but sorts the pairs by key and searches the
+     * tree for all of them in one walk. Adaptive mode does not splay during
+     * a batch.
+     *
+     * @param keys keys of the pairs
+     * @param data data of the pairs, same length as keys
+     * @return bit i is set if the pair (keys[i], data[i]) is stored
+     * @throws NullPointerException     if an array, a key or a data is null
+     * @throws IllegalArgumentException if keys and data differ in length
+     */
+    public BitSet lookupMany(K[] keys, D[] data) {
+        if(keys == null || data == null) {
+            throw new NullPointerException();
+        }
+        if(keys.length != data.length) {
+            throw new IllegalArgumentException();
+        }
+        for(int i=0; i<keys.length; i++) {
+            if(keys[i] == null || data[i] == null) {
+                throw new NullPointerException();
+            }
+        }
+        BitSet found = new BitSet(keys.length);
+        if(expiry != null) {
+            for(int i=0; i<keys.length; i++) {
+                found.set(i, lookup(keys[i], data[i]));
+            }
+            return found;
+        }
+        if(interning) {
+            keys = keys.clone();
+            for(int i=0; i<keys.length; i++) {
+                keys[i] = canonical(keys[i]);
+            }
+        }
+        found.set(0, keys.length);
+        if(pairFilter == null) {
+            DAFTree.lookupMany(keys, data, found);
+            return found;
+        }
+        for(int i=0; i<keys.length; i++) {
+            if(!pairFilter.mightContain(pairHash(keys[i], data[i]))) {
+                found.clear(i);
+            }
+        }
+        BitSet passed = (BitSet) found.clone();
+        DAFTree.lookupMany(keys, data, found);
+        passed.andNot(found);
+        for(int i = passed.nextSetBit(0); i >= 0; i = passed.nextSetBit(i+1)) {
+            pairFilter.recordFalsePositive();
+        }
+        return found;
     }
 
     /**
@@ -151,6 +501,7 @@ public class FADAF<K extends Comparable<? super K>, D> {
      * @return a list of all keys, empty list if no keys stored
      */
     public LinkedList<K> getAllKeys() {
+        expire();
         LinkedList<K> result = new LinkedList<K>();
         DAFTree.DAFTreeIterator iterator = (DAFTree.DAFTreeIterator) DAFTree.iterator();
         while(iterator.hasNext()){
@@ -171,7 +522,124 @@ public class FADAF<K extends Comparable<? super K>, D> {
         if(key == null ) {
             throw new NullPointerException();
         }
-        return DAFTree.getAllData(key);
+        expireSome(key);
+        return DAFTree.getAllData(canonical(key));
+    }
+
+    /**
+     * Return a LinkedList of all keys paired with the given data. Data is
+     * matched with equals. With the reverse index enabled this costs O(1)
+     * expected plus the output size, otherwise every pair is scanned.
+     *
+     * @param data target data
+     * @return a list of keys, without duplicates, empty list if none
+     * @throws NullPointerException if the data is null
+     */
+    public LinkedList<K> getAllKeys(D data) {
+        if(data == null) {
+            throw new NullPointerException();
+        }
+        expire();
+        if(reverseIndex != null) {
+            LinkedHashMap<K, Integer> keys = reverseIndex.get(data);
+            return (keys == null) ? new LinkedList<K>() : new LinkedList<K>(keys.keySet());
+        }
+        LinkedList<K> result = new LinkedList<K>();
+        Iterator<DAFTree<K, D>.DAFNode<K, D>> iterator = DAFTree.iterator();
+        while(iterator.hasNext()){
+            DAFTree<K, D>.DAFNode<K, D> nextNode = iterator.next();
+            //pairs of a key come right after each other, add each key once
+            if(data.equals(nextNode.data)
+                    && (result.isEmpty() || result.getLast().compareTo(nextNode.key) != 0)) {
+                result.add(nextNode.key);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove every pair that has the given data. Data is matched with
+     * equals. After the keys are found as getAllKeys(data) finds them, every
+     * removed pair costs a search of its key and a walk of the key's dup
+     * chain, so removing m pairs from keys of at most c pairs each costs
+     * O(m (log n + c)) on top of finding the keys.
+     *
+     * @param data data to remove
+     * @return true if at least 1 pair is removed, false otherwise
+     * @throws NullPointerException if the data is null
+     */
+    public boolean removeAllByData(D data) {
+        if(data == null) {
+            throw new NullPointerException();
+        }
+        boolean removed = false;
+        for(K key : getAllKeys(data)) {
+            while(removeEqual(key, data)) {
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Return a LinkedList of all keys (including duplicates) in [lo, hi) in
+     * ascending order.
+     *
+     * @param lo lower bound, inclusive
+     * @param hi upper bound, exclusive
+     * @return a list of keys in range, empty list if none
+     * @throws NullPointerException if lo or hi is null
+     */
+    public LinkedList<K> getKeysInRange(K lo, K hi) {
+        if(lo == null || hi == null) {
+            throw new NullPointerException();
+        }
+        expire();
+        return DAFTree.getKeysInRange(lo, hi);
+    }
+
+    /**
+     * Return the number of pairs whose key is smaller than the given key.
+     *
+     * @param key key to rank
+     * @return number of smaller pairs
+     * @throws NullPointerException if the key is null
+     */
+    public int rank(K key) {
+        if(key == null) {
+            throw new NullPointerException();
+        }
+        expire();
+        return DAFTree.rank(key);
+    }
+
+    /**
+     * Return the key of the k-th smallest pair (0 based, duplicates counted).
+     * select(size() / 2) is the median key.
+     *
+     * @param k index of the pair
+     * @return key of the pair
+     * @throws IndexOutOfBoundsException if k is not in [0, size())
+     */
+    public K select(int k) {
+        expire();
+        return DAFTree.select(k);
+    }
+
+    /**
+     * Return the number of pairs with keys in [lo, hi).
+     *
+     * @param lo lower bound, inclusive
+     * @param hi upper bound, exclusive
+     * @return number of pairs in range
+     * @throws NullPointerException if lo or hi is null
+     */
+    public int countRange(K lo, K hi) {
+        if(lo == null || hi == null) {
+            throw new NullPointerException();
+        }
+        expire();
+        return DAFTree.countRange(lo, hi);
     }
 
     /**
@@ -180,6 +648,7 @@ public class FADAF<K extends Comparable<? super K>, D> {
      * @return minimum key, or null if no keys stored
      */
     public K getMinKey() {
+        expire();
         DAFTree.DAFTreeIterator iterator = (DAFTree.DAFTreeIterator) DAFTree.iterator();
         K nextKey = null;
         if(iterator.hasNext())
@@ -196,6 +665,898 @@ public class FADAF<K extends Comparable<? super K>, D> {
         return (getAllKeys().getLast());
     }
 
+    /**
+     * Remove every pair. The hash table keeps its current capacity.
+     */
+    void clear() {
+        boolean adaptive = DAFTree.isAdaptive();
+        hashTable = new HashTable<>(hashTable.capacity());
+        DAFTree = new DAFTree<>();
+        DAFTree.setAdaptive(adaptive);
+        if(version != null) {
+            version = DAFSnapshot.empty();
+        }
+        if(pairFilter != null) {
+            keyFilter.clear();
+            pairFilter.clear();
+        }
+        if(reverseIndex != null) {
+            reverseIndex.clear();
+        }
+        if(expiry != null) {
+            expiry.clear();
+            keyTimers.clear();
+        }
+        publish(FADAFChange.CLEAR, null, null);
+    }
+
+    /**
+     * Return a new FADAF with every pair that is in a or in b. Both are
+     * walked in key order at the same time and the result is built as a
+     * balanced tree, so this costs O(n + m) instead of one insert per pair.
+     * Data is matched by reference like insert does, and the data of a
+     * shared key keeps the order of a followed by the new data of b. The
+     * optional indexes of a and b are not carried over.
+     *
+     * @param a   first FADAF
+     * @param b   second FADAF
+     * @param <K> Generic type of key
+     * @param <D> Generic type of data
+     * @return union of a and b
+     * @throws NullPointerException if a or b is null
+     */
+    public static <K extends Comparable<? super K>, D> FADAF<K,D> union(FADAF<K,D> a, FADAF<K,D> b) {
+        return combine(a, b, UNION);
+    }
+
+    /**
+     * Return a new FADAF with every pair that is in both a and b, in
+     * O(n + m). See union.
+     *
+     * @param a   first FADAF
+     * @param b   second FADAF
+     * @param <K> Generic type of key
+     * @param <D> Generic type of data
+     * @return intersection of a and b
+     * @throws NullPointerException if a or b is null
+     */
+    public static <K extends Comparable<? super K>, D> FADAF<K,D> intersect(FADAF<K,D> a, FADAF<K,D> b) {
+        return combine(a, b, INTERSECT);
+    }
+
+    /**
+     * Return a new FADAF with every pair of a that is not in b, in
+     * O(n + m). See union.
+     *
+     * @param a   FADAF to take pairs from
+     * @param b   FADAF of pairs to leave out
+     * @param <K> Generic type of key
+     * @param <D> Generic type of data
+     * @return difference of a and b
+     * @throws NullPointerException if a or b is null
+     */
+    public static <K extends Comparable<? super K>, D> FADAF<K,D> difference(FADAF<K,D> a, FADAF<K,D> b) {
+        return combine(a, b, DIFFERENCE);
+    }
+
+    /**
+     * Insert every pair of this FADAF into target. The result is the same as
+     * inserting the pairs one by one, but if target is a FADAF its tree is
+     * rebuilt in a single merge pass in O(n + m), and only the new pairs
+     * touch its optional indexes.
+     *
+     * @param target backend to insert into
+     * @return true if target changed, false otherwise
+     * @throws NullPointerException if target is null
+     */
+    public boolean mergeInto(FADAFBackend<K,D> target) {
+        if(target == null) {
+            throw new NullPointerException();
+        }
+        if(target == this) {
+            return false;
+        }
+        expire();
+        return absorbInto(target, groupIterator());
+    }
+
+    /**
+     * Insert the given groups into a backend, in one merge pass if it is a
+     * FADAF and one pair at a time otherwise.
+     *
+     * @param target backend to insert into
+     * @param source key and data groups in ascending key order
+     * @param <K>    Generic type of key
+     * @param <D>    Generic type of data
+     * @return true if anything was inserted, false otherwise
+     */
+    static <K extends Comparable<? super K>, D> boolean absorbInto(FADAFBackend<K,D> target,
+                                                                   Iterator<Map.Entry<K, List<D>>> source) {
+        if(target instanceof FADAF) {
+            return ((FADAF<K,D>) target).absorb(source);
+        }
+        boolean changed = false;
+        while(source.hasNext()) {
+            Map.Entry<K, List<D>> group = source.next();
+            for(D data : group.getValue()) {
+                changed |= target.insert(group.getKey(), data);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Return an iterator over the unique keys in ascending order, each with
+     * its data in insertion order.
+     *
+     * @return iterator of key and data groups
+     */
+    Iterator<Map.Entry<K, List<D>>> groupIterator() {
+        final Iterator<DAFTree<K, D>.DAFNode<K, D>> nodes = DAFTree.iterator();
+        return new Iterator<Map.Entry<K, List<D>>>() {
+            public boolean hasNext() {
+                return nodes.hasNext();
+            }
+
+            public Map.Entry<K, List<D>> next() {
+                DAFTree<K, D>.DAFNode<K, D> head = nodes.next();
+                ArrayList<D> data = new ArrayList<D>();
+                data.add(head.data);
+                //the dup chain of a key comes right after its head
+                for(DAFTree<K, D>.DAFNode<K, D> dup = head.dup; dup != null; dup = dup.dup) {
+                    data.add(nodes.next().data);
+                }
+                return new AbstractMap.SimpleImmutableEntry<K, List<D>>(head.key, data);
+            }
+        };
+    }
+
+    /**
+     * Insert every pair of the given groups, merging them with the current
+     * content and rebuilding the tree in one pass.
+     *
+     * @param source key and data groups in ascending key order
+     * @return true if anything was inserted, false otherwise
+     */
+    boolean absorb(Iterator<Map.Entry<K, List<D>>> source) {
+        expire();
+        ArrayList<K> keys = new ArrayList<K>();
+        ArrayList<List<D>> data = new ArrayList<List<D>>();
+        final int[] added = new int[1];
+        merge(groupIterator(), source, UNION, keys, data, (key, d) -> {
+            added[0]++;
+            indexNewPair(key, d);
+        });
+        if(added[0] == 0) {
+            return false;
+        }
+        boolean adaptive = DAFTree.isAdaptive();
+        DAFTree = new DAFTree<>();
+        DAFTree.setAdaptive(adaptive);
+        DAFTree.bulkLoad(keys, data);
+        return true;
+    }
+
+    /**
+     * Adds a pair that is being merged in to the hash table and the
+     * optional indexes.
+     *
+     * @param key  key of the pair
+     * @param data data of the pair
+     */
+    private void indexNewPair(K key, D data) {
+        boolean newKey = hashTable.insert(key);
+        if(pairFilter != null) {
+            pairFilter.add(pairHash(key, data));
+            if(newKey) {
+                keyFilter.add(key.hashCode());
+            }
+        }
+        if(reverseIndex != null) {
+            indexPair(key, data);
+        }
+        if(version != null) {
+            version = version.insert(key, data);
+        }
+        publish(FADAFChange.INSERT, key, data);
+    }
+
+    /**
+     * Builds a new FADAF from a set operation on a and b.
+     *
+     * @param a  first FADAF
+     * @param b  second FADAF
+     * @param op UNION, INTERSECT or DIFFERENCE
+     * @return new FADAF
+     * @throws NullPointerException if a or b is null
+     */
+    private static <K extends Comparable<? super K>, D> FADAF<K,D> combine(FADAF<K,D> a, FADAF<K,D> b, int op) {
+        if(a == null || b == null) {
+            throw new NullPointerException();
+        }
+        a.expire();
+        b.expire();
+        ArrayList<K> keys = new ArrayList<K>();
+        ArrayList<List<D>> data = new ArrayList<List<D>>();
+        merge(a.groupIterator(), b.groupIterator(), op, keys, data, null);
+        int capacity = (int) (keys.size() / HashTable.MAX_LOAD_FACTOR) + 1;
+        FADAF<K,D> result = new FADAF<K,D>(Math.max(HashTable.MIN_CAPACITY, capacity));
+        result.DAFTree.bulkLoad(keys, data);
+        for(K key : keys) {
+            result.hashTable.insert(key);
+        }
+        return result;
+    }
+
+    /**
+     * Walks two ascending group sequences at once and appends the groups of
+     * the set operation to keys and data.
+     *
+     * @param x     groups of the first operand
+     * @param y     groups of the second operand
+     * @param op    UNION, INTERSECT or DIFFERENCE
+     * @param keys  output keys in ascending order
+     * @param data  output data of every key
+     * @param added called with every pair of y that a union adds to x, may
+     *              be null
+     */
+    private static <K extends Comparable<? super K>, D> void merge(
+            Iterator<Map.Entry<K, List<D>>> x, Iterator<Map.Entry<K, List<D>>> y, int op,
+            ArrayList<K> keys, ArrayList<List<D>> data, BiConsumer<K, D> added) {
+        Map.Entry<K, List<D>> ex = x.hasNext() ? x.next() : null;
+        Map.Entry<K, List<D>> ey = y.hasNext() ? y.next() : null;
+        while(ex != null || ey != null) {
+            int cmp = (ex == null) ? 1 : (ey == null) ? -1 : ex.getKey().compareTo(ey.getKey());
+            K key;
+            List<D> group = null;
+            if(cmp < 0) {
+                key = ex.getKey();
+                if(op != INTERSECT) {
+                    group = ex.getValue();
+                }
+            }
+            else if(cmp > 0) {
+                key = ey.getKey();
+                if(op == UNION) {
+                    group = ey.getValue();
+                    if(added != null) {
+                        for(D d : group) {
+                            added.accept(key, d);
+                        }
+                    }
+                }
+            }
+            else {
+                key = ex.getKey();
+                group = mergeData(key, ex.getValue(), ey.getValue(), op, added);
+            }
+            if(group != null && !group.isEmpty()) {
+                keys.add(key);
+                data.add(group);
+            }
+            if(cmp <= 0) {
+                ex = x.hasNext() ? x.next() : null;
+            }
+            if(cmp >= 0) {
+                ey = y.hasNext() ? y.next() : null;
+            }
+        }
+    }
+
+    /**
+     * Combines the data of a key that both operands have, in one pass over
+     * each list.
+     *
+     * @param key   key of the data
+     * @param x     data of the first operand
+     * @param y     data of the second operand
+     * @param op    UNION, INTERSECT or DIFFERENCE
+     * @param added called with every data of y that a union adds, may be null
+     * @return combined data
+     */
+    private static <K, D> List<D> mergeData(K key, List<D> x, List<D> y, int op, BiConsumer<K, D> added) {
+        ArrayList<D> result = new ArrayList<D>(op == UNION ? x.size() + y.size() : x.size());
+        if(op == UNION) {
+            Set<D> index = identitySet(x);
+            result.addAll(x);
+            for(D d : y) {
+                if(!containsRef(x, index, d)) {
+                    result.add(d);
+                    if(added != null) {
+                        added.accept(key, d);
+                    }
+                }
+            }
+        }
+        else {
+            Set<D> index = identitySet(y);
+            for(D d : x) {
+                if(containsRef(y, index, d) == (op == INTERSECT)) {
+                    result.add(d);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns an identity set of the list, or null if the list is small
+     * enough to be scanned.
+     *
+     * @param list data list
+     * @return identity set of the data, null for small lists
+     */
+    private static <D> Set<D> identitySet(List<D> list) {
+        if(list.size() <= SMALL_GROUP) {
+            return null;
+        }
+        Set<D> set = Collections.newSetFromMap(new IdentityHashMap<D, Boolean>());
+        set.addAll(list);
+        return set;
+    }
+
+    /**
+     * Checks by reference if data is in the list.
+     *
+     * @param list  data list
+     * @param index identity set of the list, null to scan it
+     * @param data  data to find
+     * @return true if found, false otherwise
+     */
+    private static <D> boolean containsRef(List<D> list, Set<D> index, D data) {
+        if(index != null) {
+            return index.contains(data);
+        }
+        for(D d : list) {
+            if(d == data) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Turn on adaptive access for skewed workloads. lookup and getAllData
+     * then splay the key they find to the root of the tree and remember the
+     * last data found in each dup chain, so hot keys and hot data are
+     * reached in a few steps. Iteration order and the order of data stay
+     * the same. Lookups modify the tree from then on, so code that shares
+     * the FADAF between threads has to guard them like writes.
+     */
+    public void enableAdaptive() {
+        DAFTree.setAdaptive(true);
+    }
+
+    /**
+     * Turn on key interning. Every key is then replaced by the equal
+     * instance the hash table already stores, so the hash table, all pairs
+     * of the key in the tree and the optional indexes share one instance
+     * per key. Keys that arrive as fresh copies, like keys read from the
+     * network, then cost no memory once their key is stored, and they find
+     * their pairs even though DAFTree matches keys by reference. Pairs
+     * stored before are switched to the shared instance right away by
+     * rebuilding the tree, and pairs that then turn out to be the same pair
+     * are merged into one.
+     */
+    public void enableKeyInterning() {
+        if(interning) {
+            return;
+        }
+        interning = true;
+        if(DAFTree.size() == 0) {
+            return;
+        }
+        //equal keys share one dup chain, so each group holds all of them
+        ArrayList<K> keys = new ArrayList<K>();
+        ArrayList<List<D>> data = new ArrayList<List<D>>();
+        Iterator<Map.Entry<K, List<D>>> groups = groupIterator();
+        boolean merged = false;
+        while(groups.hasNext()) {
+            Map.Entry<K, List<D>> group = groups.next();
+            K key = hashTable.get(group.getKey());
+            Set<D> seen = Collections.newSetFromMap(new IdentityHashMap<D, Boolean>());
+            ArrayList<D> unique = new ArrayList<D>();
+            for(D d : group.getValue()) {
+                if(seen.add(d)) {
+                    unique.add(d);
+                } else {
+                    merged = true;
+                    if(pairFilter != null) {
+                        pairFilter.remove(pairHash(key, d));
+                    }
+                }
+            }
+            keys.add(key);
+            data.add(unique);
+        }
+        boolean adaptive = DAFTree.isAdaptive();
+        DAFTree = new DAFTree<>();
+        DAFTree.setAdaptive(adaptive);
+        DAFTree.bulkLoad(keys, data);
+        if(merged && reverseIndex != null) {
+            reverseIndex = null;
+            enableReverseIndex();
+        }
+        if(merged && version != null) {
+            version = DAFSnapshot.build(groupIterator());
+        }
+    }
+
+    /**
+     * Returns the stored instance of a key if key interning is on.
+     *
+     * @param key key to replace
+     * @return the equal stored key, or key if interning is off or the key
+     *         is not stored
+     */
+    private K canonical(K key) {
+        if(!interning) {
+            return key;
+        }
+        K stored = hashTable.get(key);
+        return (stored != null) ? stored : key;
+    }
+
+    /**
+     * Check if adaptive access is on.
+     *
+     * @return true if lookups restructure the tree, false otherwise
+     */
+    public boolean isAdaptive() {
+        return DAFTree.isAdaptive();
+    }
+
+    /**
+     * Release memory kept from a larger past size: shrink the hash table to
+     * fit the current keys, rebalance the tree and resize the reverse index.
+     * The hash table and the tree also shrink by themselves after mass
+     * deletes; this does it right away and as tightly as possible.
+     */
+    public void compact() {
+        hashTable.trimToSize();
+        DAFTree.rebalance();
+        if(reverseIndex != null) {
+            reverseIndex = new HashMap<D, LinkedHashMap<K, Integer>>(reverseIndex);
+        }
+    }
+
+    /**
+     * Turn on copy-on-write snapshots. From now on every update also builds a
+     * new persistent version by path copying, so snapshot() is O(1).
+     */
+    public void enableSnapshots() {
+        if(version != null) {
+            return;
+        }
+        version = DAFSnapshot.build(groupIterator());
+    }
+
+    /**
+     * Return an immutable snapshot of the current content. The snapshot can be
+     * read from any thread while writers keep updating this FADAF.
+     *
+     * @return current snapshot
+     * @throws IllegalStateException if snapshots are not enabled
+     */
+    public DAFSnapshot<K,D> snapshot() {
+        DAFSnapshot<K,D> current = version;
+        if(current == null) {
+            throw new IllegalStateException();
+        }
+        return current;
+    }
+
+    /**
+     * Turn on Bloom filters over keys and over key-data pairs. lookupAny,
+     * lookup, remove and removeAll answer definite misses from the filters
+     * without touching the hash table or the tree. The filters count, so
+     * removes keep them accurate.
+     *
+     * @param expectedPairs expected number of key-data pairs
+     * @param fpp           wanted false positive probability
+     * @throws IllegalArgumentException if expectedPairs is not positive or
+     *                                  fpp is not in (0, 1)
+     */
+    public void enableBloomFilter(int expectedPairs, double fpp) {
+        CountingBloomFilter keys = new CountingBloomFilter(expectedPairs, fpp);
+        CountingBloomFilter pairs = new CountingBloomFilter(expectedPairs, fpp);
+        Iterator<DAFTree<K, D>.DAFNode<K, D>> iterator = DAFTree.iterator();
+        K prev = null;
+        while(iterator.hasNext()){
+            DAFTree<K, D>.DAFNode<K, D> nextNode = iterator.next();
+            K key = nextNode.key;
+            //dup nodes come right after each other, add each key once
+            if(prev == null || prev.compareTo(key) != 0) {
+                keys.add(key.hashCode());
+            }
+            pairs.add(pairHash(key, nextNode.data));
+            prev = key;
+        }
+        keyFilter = keys;
+        pairFilter = pairs;
+    }
+
+    /**
+     * Return the Bloom filter over keys, for its memory and false positive
+     * metrics.
+     *
+     * @return key filter, or null if not enabled
+     */
+    public CountingBloomFilter getKeyFilter() {
+        return keyFilter;
+    }
+
+    /**
+     * Return the Bloom filter over key-data pairs, for its memory and false
+     * positive metrics.
+     *
+     * @return pair filter, or null if not enabled
+     */
+    public CountingBloomFilter getPairFilter() {
+        return pairFilter;
+    }
+
+    /**
+     * Turn on the reverse index from data to keys, which makes
+     * getAllKeys(data) O(1) expected plus output size, and lets
+     * removeAllByData find the keys to remove without scanning every pair.
+     */
+    public void enableReverseIndex() {
+        if(reverseIndex != null) {
+            return;
+        }
+        reverseIndex = new HashMap<D, LinkedHashMap<K, Integer>>();
+        Iterator<DAFTree<K, D>.DAFNode<K, D>> iterator = DAFTree.iterator();
+        while(iterator.hasNext()){
+            DAFTree<K, D>.DAFNode<K, D> nextNode = iterator.next();
+            indexPair(nextNode.key, nextNode.data);
+        }
+    }
+
+    /**
+     * Adds a pair to the reverse index.
+     *
+     * @param key  key of the pair
+     * @param data data of the pair
+     */
+    private void indexPair(K key, D data) {
+        LinkedHashMap<K, Integer> keys = reverseIndex.get(data);
+        if(keys == null) {
+            keys = new LinkedHashMap<K, Integer>();
+            reverseIndex.put(data, keys);
+        }
+        keys.merge(key, 1, Integer::sum);
+    }
+
+    /**
+     * Removes a pair from the reverse index. The key stays indexed while
+     * other pairs of it have equal data.
+     *
+     * @param key  key of the pair
+     * @param data data of the pair
+     */
+    private void unindexPair(K key, D data) {
+        LinkedHashMap<K, Integer> keys = reverseIndex.get(data);
+        if(keys == null) {
+            return;
+        }
+        Integer count = keys.get(key);
+        if(count == null) {
+            return;
+        }
+        if(count > 1) {
+            keys.put(key, count - 1);
+        } else {
+            keys.remove(key);
+        }
+        if(keys.isEmpty()) {
+            reverseIndex.remove(data);
+        }
+    }
+
+    /**
+     * Turn on time-to-live support with the system clock. Timers are kept in
+     * a hierarchical timing wheel with the given resolution.
+     *
+     * @param tickMillis timer resolution in milliseconds
+     * @throws IllegalArgumentException if tickMillis is not positive
+     */
+    public void enableExpiry(long tickMillis) {
+        enableExpiry(tickMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * Turn on time-to-live support with the given clock.
+     *
+     * @param tickMillis timer resolution in milliseconds
+     * @param clock      current time in milliseconds
+     * @throws IllegalArgumentException if tickMillis is not positive
+     */
+    void enableExpiry(long tickMillis, LongSupplier clock) {
+        if(expiry != null) {
+            return;
+        }
+        this.clock = clock;
+        this.keyTimers = new HashMap<K, KeyTimers>();
+        this.expiry = new TimerWheel<Expiry>(tickMillis, clock.getAsLong());
+    }
+
+    /**
+     * Turn off time-to-live support and drop every pending timer. The pairs
+     * that had one stay stored.
+     */
+    void disableExpiry() {
+        expiry = null;
+        keyTimers = null;
+        clock = null;
+    }
+
+    /**
+     * Insert the given key-data pair that expires after the given time. If
+     * the pair is already present only its time-to-live is renewed.
+     *
+     * @param key       key to insert
+     * @param data      data to insert
+     * @param ttlMillis time-to-live in milliseconds
+     * @return true if the pair is inserted, false if the pair was already present
+     * @throws NullPointerException     if key or data is null
+     * @throws IllegalArgumentException if ttlMillis is not positive
+     * @throws IllegalStateException    if expiry is not enabled
+     */
+    public boolean insert(K key, D data, long ttlMillis) {
+        if(key == null || data == null) {
+            throw new NullPointerException();
+        }
+        if(ttlMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        if(expiry == null) {
+            throw new IllegalStateException();
+        }
+        boolean inserted = insert(key, data);
+        schedule(key, data, clock.getAsLong() + ttlMillis);
+        return inserted;
+    }
+
+    /**
+     * Let all pairs of the given key expire after the given time, including
+     * pairs inserted later. Calling it again renews the time-to-live.
+     *
+     * @param key       key to expire
+     * @param ttlMillis time-to-live in milliseconds
+     * @return true if the key is present, false otherwise
+     * @throws NullPointerException     if the key is null
+     * @throws IllegalArgumentException if ttlMillis is not positive
+     * @throws IllegalStateException    if expiry is not enabled
+     */
+    public boolean expireKey(K key, long ttlMillis) {
+        if(key == null) {
+            throw new NullPointerException();
+        }
+        if(ttlMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        if(expiry == null) {
+            throw new IllegalStateException();
+        }
+        if(!lookupAny(key)) {
+            return false;
+        }
+        schedule(key, null, clock.getAsLong() + ttlMillis);
+        return true;
+    }
+
+    /**
+     * Remove every pair whose time-to-live has passed. Without calling this,
+     * expired pairs are removed a few at a time by the operations on single
+     * keys, together with the expired pairs of the key they work on, and all
+     * at once by the operations that read more than one key.
+     *
+     * @return number of pairs or keys removed
+     */
+    public int expire() {
+        if(expiry == null || expiring) {
+            return 0;
+        }
+        expiring = true;
+        try {
+            return expireBatch(Integer.MAX_VALUE, clock.getAsLong());
+        } finally {
+            expiring = false;
+        }
+    }
+
+    /**
+     * Removes at most EXPIRE_BATCH expired entries, so the cost of expiry is
+     * spread over the operations, and then the expired entries of the given
+     * key, so that an operation on the key never sees them.
+     *
+     * @param key key the operation works on
+     */
+    private void expireSome(K key) {
+        if(expiry == null || expiring) {
+            return;
+        }
+        expiring = true;
+        try {
+            long now = clock.getAsLong();
+            expireBatch(EXPIRE_BATCH, now);
+            expireDue(key, now);
+        } finally {
+            expiring = false;
+        }
+    }
+
+    /**
+     * Removes expired entries in deadline order.
+     *
+     * @param max most entries to remove
+     * @param now current time in milliseconds
+     * @return number of entries removed
+     */
+    @SuppressWarnings("unchecked")
+    private int expireBatch(int max, long now) {
+        int n = 0;
+        Expiry next;
+        while(n < max && (next = expiry.poll(now)) != null) {
+            if(next.data == null) {
+                removeAll((K) next.key);
+            } else {
+                remove((K) next.key, (D) next.data);
+            }
+            cancelTimer((K) next.key, (D) next.data);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Removes the pairs of a key whose time-to-live has passed, or all of
+     * them if the key itself has expired. Costs O(1) expected if nothing of
+     * the key is due, and O(1) expected per timer of the key otherwise.
+     *
+     * @param key key to check
+     * @param now current time in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    private void expireDue(K key, long now) {
+        KeyTimers timers = keyTimers.get(key);
+        if(timers == null || now < timers.next) {
+            return;
+        }
+        if(timers.keyDeadline <= now) {
+            removeAll(key);
+            cancelTimer(key, null);
+            return;
+        }
+        List<D> due = new ArrayList<D>();
+        long next = timers.keyDeadline;
+        for(Map.Entry<Object, Long> timer : timers.pairs.entrySet()) {
+            if(timer.getValue() <= now) {
+                due.add((D) timer.getKey());
+            }
+            else {
+                next = Math.min(next, timer.getValue());
+            }
+        }
+        timers.next = next;
+        for(D data : due) {
+            remove(key, data);
+            cancelTimer(key, data);
+        }
+    }
+
+    /**
+     * Schedules the timer of a pair, or of a whole key if data is null,
+     * replacing the timer it already has.
+     *
+     * @param key      key that expires
+     * @param data     data that expires, null for all data of the key
+     * @param deadline deadline in milliseconds
+     */
+    private void schedule(K key, D data, long deadline) {
+        expiry.schedule(new Expiry(key, data), deadline);
+        KeyTimers timers = keyTimers.get(key);
+        if(timers == null) {
+            timers = new KeyTimers();
+            keyTimers.put(key, timers);
+        }
+        if(data == null) {
+            timers.keyDeadline = deadline;
+        }
+        else {
+            timers.pairs.put(data, deadline);
+        }
+        timers.next = Math.min(timers.next, deadline);
+    }
+
+    /**
+     * Cancels the timer of a pair, or every timer of a key if data is null.
+     *
+     * @param key  key of the timers
+     * @param data data of the timer, null for all timers of the key
+     */
+    private void cancelTimer(K key, D data) {
+        KeyTimers timers = keyTimers.get(key);
+        if(timers == null) {
+            return;
+        }
+        if(data == null) {
+            for(Object pair : timers.pairs.keySet()) {
+                expiry.cancel(new Expiry(key, pair));
+            }
+            expiry.cancel(new Expiry(key, null));
+            keyTimers.remove(key);
+        }
+        else if(timers.pairs.remove(data) != null) {
+            expiry.cancel(new Expiry(key, data));
+            if(timers.pairs.isEmpty() && timers.keyDeadline == Long.MAX_VALUE) {
+                keyTimers.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Check if expiry is on. Reads then remove expired pairs, so they change
+     * the structure like writes do.
+     *
+     * @return true if expiry is enabled, false otherwise
+     */
+    public boolean isExpiring() {
+        return expiry != null;
+    }
+
+    /**
+     * Turn on the change feed. Every insert, remove, removeAll and clear
+     * that changes the content, including expiry and merges, is published
+     * to the listeners of the feed. Delivery is asynchronous and never
+     * blocks the writer.
+     *
+     * @param capacity size of the ring buffer of the feed
+     * @return the change feed, to subscribe listeners to
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public synchronized FADAFChangeFeed<K,D> enableChangeFeed(int capacity) {
+        if(changeFeed == null) {
+            changeFeed = new FADAFChangeFeed<K,D>(capacity);
+        }
+        return changeFeed;
+    }
+
+    /**
+     * Return the change feed.
+     *
+     * @return change feed, or null if not enabled
+     */
+    public FADAFChangeFeed<K,D> getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * Publishes a change if the change feed is enabled.
+     *
+     * @param op   operation of FADAFChange
+     * @param key  key, null for CLEAR
+     * @param data data, null for REMOVE_ALL and CLEAR
+     */
+    void publish(int op, K key, D data) {
+        FADAFChangeFeed<K,D> feed = changeFeed;
+        if(feed != null) {
+            feed.publish(op, key, data);
+        }
+    }
+
+    /**
+     * Hash value of a key-data pair used by the pair filter.
+     *
+     * @param key  key of the pair
+     * @param data data of the pair
+     * @return hash value
+     */
+    private static int pairHash(Object key, Object data) {
+        return 31 * key.hashCode() + data.hashCode();
+    }
+
     public static  void  main(String args[]){
     }
 }
\ No newline at end of file
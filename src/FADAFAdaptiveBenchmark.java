@@ -0,0 +1,184 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+
+/**
+ * Compares the static tree with adaptive access on Zipfian and uniform
+ * traces. Keys are drawn from a Zipf distribution with the given exponent,
+ * and so is the data within a key's dup chain. The mix is 80% lookup and
+ * 20% getAllData. Keys and data come from preallocated arrays because
+ * DAFTree matches them by reference.
+ * Usage: FADAFAdaptiveBenchmark [keys] [data per key] [operations] [zipf exponent]
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class FADAFAdaptiveBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        int nKeys = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int nData = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+        int nOps = (args.length > 2) ? Integer.parseInt(args[2]) : 2000000;
+        double exponent = (args.length > 3) ? Double.parseDouble(args[3]) : 1.1;
+
+        String[] keys = new String[nKeys];
+        for (int i = 0; i < nKeys; i++) {
+            keys[i] = "key" + i;
+        }
+        String[] data = new String[nData];
+        for (int i = 0; i < nData; i++) {
+            data[i] = "data" + i;
+        }
+        Random random = new Random(42);
+        // popularity rank i maps to a random key, so hot keys are spread out
+        int[] keyOfRank = shuffledRange(nKeys, random);
+        int[] dataOfRank = shuffledRange(nData, random);
+        int[][] zipf = trace(nOps, nKeys, nData, exponent, keyOfRank, dataOfRank, random);
+        int[][] uniform = trace(nOps, nKeys, nData, 0, keyOfRank, dataOfRank, random);
+
+        System.out.printf("%-10s %14s %14s%n", "trace", "static", "adaptive");
+        for (int round = 0; round < 3; round++) {
+            String name = (round == 0) ? "warmup" : "zipf " + exponent;
+            System.out.printf("%-10s %11.1f ns %11.1f ns%n", name,
+                    run(build(keys, data, false), zipf, keys, data),
+                    run(build(keys, data, true), zipf, keys, data));
+        }
+        System.out.printf("%-10s %11.1f ns %11.1f ns%n", "uniform",
+                run(build(keys, data, false), uniform, keys, data),
+                run(build(keys, data, true), uniform, keys, data));
+    }
+
+    /**
+     * Builds a FADAF with every key paired with every data, inserted in
+     * random order so the static tree is not degenerate.
+     *
+     * @param keys     key space
+     * @param data     data space
+     * @param adaptive true to enable adaptive access
+     * @return loaded FADAF
+     */
+    private static FADAF<String, String> build(String[] keys, String[] data, boolean adaptive) {
+        FADAF<String, String> fadaf = new FADAF<String, String>(keys.length * 2);
+        for (int k : shuffledRange(keys.length, new Random(7))) {
+            for (String d : data) {
+                fadaf.insert(keys[k], d);
+            }
+        }
+        if (adaptive) {
+            fadaf.enableAdaptive();
+        }
+        return fadaf;
+    }
+
+    /**
+     * Replays a trace.
+     *
+     * @param fadaf FADAF to query
+     * @param trace operations as {kind, key index, data index}
+     * @param keys  key space
+     * @param data  data space
+     * @return average nanoseconds per operation
+     */
+    private static double run(FADAF<String, String> fadaf, int[][] trace, String[] keys, String[] data) {
+        long hits = 0;
+        long start = System.nanoTime();
+        for (int[] op : trace) {
+            if (op[0] == 0) {
+                hits += fadaf.lookup(keys[op[1]], data[op[2]]) ? 1 : 0;
+            } else {
+                hits += fadaf.getAllData(keys[op[1]]).size();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (hits == 0) {
+            throw new IllegalStateException(); // keeps the work observable
+        }
+        return (double) nanos / trace.length;
+    }
+
+    /**
+     * Generates a trace of 80% lookup and 20% getAllData.
+     *
+     * @param nOps       number of operations
+     * @param nKeys      number of keys
+     * @param nData      number of data per key
+     * @param exponent   Zipf exponent, 0 for uniform
+     * @param keyOfRank  key index of every popularity rank
+     * @param dataOfRank data index of every popularity rank
+     * @param random     random source
+     * @return operations as {kind, key index, data index}
+     */
+    private static int[][] trace(int nOps, int nKeys, int nData, double exponent,
+                                 int[] keyOfRank, int[] dataOfRank, Random random) {
+        double[] keyCdf = zipfCdf(nKeys, exponent);
+        double[] dataCdf = zipfCdf(nData, exponent);
+        int[][] trace = new int[nOps][];
+        for (int i = 0; i < nOps; i++) {
+            int kind = (random.nextInt(5) == 0) ? 1 : 0;
+            trace[i] = new int[]{kind, keyOfRank[sample(keyCdf, random)], dataOfRank[sample(dataCdf, random)]};
+        }
+        return trace;
+    }
+
+    /**
+     * Returns the cumulative distribution of Zipf(n, exponent).
+     *
+     * @param n        number of ranks
+     * @param exponent Zipf exponent
+     * @return cumulative probabilities of the ranks
+     */
+    private static double[] zipfCdf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    /**
+     * Draws a rank from a cumulative distribution.
+     *
+     * @param cdf    cumulative probabilities
+     * @param random random source
+     * @return rank
+     */
+    private static int sample(double[] cdf, Random random) {
+        int i = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(cdf.length - 1, (i >= 0) ? i : -i - 1);
+    }
+
+    /**
+     * Returns 0 to n - 1 in random order.
+     *
+     * @param n      size of the range
+     * @param random random source
+     * @return shuffled range
+     */
+    private static int[] shuffledRange(int n, Random random) {
+        int[] a = new int[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+        return a;
+    }
+}
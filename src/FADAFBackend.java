@@ -0,0 +1,134 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+
+/**
+ * Core operations of a store of key-data pairs, implemented by FADAF on
+ * DAFTree and HashTable and by ConcurrentFADAF on DAFSkipList. Code that
+ * only needs these operations, like the benchmarks, works with either
+ * backend. Whether data is matched by reference or with equals, and which
+ * methods are thread safe, is up to the backend.
+ *
+ * @param <K> Generic type of key
+ * @param <D> Generic type of data
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public interface FADAFBackend<K extends Comparable<? super K>, D> {
+
+    /**
+     * Returns the number of stored pairs.
+     *
+     * @return number of pairs
+     */
+    int size();
+
+    /**
+     * Returns the number of unique keys.
+     *
+     * @return number of unique keys
+     */
+    int nUniqueKeys();
+
+    /**
+     * Inserts the given pair.
+     *
+     * @param key  key of the pair
+     * @param data data of the pair
+     * @return true if the pair is inserted, false if it is already present
+     * @throws NullPointerException if key or data is null
+     */
+    boolean insert(K key, D data);
+
+    /**
+     * Removes the given pair.
+     *
+     * @param key  key of the pair
+     * @param data data of the pair
+     * @return true if the pair is removed, false if it is not present
+     * @throws NullPointerException if key or data is null
+     */
+    boolean remove(K key, D data);
+
+    /**
+     * Removes all pairs of the given key.
+     *
+     * @param key key to remove
+     * @return true if at least 1 pair is removed, false otherwise
+     * @throws NullPointerException if the key is null
+     */
+    boolean removeAll(K key);
+
+    /**
+     * Checks if any pair with the given key is stored.
+     *
+     * @param key key to lookup
+     * @return true if any pair is found, false otherwise
+     * @throws NullPointerException if the key is null
+     */
+    boolean lookupAny(K key);
+
+    /**
+     * Checks if the given pair is stored.
+     *
+     * @param key  key of the pair
+     * @param data data of the pair
+     * @return true if found, false otherwise
+     * @throws NullPointerException if key or data is null
+     */
+    boolean lookup(K key, D data);
+
+    /**
+     * Returns all data of the given key in insertion order.
+     *
+     * @param key key to search
+     * @return list of data, empty list if none
+     * @throws NullPointerException if the key is null
+     */
+    LinkedList<D> getAllData(K key);
+
+    /**
+     * Returns the key of every pair in ascending order.
+     *
+     * @return list of keys, empty list if none
+     */
+    LinkedList<K> getAllKeys();
+
+    /**
+     * Returns the key of every pair in [lo, hi) in ascending order.
+     *
+     * @param lo lower bound, inclusive
+     * @param hi upper bound, exclusive
+     * @return list of keys in range, empty list if none
+     * @throws NullPointerException if lo or hi is null
+     */
+    LinkedList<K> getKeysInRange(K lo, K hi);
+
+    /**
+     * Returns the minimum key stored.
+     *
+     * @return minimum key, or null if no keys stored
+     */
+    K getMinKey();
+
+    /**
+     * Returns the maximum key stored.
+     *
+     * @return maximum key, or null if no keys stored
+     */
+    K getMaxKey();
+
+    /**
+     * Inserts every pair of this backend into target, with the same result
+     * as inserting them one by one.
+     *
+     * @param target backend to insert into
+     * @return true if target changed, false otherwise
+     * @throws NullPointerException if target is null
+     */
+    boolean mergeInto(FADAFBackend<K, D> target);
+}
@@ -0,0 +1,119 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Multi-threaded throughput comparison of a FADAF guarded by one global lock
+ * and the lock-free ConcurrentFADAF. Every thread runs the same read-mostly
+ * mix (45% lookup, 45% lookupAny, 5% insert, 5% remove) for a fixed time.
+ * Keys and data are taken from preallocated arrays because DAFTree matches
+ * them by reference.
+ * Usage: FADAFBackendBenchmark [keys] [seconds per run] [max threads]
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class FADAFBackendBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command line arguments
+     * @throws Exception if a worker fails
+     */
+    public static void main(String[] args) throws Exception {
+        int nKeys = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 2;
+        int maxThreads = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+
+        String[] keys = new String[nKeys];
+        for (int i = 0; i < nKeys; i++) {
+            keys[i] = "key" + i;
+        }
+        String[] data = {"a", "b", "c", "d"};
+
+        System.out.printf("%-8s %18s %18s%n", "threads", "locked DAFTree", "DAFSkipList");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double locked = run(new FADAF<String, String>(nKeys * 2), true, threads, seconds, keys, data);
+            double lockFree = run(new ConcurrentFADAF<String, String>(nKeys * 2), false, threads, seconds, keys, data);
+            System.out.printf("%-8d %14.0f op/s %14.0f op/s%n", threads, locked, lockFree);
+        }
+    }
+
+    /**
+     * Runs the mix on one backend.
+     *
+     * @param fadaf   backend to test, preloaded here
+     * @param lock    true to guard every call with one global lock
+     * @param threads number of worker threads
+     * @param seconds duration of the run
+     * @param keys    key space
+     * @param data    data space
+     * @return operations per second over all threads
+     * @throws Exception if a worker fails
+     */
+    private static double run(FADAFBackend<String, String> fadaf, boolean lock, int threads, int seconds,
+                              String[] keys, String[] data) throws Exception {
+        for (int i = 0; i < keys.length; i++) {
+            fadaf.insert(keys[i], data[i % data.length]);
+        }
+        final Object globalLock = new Object();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final LongAdder ops = new LongAdder();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long done = 0;
+                while (!stop.get()) {
+                    String key = keys[random.nextInt(keys.length)];
+                    String d = data[random.nextInt(data.length)];
+                    int op = random.nextInt(20);
+                    if (lock) {
+                        synchronized (globalLock) {
+                            apply(fadaf, op, key, d);
+                        }
+                    } else {
+                        apply(fadaf, op, key, d);
+                    }
+                    done++;
+                }
+                ops.add(done);
+            }));
+        }
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        pool.shutdown();
+        return ops.sum() / (double) seconds;
+    }
+
+    /**
+     * Applies one operation of the mix.
+     *
+     * @param fadaf target
+     * @param op    random number in [0, 20)
+     * @param key   key to use
+     * @param data  data to use
+     */
+    private static void apply(FADAFBackend<String, String> fadaf, int op, String key, String data) {
+        if (op == 0) {
+            fadaf.insert(key, data);
+        } else if (op == 1) {
+            fadaf.remove(key, data);
+        } else if (op < 11) {
+            fadaf.lookup(key, data);
+        } else {
+            fadaf.lookupAny(key);
+        }
+    }
+}
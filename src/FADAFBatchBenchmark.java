@@ -0,0 +1,109 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+
+/**
+ * Compares lookupAnyMany and lookupMany with the equivalent loops of
+ * lookupAny and lookup. Every batch probes random keys, half of which are
+ * stored, so the table and the tree are read far apart like in a request
+ * handler. Keys and data come from preallocated arrays because DAFTree
+ * matches them by reference.
+ * Usage: FADAFBatchBenchmark [keys] [batch size] [batches]
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class FADAFBatchBenchmark {
+
+    // constants
+    private static final int DATA_PER_KEY = 4; // data paired with every stored key
+    private static final int ROUNDS = 5; // timed rounds, the first is warmup
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        int nKeys = (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+        int batchSize = (args.length > 1) ? Integer.parseInt(args[1]) : 512;
+        int nBatches = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+
+        // twice as many keys as stored, the odd ones are misses
+        String[] keys = new String[nKeys * 2];
+        List<String> order = new ArrayList<String>();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+            if (i % 2 == 0) {
+                order.add(keys[i]);
+            }
+        }
+        String[] data = new String[DATA_PER_KEY];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = "data" + i;
+        }
+        // shuffled because DAFTree does not rebalance on insert
+        Collections.shuffle(order, new Random(1));
+        FADAF<String, String> fadaf = new FADAF<String, String>(nKeys * 2);
+        for (String key : order) {
+            for (String d : data) {
+                fadaf.insert(key, d);
+            }
+        }
+
+        Random random = new Random(2);
+        String[][] batchKeys = new String[nBatches][batchSize];
+        String[][] batchData = new String[nBatches][batchSize];
+        for (int b = 0; b < nBatches; b++) {
+            for (int i = 0; i < batchSize; i++) {
+                batchKeys[b][i] = keys[random.nextInt(keys.length)];
+                batchData[b][i] = data[random.nextInt(data.length)];
+            }
+        }
+
+        System.out.printf("%-14s %12s %12s %8s%n", "operation", "loop ns/key", "batch ns/key", "speedup");
+        for (int round = 0; round < ROUNDS; round++) {
+            long anyLoop = 0;
+            long anyBatch = 0;
+            long pairLoop = 0;
+            long pairBatch = 0;
+            long check = 0;
+            for (int b = 0; b < nBatches; b++) {
+                String[] k = batchKeys[b];
+                String[] d = batchData[b];
+                long t0 = System.nanoTime();
+                for (int i = 0; i < batchSize; i++) {
+                    check += fadaf.lookupAny(k[i]) ? 1 : 0;
+                }
+                long t1 = System.nanoTime();
+                check -= fadaf.lookupAnyMany(k).cardinality();
+                long t2 = System.nanoTime();
+                for (int i = 0; i < batchSize; i++) {
+                    check += fadaf.lookup(k[i], d[i]) ? 1 : 0;
+                }
+                long t3 = System.nanoTime();
+                check -= fadaf.lookupMany(k, d).cardinality();
+                long t4 = System.nanoTime();
+                anyLoop += t1 - t0;
+                anyBatch += t2 - t1;
+                pairLoop += t3 - t2;
+                pairBatch += t4 - t3;
+            }
+            if (check != 0) {
+                throw new IllegalStateException("batch and loop disagree");
+            }
+            if (round == 0) {
+                continue;
+            }
+            double n = (double) nBatches * batchSize;
+            System.out.printf("%-14s %12.1f %12.1f %7.2fx%n", "lookupAny",
+                    anyLoop / n, anyBatch / n, (double) anyLoop / anyBatch);
+            System.out.printf("%-14s %12.1f %12.1f %7.2fx%n", "lookup",
+                    pairLoop / n, pairBatch / n, (double) pairLoop / pairBatch);
+        }
+    }
+}
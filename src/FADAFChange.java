@@ -0,0 +1,75 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+/**
+ * One mutation of a FADAF as seen by change listeners. Only calls that
+ * changed the content produce a change.
+ *
+ * @param <K> Generic type of key
+ * @param <D> Generic type of data
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public final class FADAFChange<K, D> {
+
+    // operations
+    public static final int INSERT = 1; // pair inserted
+    public static final int REMOVE = 2; // pair removed
+    public static final int REMOVE_ALL = 3; // all pairs of a key removed
+    public static final int CLEAR = 4; // every pair removed
+
+    // instance variables
+    private final int op; // operation
+    private final K key; // key, null for CLEAR
+    private final D data; // data, null for REMOVE_ALL and CLEAR
+
+    /**
+     * Initializes a FADAFChange object.
+     *
+     * @param op   operation
+     * @param key  key, null for CLEAR
+     * @param data data, null for REMOVE_ALL and CLEAR
+     */
+    FADAFChange(int op, K key, D data) {
+        this.op = op;
+        this.key = key;
+        this.data = data;
+    }
+
+    /**
+     * Returns the operation.
+     *
+     * @return INSERT, REMOVE, REMOVE_ALL or CLEAR
+     */
+    public int getOp() {
+        return op;
+    }
+
+    /**
+     * Returns the key of the change.
+     *
+     * @return key, null for CLEAR
+     */
+    public K getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the data of the change.
+     *
+     * @return data, null for REMOVE_ALL and CLEAR
+     */
+    public D getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        String name = (op == INSERT) ? "INSERT" : (op == REMOVE) ? "REMOVE"
+                : (op == REMOVE_ALL) ? "REMOVE_ALL" : "CLEAR";
+        return name + "(" + key + ", " + data + ")";
+    }
+}
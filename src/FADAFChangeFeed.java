@@ -0,0 +1,308 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Change feed of a FADAF. Writers publish every change into a bounded
+ * lock-free ring buffer (multiple producers, one consumer), and a daemon
+ * thread delivers the changes to the listeners in batches. Writers never
+ * wait for listeners: when the buffer is full the change is dropped and
+ * counted, and listeners are told through onOverflow. With no listener
+ * subscribed nothing is published at all.
+ *
+ * @param <K> Generic type of key
+ * @param <D> Generic type of data
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class FADAFChangeFeed<K, D> {
+
+    // constants
+    public static final int MAX_BATCH = 256; // most changes per delivery
+    private static final long PARK_NANOS = 1000000; // longest idle wait of the consumer
+    private static final int SPINS = 64; // yields of the consumer before it parks
+
+    // instance variables
+    private final AtomicReferenceArray<FADAFChange<K, D>> slots; // ring buffer
+    private final AtomicLongArray sequences; // position each slot is ready for
+    private final int mask; // capacity - 1
+    private final AtomicLong tail; // next position to claim, also number published
+    private volatile long head; // next position to deliver, written by the consumer
+    private final AtomicLong dropped; // changes dropped on a full buffer
+    private final CopyOnWriteArrayList<FADAFChangeListener<K, D>> listeners;
+    private final Thread consumer; // delivery thread
+    private volatile boolean waiting; // true while the consumer may be parked
+    private volatile boolean closed; // true once close was called
+    private volatile long delivered; // changes handed to the listeners
+    private volatile long batches; // number of deliveries
+    private volatile long maxBacklog; // largest backlog seen by the consumer
+    private volatile long failures; // listener calls that threw
+
+    /**
+     * Initializes a feed and starts its delivery thread.
+     *
+     * @param capacity size of the ring buffer, rounded up to a power of two
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public FADAFChangeFeed(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException();
+        }
+        int size = (capacity == 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<FADAFChange<K, D>>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+        this.dropped = new AtomicLong();
+        this.listeners = new CopyOnWriteArrayList<FADAFChangeListener<K, D>>();
+        this.consumer = new Thread(this::deliver, "fadaf-change-feed");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Adds a listener. It receives the changes published from now on.
+     *
+     * @param listener listener to add
+     * @throws NullPointerException if listener is null
+     */
+    public void subscribe(FADAFChangeListener<K, D> listener) {
+        if (listener == null) {
+            throw new NullPointerException();
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener listener to remove
+     * @return true if it was subscribed, false otherwise
+     */
+    public boolean unsubscribe(FADAFChangeListener<K, D> listener) {
+        return listeners.remove(listener);
+    }
+
+    /**
+     * Publishes a change without blocking.
+     *
+     * @param op   operation
+     * @param key  key, null for CLEAR
+     * @param data data, null for REMOVE_ALL and CLEAR
+     * @return true if queued, false if there is no listener or it was dropped
+     */
+    boolean publish(int op, K key, D data) {
+        if (listeners.isEmpty() || closed) {
+            return false;
+        }
+        FADAFChange<K, D> change = new FADAFChange<K, D>(op, key, data);
+        long pos;
+        int slot;
+        while (true) {
+            pos = tail.get();
+            slot = (int) pos & mask;
+            long diff = sequences.get(slot) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                // the consumer has not freed this slot yet, the buffer is full
+                dropped.incrementAndGet();
+                return false;
+            }
+            // otherwise another producer claimed pos first, try the next one
+        }
+        slots.lazySet(slot, change);
+        sequences.lazySet(slot, pos + 1);
+        if (waiting) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the feed after the changes already queued are delivered. Waits
+     * for the delivery thread to finish.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+        if (Thread.currentThread() == consumer) {
+            return;
+        }
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the size of the ring buffer.
+     *
+     * @return capacity
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the number of changes queued so far.
+     *
+     * @return number of published changes
+     */
+    public long getPublished() {
+        return tail.get();
+    }
+
+    /**
+     * Returns the number of changes handed to the listeners so far.
+     *
+     * @return number of delivered changes
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Returns the number of changes dropped because the buffer was full.
+     *
+     * @return number of dropped changes
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of changes queued and not delivered yet.
+     *
+     * @return current backlog
+     */
+    public long getBacklog() {
+        return Math.max(0, tail.get() - head);
+    }
+
+    /**
+     * Returns the largest backlog the delivery thread has seen. A value
+     * close to capacity() means the listeners are too slow.
+     *
+     * @return backlog high water mark
+     */
+    public long getMaxBacklog() {
+        return maxBacklog;
+    }
+
+    /**
+     * Returns the number of batches delivered.
+     *
+     * @return number of batches
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Returns the number of listener calls that threw an exception.
+     *
+     * @return number of failed calls
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * Takes the next change out of the buffer. Only called by the consumer.
+     *
+     * @return next change, or null if the buffer is empty
+     */
+    private FADAFChange<K, D> poll() {
+        long pos = head;
+        int slot = (int) pos & mask;
+        if (sequences.get(slot) != pos + 1) {
+            return null;
+        }
+        FADAFChange<K, D> change = slots.get(slot);
+        slots.lazySet(slot, null);
+        // hand the slot back to the producers for the next lap
+        sequences.lazySet(slot, pos + mask + 1);
+        head = pos + 1;
+        return change;
+    }
+
+    /**
+     * Body of the delivery thread: drains the buffer in batches and parks
+     * while it is empty.
+     */
+    private void deliver() {
+        ArrayList<FADAFChange<K, D>> batch = new ArrayList<FADAFChange<K, D>>(MAX_BATCH);
+        List<FADAFChange<K, D>> view = Collections.unmodifiableList(batch);
+        long seenDropped = 0;
+        while (true) {
+            long backlog = tail.get() - head;
+            if (backlog > maxBacklog) {
+                maxBacklog = backlog;
+            }
+            FADAFChange<K, D> change;
+            while (batch.size() < MAX_BATCH && (change = poll()) != null) {
+                batch.add(change);
+            }
+            long lost = dropped.get() - seenDropped;
+            if (lost > 0) {
+                seenDropped += lost;
+                for (FADAFChangeListener<K, D> listener : listeners) {
+                    try {
+                        listener.onOverflow(lost);
+                    } catch (RuntimeException e) {
+                        failures++;
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                for (FADAFChangeListener<K, D> listener : listeners) {
+                    try {
+                        listener.onChanges(view);
+                    } catch (RuntimeException e) {
+                        // one broken listener must not stop the others
+                        failures++;
+                    }
+                }
+                delivered += batch.size();
+                batches++;
+                batch.clear();
+                continue;
+            }
+            if (closed) {
+                // changes published before close may have arrived after the poll
+                if (tail.get() == head) {
+                    return;
+                }
+                continue;
+            }
+            // parking and unparking cost a system call each, so under steady
+            // load wait a little for more changes first
+            for (int i = 0; i < SPINS && tail.get() == head; i++) {
+                Thread.yield();
+            }
+            if (tail.get() != head) {
+                continue;
+            }
+            waiting = true;
+            // checked after announcing the wait so a concurrent publish unparks us
+            if (tail.get() == head && !closed) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            waiting = false;
+        }
+    }
+}
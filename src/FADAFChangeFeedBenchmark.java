@@ -0,0 +1,94 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Measures what the change feed costs the write path. One thread alternates
+ * insert and remove over a fixed key set, first without a feed and then with
+ * a feed that has 0, 1 and N listeners. Listeners only count the changes,
+ * so the numbers show the publishing overhead and how far the delivery
+ * thread keeps up, not the cost of a real consumer.
+ * Usage: FADAFChangeFeedBenchmark [keys] [writes per run] [N listeners]
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class FADAFChangeFeedBenchmark {
+
+    // constants
+    private static final int RING_CAPACITY = 1 << 16; // ring buffer of every feed
+    private static final int WARMUP_RUNS = 2; // untimed runs per setup
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        int nKeys = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+        int nWrites = (args.length > 1) ? Integer.parseInt(args[1]) : 500000;
+        int nListeners = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+
+        // DAFTree matches by reference, so keys and data are reused; the
+        // keys are shuffled because DAFTree does not rebalance
+        List<String> shuffled = new ArrayList<String>();
+        for (int i = 0; i < nKeys; i++) {
+            shuffled.add("key" + i);
+        }
+        Collections.shuffle(shuffled, new Random(1));
+        String[] keys = shuffled.toArray(new String[nKeys]);
+
+        System.out.printf("%-14s %10s %12s %10s %12s %10s%n",
+                "setup", "ns/write", "delivered", "dropped", "max backlog", "batches");
+        run("no feed", -1, keys, nWrites);
+        run("0 listeners", 0, keys, nWrites);
+        run("1 listener", 1, keys, nWrites);
+        run(nListeners + " listeners", nListeners, keys, nWrites);
+    }
+
+    /**
+     * Times the writes for one setup and prints a row.
+     *
+     * @param name       name of the setup
+     * @param nListeners number of listeners, -1 for no feed
+     * @param keys       key set
+     * @param nWrites    number of writes to time
+     */
+    private static void run(String name, int nListeners, String[] keys, int nWrites) {
+        long nanos = 0;
+        FADAFChangeFeed<String, String> feed = null;
+        for (int round = 0; round <= WARMUP_RUNS; round++) {
+            FADAF<String, String> fadaf = new FADAF<String, String>(keys.length * 2);
+            feed = (nListeners >= 0) ? fadaf.enableChangeFeed(RING_CAPACITY) : null;
+            final AtomicLong seen = new AtomicLong();
+            for (int i = 0; i < nListeners; i++) {
+                feed.subscribe(changes -> seen.addAndGet(changes.size()));
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < nWrites; i++) {
+                String key = keys[i % keys.length];
+                // every key goes in on the first pass and out on the next
+                if ((i / keys.length) % 2 == 0) {
+                    fadaf.insert(key, "d");
+                } else {
+                    fadaf.remove(key, "d");
+                }
+            }
+            nanos = System.nanoTime() - start;
+            if (feed != null) {
+                feed.close();
+            }
+        }
+        if (feed == null) {
+            System.out.printf("%-14s %10.1f%n", name, (double) nanos / nWrites);
+        } else {
+            System.out.printf("%-14s %10.1f %12d %10d %12d %10d%n", name, (double) nanos / nWrites,
+                    feed.getDelivered(), feed.getDropped(), feed.getMaxBacklog(), feed.getBatches());
+        }
+    }
+}
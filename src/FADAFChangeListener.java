@@ -0,0 +1,35 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+
+/**
+ * Receiver of the changes published by a FADAFChangeFeed. All methods are
+ * called on the delivery thread of the feed, one call at a time.
+ *
+ * @param <K> Generic type of key
+ * @param <D> Generic type of data
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public interface FADAFChangeListener<K, D> {
+
+    /**
+     * Receives the next changes in the order they were made.
+     *
+     * @param changes batch of changes, not to be kept after the call
+     */
+    void onChanges(List<FADAFChange<K, D>> changes);
+
+    /**
+     * Tells that changes were dropped because the ring buffer was full. A
+     * listener that mirrors the FADAF has to resynchronize.
+     *
+     * @param lost number of changes dropped since the last call
+     */
+    default void onOverflow(long lost) {
+    }
+}
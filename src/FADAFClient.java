@@ -0,0 +1,382 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Client for FADAFServer. The plain methods send one request and wait for
+ * its response. A Pipeline queues many requests, sends them in one write and
+ * reads all responses at once, which lets the server apply them as a batch.
+ * At most MAX_IN_FLIGHT requests are sent ahead of their responses, so a
+ * long pipeline cannot fill both socket buffers and stall.
+ * A client is not thread safe; use one per thread.
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class FADAFClient implements Closeable {
+
+    // constants
+    public static final int MAX_IN_FLIGHT = 256; // requests sent before their responses are read
+
+    // instance variables
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Connects to a FADAF server.
+     *
+     * @param host server host
+     * @param port server port
+     * @throws IOException if the connection fails
+     */
+    public FADAFClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), FADAFServer.BUFFER_SIZE));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), FADAFServer.BUFFER_SIZE));
+    }
+
+    /**
+     * Error of a pipeline in which the server rejected some requests. It
+     * carries the results of all requests, with the error of every rejected
+     * request in its slot.
+     */
+    public static class PipelineException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final List<Object> results; // results in request order
+
+        /**
+         * Initializes a PipelineException object.
+         *
+         * @param first   first error of the pipeline
+         * @param results results in request order
+         */
+        PipelineException(IOException first, List<Object> results) {
+            super(first.getMessage(), first);
+            this.results = results;
+        }
+
+        /**
+         * Returns the results of the pipeline.
+         *
+         * @return results in request order, an IOException for every
+         *         request the server rejected
+         */
+        public List<Object> getResults() {
+            return results;
+        }
+    }
+
+    /**
+     * Queue of requests that are sent together.
+     */
+    public class Pipeline {
+        private final List<Byte> ops = new ArrayList<Byte>(); // opcodes sent whose responses are not read, in order
+        private final List<Object> results = new ArrayList<Object>(); // responses read before sync, in order
+
+        /**
+         * Queues a request.
+         *
+         * @param op opcode
+         * @param a  first argument
+         * @param b  second argument
+         * @return this pipeline
+         * @throws NullPointerException if a required argument is null
+         */
+        private Pipeline add(byte op, String a, String b) {
+            try {
+                int n = FADAFProtocol.arity(op);
+                if ((n > 0 && a == null) || (n > 1 && b == null)) {
+                    throw new NullPointerException();
+                }
+                FADAFProtocol.writeRequest(out, op, a, b);
+                ops.add(op);
+                if (ops.size() >= MAX_IN_FLIGHT) {
+                    readPending();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        /**
+         * Sends the queued requests and reads their responses into results.
+         *
+         * @throws IOException if the connection fails
+         */
+        private void readPending() throws IOException {
+            out.flush();
+            for (byte op : ops) {
+                results.add(FADAFProtocol.readResult(in, op));
+            }
+            ops.clear();
+        }
+
+        /**
+         * Queues an insert.
+         *
+         * @param key  key to insert
+         * @param data data to insert
+         * @return this pipeline
+         */
+        public Pipeline insert(String key, String data) {
+            return add(FADAFProtocol.INSERT, key, data);
+        }
+
+        /**
+         * Queues a remove.
+         *
+         * @param key  key of the pair to remove
+         * @param data data of the pair to remove
+         * @return this pipeline
+         */
+        public Pipeline remove(String key, String data) {
+            return add(FADAFProtocol.REMOVE, key, data);
+        }
+
+        /**
+         * Queues a removeAll.
+         *
+         * @param key key to remove
+         * @return this pipeline
+         */
+        public Pipeline removeAll(String key) {
+            return add(FADAFProtocol.REMOVE_ALL, key, null);
+        }
+
+        /**
+         * Queues a lookup.
+         *
+         * @param key  key of the pair to lookup
+         * @param data data of the pair to lookup
+         * @return this pipeline
+         */
+        public Pipeline lookup(String key, String data) {
+            return add(FADAFProtocol.LOOKUP, key, data);
+        }
+
+        /**
+         * Queues a lookupAny.
+         *
+         * @param key key to lookup
+         * @return this pipeline
+         */
+        public Pipeline lookupAny(String key) {
+            return add(FADAFProtocol.LOOKUP_ANY, key, null);
+        }
+
+        /**
+         * Queues a getAllData.
+         *
+         * @param key target key
+         * @return this pipeline
+         */
+        public Pipeline getAllData(String key) {
+            return add(FADAFProtocol.GET_ALL_DATA, key, null);
+        }
+
+        /**
+         * Queues a getKeysInRange.
+         *
+         * @param lo lower bound, inclusive
+         * @param hi upper bound, exclusive
+         * @return this pipeline
+         */
+        public Pipeline getKeysInRange(String lo, String hi) {
+            return add(FADAFProtocol.GET_RANGE, lo, hi);
+        }
+
+        /**
+         * Queues a getMinKey.
+         *
+         * @return this pipeline
+         */
+        public Pipeline getMinKey() {
+            return add(FADAFProtocol.GET_MIN, null, null);
+        }
+
+        /**
+         * Queues a getMaxKey.
+         *
+         * @return this pipeline
+         */
+        public Pipeline getMaxKey() {
+            return add(FADAFProtocol.GET_MAX, null, null);
+        }
+
+        /**
+         * Queues a size.
+         *
+         * @return this pipeline
+         */
+        public Pipeline size() {
+            return add(FADAFProtocol.SIZE, null, null);
+        }
+
+        /**
+         * Sends all queued requests and waits for their responses. Every
+         * response is read even if some requests fail, and the pipeline is
+         * empty afterwards in any case, so it can be used again.
+         *
+         * @return results in request order: Boolean, Integer, String (may be
+         *         null) or LinkedList of String
+         * @throws PipelineException if the server rejected a request
+         * @throws IOException       if the connection fails
+         */
+        public List<Object> sync() throws IOException {
+            List<Object> done;
+            try {
+                readPending();
+                done = new ArrayList<Object>(results);
+            } finally {
+                ops.clear();
+                results.clear();
+            }
+            for (Object result : done) {
+                if (result instanceof IOException) {
+                    throw new PipelineException((IOException) result, done);
+                }
+            }
+            return done;
+        }
+    }
+
+    /**
+     * Returns a new, empty pipeline on this connection.
+     *
+     * @return pipeline
+     */
+    public Pipeline pipeline() {
+        return new Pipeline();
+    }
+
+    /**
+     * Insert the given key-data pair.
+     *
+     * @param key  key to insert
+     * @param data data to insert
+     * @return true if the pair is inserted, false if the pair was already present
+     * @throws IOException if the request fails
+     */
+    public boolean insert(String key, String data) throws IOException {
+        return (Boolean) pipeline().insert(key, data).sync().get(0);
+    }
+
+    /**
+     * Remove the specified pair.
+     *
+     * @param key  key of the pair to remove
+     * @param data data of the pair to remove
+     * @return true if this pair is removed, false if this pair is not present
+     * @throws IOException if the request fails
+     */
+    public boolean remove(String key, String data) throws IOException {
+        return (Boolean) pipeline().remove(key, data).sync().get(0);
+    }
+
+    /**
+     * Remove all key-data pairs that share the given key.
+     *
+     * @param key key to remove
+     * @return true if at least 1 pair is removed, false otherwise
+     * @throws IOException if the request fails
+     */
+    public boolean removeAll(String key) throws IOException {
+        return (Boolean) pipeline().removeAll(key).sync().get(0);
+    }
+
+    /**
+     * Check if a pair with the given key and data is stored.
+     *
+     * @param key  key of the pair to lookup
+     * @param data data of the pair to lookup
+     * @return true if the pair is found, false otherwise
+     * @throws IOException if the request fails
+     */
+    public boolean lookup(String key, String data) throws IOException {
+        return (Boolean) pipeline().lookup(key, data).sync().get(0);
+    }
+
+    /**
+     * Check if any pair with the given key is stored.
+     *
+     * @param key key to lookup
+     * @return true if any pair is found, false otherwise
+     * @throws IOException if the request fails
+     */
+    public boolean lookupAny(String key) throws IOException {
+        return (Boolean) pipeline().lookupAny(key).sync().get(0);
+    }
+
+    /**
+     * Return a LinkedList of data paired with the given key.
+     *
+     * @param key target key
+     * @return a list of data
+     * @throws IOException if the request fails
+     */
+    @SuppressWarnings("unchecked")
+    public LinkedList<String> getAllData(String key) throws IOException {
+        return (LinkedList<String>) pipeline().getAllData(key).sync().get(0);
+    }
+
+    /**
+     * Return a LinkedList of all keys (including duplicates) in [lo, hi).
+     *
+     * @param lo lower bound, inclusive
+     * @param hi upper bound, exclusive
+     * @return a list of keys in range
+     * @throws IOException if the request fails
+     */
+    @SuppressWarnings("unchecked")
+    public LinkedList<String> getKeysInRange(String lo, String hi) throws IOException {
+        return (LinkedList<String>) pipeline().getKeysInRange(lo, hi).sync().get(0);
+    }
+
+    /**
+     * Return the minimum key stored.
+     *
+     * @return minimum key, or null if no keys stored
+     * @throws IOException if the request fails
+     */
+    public String getMinKey() throws IOException {
+        return (String) pipeline().getMinKey().sync().get(0);
+    }
+
+    /**
+     * Return the maximum key stored.
+     *
+     * @return maximum key, or null if no keys stored
+     * @throws IOException if the request fails
+     */
+    public String getMaxKey() throws IOException {
+        return (String) pipeline().getMaxKey().sync().get(0);
+    }
+
+    /**
+     * Returns the total number of key-data pairs stored.
+     *
+     * @return count of key-data pairs
+     * @throws IOException if the request fails
+     */
+    public int size() throws IOException {
+        return (Integer) pipeline().size().sync().get(0);
+    }
+
+    /**
+     * Closes the connection.
+     *
+     * @throws IOException if closing fails
+     */
+    public void close() throws IOException {
+        socket.close();
+    }
+}
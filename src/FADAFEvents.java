@@ -0,0 +1,211 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * JDK Flight Recorder events of the FADAF data structures:
+ * fadaf.Rehash (old and new capacity, elements moved), fadaf.SlowOperation
+ * (operation, key hash, tree nodes visited, recorded above a 1 ms
+ * threshold by default) and fadaf.TreeRebuild (elements and keys of a
+ * rebuilt DAFTree). All three are in the FADAF category of a recording and
+ * can be tuned in a .jfc file like built-in events.
+ * <p>
+ * The project targets Java 8, where jdk.jfr is not part of the platform
+ * API, so the events are defined at run time through jdk.jfr.EventFactory
+ * by reflection. Nothing is registered until the first recording starts.
+ * While no recording runs, begin is a single volatile read that returns
+ * null; on a JVM without JFR the events are simply never recorded.
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public final class FADAFEvents {
+
+    // event types
+    static final int REHASH = 0;
+    static final int SLOW_OPERATION = 1;
+    static final int TREE_REBUILD = 2;
+
+    // constants
+    private static final String CATEGORY = "FADAF"; // category in recordings
+    private static final String SLOW_THRESHOLD = "1 ms"; // default threshold of slow operations
+
+    // JFR handles, null if JFR is not available
+    private static final Method NEW_EVENT; // EventFactory.newEvent()
+    private static final Method IS_ENABLED; // Event.isEnabled()
+    private static final Method BEGIN; // Event.begin()
+    private static final Method END; // Event.end()
+    private static final Method SHOULD_COMMIT; // Event.shouldCommit()
+    private static final Method SET; // Event.set(int, Object)
+    private static final Method COMMIT; // Event.commit()
+
+    private static Object[] factories; // event factory of each type, made on first recording
+    private static volatile boolean recording; // true while a recording runs
+
+    static {
+        Method[] m = new Method[7];
+        try {
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            m[0] = Class.forName("jdk.jfr.EventFactory").getMethod("newEvent");
+            m[1] = event.getMethod("isEnabled");
+            m[2] = event.getMethod("begin");
+            m[3] = event.getMethod("end");
+            m[4] = event.getMethod("shouldCommit");
+            m[5] = event.getMethod("set", int.class, Object.class);
+            m[6] = event.getMethod("commit");
+            Class<?> recorder = Class.forName("jdk.jfr.FlightRecorder");
+            Class<?> listener = Class.forName("jdk.jfr.FlightRecorderListener");
+            Object proxy = Proxy.newProxyInstance(FADAFEvents.class.getClassLoader(),
+                    new Class<?>[]{listener}, FADAFEvents::onRecorderEvent);
+            recorder.getMethod("addListener", listener).invoke(null, proxy);
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            Arrays.fill(m, null); // no JFR, events stay off
+        }
+        NEW_EVENT = m[0];
+        IS_ENABLED = m[1];
+        BEGIN = m[2];
+        END = m[3];
+        SHOULD_COMMIT = m[4];
+        SET = m[5];
+        COMMIT = m[6];
+    }
+
+    /**
+     * No instances.
+     */
+    private FADAFEvents() {
+    }
+
+    /**
+     * Starts timing an event.
+     *
+     * @param type REHASH, SLOW_OPERATION or TREE_REBUILD
+     * @return the event, or null if it is not being recorded
+     */
+    static Object begin(int type) {
+        if (!recording) {
+            return null;
+        }
+        try {
+            Object event = NEW_EVENT.invoke(factories[type]);
+            if (!(Boolean) IS_ENABLED.invoke(event)) {
+                return null;
+            }
+            BEGIN.invoke(event);
+            return event;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Ends an event and writes it if it passes its threshold.
+     *
+     * @param event  event returned by begin, not null
+     * @param values field values in declaration order
+     */
+    static void commit(Object event, Object... values) {
+        try {
+            END.invoke(event);
+            if (!(Boolean) SHOULD_COMMIT.invoke(event)) {
+                return;
+            }
+            for (int i = 0; i < values.length; i++) {
+                SET.invoke(event, i, values[i]);
+            }
+            COMMIT.invoke(event);
+        } catch (ReflectiveOperationException e) {
+            // drop the event, recording must never break an operation
+        }
+    }
+
+    /**
+     * Handles the calls of the FlightRecorderListener proxy.
+     *
+     * @param proxy  listener proxy
+     * @param method method called
+     * @param args   arguments of the call
+     * @return result of the call
+     */
+    private static Object onRecorderEvent(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "recorderInitialized":
+            case "recordingStateChanged":
+                refresh();
+                return null;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return FADAFEvents.class.getName();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Checks if any recording is running and defines the events the first
+     * time one is.
+     */
+    private static synchronized void refresh() {
+        try {
+            Object recorder = Class.forName("jdk.jfr.FlightRecorder").getMethod("getFlightRecorder").invoke(null);
+            boolean running = false;
+            for (Object r : (List<?>) recorder.getClass().getMethod("getRecordings").invoke(recorder)) {
+                Method getState = Class.forName("jdk.jfr.Recording").getMethod("getState");
+                running |= "RUNNING".equals(String.valueOf(getState.invoke(r)));
+            }
+            if (running && factories == null) {
+                factories = new Object[]{
+                    factory("fadaf.Rehash", "FADAF Rehash", "HashTable was resized and every element moved", null,
+                            int.class, "oldCapacity", int.class, "newCapacity", int.class, "elementsMoved"),
+                    factory("fadaf.SlowOperation", "FADAF Slow Operation", "DAFTree operation above the threshold",
+                            SLOW_THRESHOLD, String.class, "operation", int.class, "keyHash", int.class, "nodesVisited"),
+                    factory("fadaf.TreeRebuild", "FADAF Tree Rebuild", "DAFTree rebuilt as a balanced tree", null,
+                            int.class, "elements", int.class, "uniqueKeys")
+                };
+            }
+            recording = running && factories != null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            recording = false;
+        }
+    }
+
+    /**
+     * Defines one event type.
+     *
+     * @param name        event name
+     * @param label       human readable name
+     * @param description description
+     * @param threshold   default threshold, null for none
+     * @param fields      pairs of field type and field name
+     * @return event factory
+     * @throws ReflectiveOperationException if JFR rejects the definition
+     */
+    private static Object factory(String name, String label, String description, String threshold,
+                                  Object... fields) throws ReflectiveOperationException {
+        Class<?> element = Class.forName("jdk.jfr.AnnotationElement");
+        Constructor<?> annotation = element.getConstructor(Class.class, Object.class);
+        List<Object> annotations = new ArrayList<Object>();
+        annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"), name));
+        annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), label));
+        annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Description"), description));
+        annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[]{CATEGORY}));
+        if (threshold != null) {
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Threshold"), threshold));
+        }
+        Constructor<?> descriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class);
+        List<Object> values = new ArrayList<Object>();
+        for (int i = 0; i < fields.length; i += 2) {
+            values.add(descriptor.newInstance(fields[i], fields[i + 1]));
+        }
+        return Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class)
+                .invoke(null, annotations, values);
+    }
+}
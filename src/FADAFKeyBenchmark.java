@@ -0,0 +1,120 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+
+/**
+ * Measures what keys cost when they arrive as fresh copies, like keys read
+ * from the network. Keys share a long prefix, as hierarchical keys do. Three
+ * ways to store them are compared: the copies as they are, which pins one
+ * key instance per pair and leaves lookups with copies unable to match,
+ * String.intern on every key, and FADAF key interning. The heap is
+ * measured after loading, with the original keys alive in every mode.
+ * Usage: FADAFKeyBenchmark [keys] [prefix length]
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class FADAFKeyBenchmark {
+
+    // constants
+    private static final int DATA_PER_KEY = 4; // data paired with every key
+    private static final int ROUNDS = 3; // timed rounds, the first is warmup
+    private static final int COPIES = 0; // modes of the benchmark
+    private static final int STRING_INTERN = 1;
+    private static final int KEY_INTERNING = 2;
+    private static final String[] MODES = {"copies", "String.intern", "key interning"};
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        int nKeys = (args.length > 0) ? Integer.parseInt(args[0]) : 300000;
+        int prefixLength = (args.length > 1) ? Integer.parseInt(args[1]) : 40;
+
+        StringBuilder prefix = new StringBuilder();
+        while (prefix.length() < prefixLength) {
+            prefix.append("tenant-0007/region-eu-west-1/users/profile/");
+        }
+        prefix.setLength(prefixLength);
+        List<String> order = new ArrayList<String>();
+        for (int i = 0; i < nKeys; i++) {
+            order.add(prefix + String.format("%08d", i));
+        }
+        // shuffled because DAFTree does not rebalance on insert
+        Collections.shuffle(order, new Random(1));
+        String[] keys = order.toArray(new String[0]);
+        Integer[] data = new Integer[DATA_PER_KEY];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 1000 + i;
+        }
+
+        System.out.printf("%-14s %14s %14s %12s%n", "mode", "insert ns/op", "lookup ns/op", "heap B/pair");
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int mode = COPIES; mode <= KEY_INTERNING; mode++) {
+                long base = usedHeap();
+                FADAF<String, Integer> fadaf = new FADAF<String, Integer>(nKeys * 2);
+                if (mode == KEY_INTERNING) {
+                    fadaf.enableKeyInterning();
+                }
+                long start = System.nanoTime();
+                for (Integer d : data) {
+                    for (String key : keys) {
+                        fadaf.insert(arrive(key, mode), d);
+                    }
+                }
+                double insert = (System.nanoTime() - start) / (double) (nKeys * DATA_PER_KEY);
+                long heap = usedHeap() - base;
+
+                // copies never match the stored pairs, so that mode is not timed
+                String lookup = "-";
+                if (mode != COPIES) {
+                    long found = 0;
+                    start = System.nanoTime();
+                    for (String key : keys) {
+                        found += fadaf.lookup(arrive(key, mode), data[DATA_PER_KEY - 1]) ? 1 : 0;
+                    }
+                    lookup = String.format("%.0f", (System.nanoTime() - start) / (double) nKeys);
+                    if (found != nKeys) {
+                        throw new IllegalStateException("lookups missed stored pairs");
+                    }
+                }
+                if (round > 0) {
+                    System.out.printf("%-14s %14.0f %14s %12.1f%n", MODES[mode], insert, lookup,
+                            (double) heap / fadaf.size());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the key as it reaches the FADAF in a mode: a fresh copy,
+     * interned by the JVM in STRING_INTERN mode.
+     *
+     * @param key  original key
+     * @param mode mode of the benchmark
+     * @return key to pass on
+     */
+    private static String arrive(String key, int mode) {
+        String copy = new String(key.toCharArray());
+        return (mode == STRING_INTERN) ? copy.intern() : copy;
+    }
+
+    /**
+     * Returns the heap in use after a garbage collection.
+     *
+     * @return bytes in use
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
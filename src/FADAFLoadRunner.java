@@ -0,0 +1,126 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Loopback load test for FADAFServer. Starts a server in this JVM, preloads
+ * it, then lets every client thread send pipelined batches of a mixed
+ * workload (80% lookup, 10% insert, 10% remove) and reports throughput and
+ * percentiles of the round trip time of whole batches. Requests of a batch
+ * travel together, so their individual latencies are not measured.
+ * Usage: FADAFLoadRunner [threads] [batches per thread] [pipeline depth] [keys]
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class FADAFLoadRunner {
+
+    /**
+     * Runs the load test.
+     *
+     * @param args command line arguments
+     * @throws Exception if the server or a client fails
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int batches = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+        int depth = (args.length > 2) ? Integer.parseInt(args[2]) : 32;
+        int keys = (args.length > 3) ? Integer.parseInt(args[3]) : 10000;
+
+        FADAF<String, String> fadaf = new FADAF<String, String>(keys * 2);
+        try (FADAFServer server = new FADAFServer(fadaf, 0)) {
+            try (FADAFClient loader = new FADAFClient("127.0.0.1", server.getPort())) {
+                FADAFClient.Pipeline p = loader.pipeline();
+                for (int i = 0; i < keys; i++) {
+                    p.insert("key" + i, "data" + (i % 7));
+                    if (i % FADAFServer.MAX_BATCH == 0) {
+                        p.sync();
+                    }
+                }
+                p.sync();
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                final int seed = t;
+                futures.add(pool.submit(() -> runClient(server.getPort(), seed, batches, depth, keys)));
+            }
+            long[] latencies = new long[threads * batches];
+            int n = 0;
+            for (Future<long[]> f : futures) {
+                long[] l = f.get();
+                System.arraycopy(l, 0, latencies, n, l.length);
+                n += l.length;
+            }
+            long elapsed = System.nanoTime() - start;
+            pool.shutdown();
+
+            Arrays.sort(latencies);
+            long ops = (long) threads * batches * depth;
+            System.out.printf("threads=%d depth=%d ops=%d%n", threads, depth, ops);
+            System.out.printf("throughput: %.0f ops/s%n", ops / (elapsed / 1e9));
+            System.out.printf("batch round trip (%d requests) p50: %d us, p99: %d us, max: %d us%n", depth,
+                    percentile(latencies, 0.50) / 1000,
+                    percentile(latencies, 0.99) / 1000,
+                    latencies[latencies.length - 1] / 1000);
+        }
+    }
+
+    /**
+     * Sends pipelined batches from one client.
+     *
+     * @param port    server port
+     * @param seed    random seed of this client
+     * @param batches number of batches to send
+     * @param depth   requests per batch
+     * @param keys    key space size
+     * @return round trip time of every batch in nanoseconds
+     * @throws IOException if the connection fails
+     */
+    private static long[] runClient(int port, int seed, int batches, int depth, int keys)
+            throws IOException {
+        Random random = new Random(seed);
+        long[] latencies = new long[batches];
+        try (FADAFClient client = new FADAFClient("127.0.0.1", port)) {
+            FADAFClient.Pipeline p = client.pipeline();
+            for (int b = 0; b < batches; b++) {
+                long begin = System.nanoTime();
+                for (int i = 0; i < depth; i++) {
+                    String key = "key" + random.nextInt(keys);
+                    String data = "data" + random.nextInt(7);
+                    int op = random.nextInt(10);
+                    if (op == 0) {
+                        p.insert(key, data);
+                    } else if (op == 1) {
+                        p.remove(key, data);
+                    } else {
+                        p.lookup(key, data);
+                    }
+                }
+                p.sync();
+                latencies[b] = System.nanoTime() - begin;
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Returns the given percentile of a sorted array.
+     *
+     * @param sorted sorted values
+     * @param p      percentile between 0 and 1
+     * @return value at the percentile
+     */
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Binary wire format shared by FADAFServer and FADAFClient. Keys and data
+ * are Strings. A request is one opcode byte followed by its string
+ * arguments; a response is one status byte followed by the result. Requests
+ * on one connection may be pipelined and are answered in order.
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public final class FADAFProtocol {
+
+    // opcodes
+    public static final byte INSERT = 1; // key, data -> boolean
+    public static final byte REMOVE = 2; // key, data -> boolean
+    public static final byte REMOVE_ALL = 3; // key -> boolean
+    public static final byte LOOKUP = 4; // key, data -> boolean
+    public static final byte LOOKUP_ANY = 5; // key -> boolean
+    public static final byte GET_ALL_DATA = 6; // key -> list
+    public static final byte GET_RANGE = 7; // lo, hi -> list
+    public static final byte GET_MIN = 8; // -> nullable string
+    public static final byte GET_MAX = 9; // -> nullable string, O(n) as it lists every key
+    public static final byte SIZE = 10; // -> int
+
+    // response status
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;
+
+    /**
+     * No instances.
+     */
+    private FADAFProtocol() {
+    }
+
+    /**
+     * Returns the number of string arguments an opcode takes.
+     *
+     * @param op opcode
+     * @return number of arguments
+     * @throws IOException if the opcode is unknown
+     */
+    static int arity(byte op) throws IOException {
+        switch (op) {
+            case INSERT:
+            case REMOVE:
+            case LOOKUP:
+            case GET_RANGE:
+                return 2;
+            case REMOVE_ALL:
+            case LOOKUP_ANY:
+            case GET_ALL_DATA:
+                return 1;
+            case GET_MIN:
+            case GET_MAX:
+            case SIZE:
+                return 0;
+            default:
+                throw new IOException("unknown opcode " + op);
+        }
+    }
+
+    /**
+     * Checks if an opcode changes the content of the FADAF.
+     *
+     * @param op opcode
+     * @return true if it is insert, remove or removeAll
+     */
+    static boolean isWrite(byte op) {
+        return op == INSERT || op == REMOVE || op == REMOVE_ALL;
+    }
+
+    /**
+     * Writes a request.
+     *
+     * @param out output stream
+     * @param op  opcode
+     * @param a   first argument, ignored if the opcode takes none
+     * @param b   second argument, ignored if the opcode takes less than two
+     * @throws IOException if writing fails
+     */
+    static void writeRequest(DataOutputStream out, byte op, String a, String b) throws IOException {
+        int n = arity(op);
+        out.writeByte(op);
+        if (n > 0) {
+            out.writeUTF(a);
+        }
+        if (n > 1) {
+            out.writeUTF(b);
+        }
+    }
+
+    /**
+     * Writes a successful response with the given result.
+     *
+     * @param out    output stream
+     * @param op     opcode that produced the result
+     * @param result Boolean, Integer, String (may be null) or List of String
+     * @throws IOException if writing fails
+     */
+    @SuppressWarnings("unchecked")
+    static void writeResult(DataOutputStream out, byte op, Object result) throws IOException {
+        out.writeByte(OK);
+        switch (op) {
+            case GET_ALL_DATA:
+            case GET_RANGE:
+                List<String> list = (List<String>) result;
+                out.writeInt(list.size());
+                for (String s : list) {
+                    out.writeUTF(s);
+                }
+                break;
+            case GET_MIN:
+            case GET_MAX:
+                out.writeBoolean(result != null);
+                if (result != null) {
+                    out.writeUTF((String) result);
+                }
+                break;
+            case SIZE:
+                out.writeInt((Integer) result);
+                break;
+            default:
+                out.writeBoolean((Boolean) result);
+        }
+    }
+
+    /**
+     * Writes an error response.
+     *
+     * @param out     output stream
+     * @param message error message
+     * @throws IOException if writing fails
+     */
+    static void writeError(DataOutputStream out, String message) throws IOException {
+        out.writeByte(ERROR);
+        out.writeUTF(message == null ? "" : message);
+    }
+
+    /**
+     * Reads the response to a request with the given opcode. An error the
+     * server reported is returned rather than thrown, so the caller can go
+     * on reading the responses after it.
+     *
+     * @param in input stream
+     * @param op opcode of the request
+     * @return Boolean, Integer, String (may be null), LinkedList of String,
+     *         or an IOException with the message of a server error
+     * @throws IOException if reading fails
+     */
+    static Object readResult(DataInputStream in, byte op) throws IOException {
+        byte status = in.readByte();
+        if (status == ERROR) {
+            return new IOException(in.readUTF());
+        }
+        switch (op) {
+            case GET_ALL_DATA:
+            case GET_RANGE:
+                int n = in.readInt();
+                LinkedList<String> list = new LinkedList<String>();
+                for (int i = 0; i < n; i++) {
+                    list.add(in.readUTF());
+                }
+                return list;
+            case GET_MIN:
+            case GET_MAX:
+                return in.readBoolean() ? in.readUTF() : null;
+            case SIZE:
+                return in.readInt();
+            default:
+                return in.readBoolean();
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * TCP front-end that serves one shared FADAF over FADAFProtocol. Every
+ * connection gets its own thread (a virtual thread when the JVM has them).
+ * Requests that a client pipelines are read as one batch and applied under
+ * a single lock acquisition, and all their responses are flushed together.
+ * <p>
+ * DAFTree matches keys and data by reference, while every request carries
+ * fresh copies. The server turns on key interning of the FADAF, and
+ * inserts, removes and looks up pairs with the FADAF operations that compare
+ * data with equals within the one search of the key, so equal strings match
+ * without a global string table.
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class FADAFServer implements Closeable {
+
+    // constants
+    public static final int MAX_BATCH = 256; // most requests applied per lock acquisition
+    public static final int BUFFER_SIZE = 1 << 16; // socket stream buffer size
+
+    // instance variables
+    private final FADAF<String, String> fadaf; // served structure
+    private final ReadWriteLock lock; // readers share, writers exclusive
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor; // one task per connection
+    private final Set<Socket> connections; // open client sockets
+    private volatile boolean running;
+    private volatile long acceptFailures; // connections that could not be accepted
+
+    /**
+     * Request read from a connection but not applied yet.
+     */
+    private static final class Request {
+        final byte op;
+        final String a, b; // arguments, null if unused
+
+        /**
+         * Initializes a Request object.
+         *
+         * @param op opcode
+         * @param a  first argument
+         * @param b  second argument
+         */
+        Request(byte op, String a, String b) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    /**
+     * Starts a server for the given FADAF on the given port and turns on
+     * key interning of the FADAF.
+     *
+     * @param fadaf FADAF to serve
+     * @param port  port to listen on, 0 for any free port
+     * @throws IOException          if the port cannot be bound
+     * @throws NullPointerException if fadaf is null
+     */
+    public FADAFServer(FADAF<String, String> fadaf, int port) throws IOException {
+        if (fadaf == null) {
+            throw new NullPointerException();
+        }
+        this.fadaf = fadaf;
+        fadaf.enableKeyInterning();
+        this.lock = new ReentrantReadWriteLock();
+        this.serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        this.executor = newConnectionExecutor();
+        this.connections = ConcurrentHashMap.newKeySet();
+        this.running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "fadaf-server-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return local port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the number of connections that failed while being accepted,
+     * for example because the process ran out of file descriptors.
+     *
+     * @return number of failed accepts
+     */
+    public long getAcceptFailures() {
+        return acceptFailures;
+    }
+
+    /**
+     * Returns the lock guarding the served FADAF. Code that touches the FADAF
+     * directly while the server is running must hold it.
+     *
+     * @return lock of the served FADAF
+     */
+    public ReadWriteLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Stops accepting connections and closes all open ones.
+     */
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Creates a virtual thread per task executor if the running JVM supports
+     * it, otherwise a cached platform thread pool.
+     *
+     * @return executor for connection handlers
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "fadaf-server-conn");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Accepts connections until the server is closed. A connection that
+     * fails while being set up is dropped and counted, like a connection
+     * that fails while being served.
+     */
+    private void acceptLoop() {
+        while (running) {
+            Socket socket = null;
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                final Socket accepted = socket;
+                executor.execute(() -> serve(accepted));
+            } catch (IOException | RejectedExecutionException e) {
+                if (!running) {
+                    break;
+                }
+                acceptFailures++;
+                if (socket != null) {
+                    connections.remove(socket);
+                    try {
+                        socket.close();
+                    } catch (IOException closeFailed) {
+                        // already closed
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves one connection until the client disconnects.
+     *
+     * @param socket client socket
+     */
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(s.getInputStream(), BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(s.getOutputStream(), BUFFER_SIZE));
+            List<Request> batch = new ArrayList<Request>();
+            Object[] results = new Object[MAX_BATCH];
+            while (running) {
+                int first = in.read();
+                if (first < 0) {
+                    break;
+                }
+                batch.add(readRequest(in, (byte) first));
+                // coalesce everything the client already pipelined
+                while (batch.size() < MAX_BATCH && in.available() > 0) {
+                    batch.add(readRequest(in, in.readByte()));
+                }
+                apply(batch, results);
+                for (int i = 0; i < batch.size(); i++) {
+                    if (results[i] instanceof RuntimeException) {
+                        FADAFProtocol.writeError(out, results[i].toString());
+                    } else {
+                        FADAFProtocol.writeResult(out, batch.get(i).op, results[i]);
+                    }
+                    results[i] = null;
+                }
+                out.flush();
+                batch.clear();
+            }
+        } catch (IOException e) {
+            // client went away or sent garbage, drop the connection
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Reads the arguments of a request.
+     *
+     * @param in input stream
+     * @param op opcode that was already read
+     * @return request
+     * @throws IOException if reading fails or the opcode is unknown
+     */
+    private static Request readRequest(DataInputStream in, byte op) throws IOException {
+        int n = FADAFProtocol.arity(op);
+        String a = (n > 0) ? in.readUTF() : null;
+        String b = (n > 1) ? in.readUTF() : null;
+        return new Request(op, a, b);
+    }
+
+    /**
+     * Applies a batch of requests under one lock acquisition. The write lock
+     * is only taken if the batch contains a write, or if the FADAF is
+     * adaptive or expiring because then reads restructure the tree or remove
+     * expired pairs.
+     *
+     * @param batch   requests in arrival order
+     * @param results filled with the result (or exception) of each request
+     */
+    private void apply(List<Request> batch, Object[] results) {
+        boolean write = fadaf.isAdaptive() || fadaf.isExpiring();
+        for (Request r : batch) {
+            write |= FADAFProtocol.isWrite(r.op);
+        }
+        Lock l = write ? lock.writeLock() : lock.readLock();
+        l.lock();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    results[i] = execute(batch.get(i));
+                } catch (RuntimeException e) {
+                    results[i] = e;
+                }
+            }
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * Executes one request against the FADAF.
+     *
+     * @param r request
+     * @return result to send back
+     */
+    private Object execute(Request r) {
+        switch (r.op) {
+            case FADAFProtocol.INSERT:
+                return fadaf.insertEqual(r.a, r.b);
+            case FADAFProtocol.REMOVE:
+                return fadaf.removeEqual(r.a, r.b);
+            case FADAFProtocol.REMOVE_ALL:
+                return fadaf.removeAll(r.a);
+            case FADAFProtocol.LOOKUP:
+                return fadaf.lookupEqual(r.a, r.b) != null;
+            case FADAFProtocol.LOOKUP_ANY:
+                return fadaf.lookupAny(r.a);
+            case FADAFProtocol.GET_ALL_DATA:
+                return fadaf.getAllData(r.a);
+            case FADAFProtocol.GET_RANGE:
+                return fadaf.getKeysInRange(r.a, r.b);
+            case FADAFProtocol.GET_MIN:
+                return fadaf.getMinKey();
+            case FADAFProtocol.GET_MAX:
+                return (fadaf.size() == 0) ? null : fadaf.getMaxKey();
+            default:
+                return fadaf.size();
+        }
+    }
+
+    /**
+     * Runs a server until the process is killed.
+     * Usage: FADAFServer [port] [capacity]
+     *
+     * @param args command line arguments
+     * @throws IOException          if the port cannot be bound
+     * @throws InterruptedException if interrupted while serving
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 7070;
+        int capacity = (args.length > 1) ? Integer.parseInt(args[1]) : 1024;
+        FADAFServer server = new FADAFServer(new FADAF<String, String>(capacity), port);
+        System.out.println("FADAF server listening on " + server.getPort());
+        new CountDownLatch(1).await();
+    }
+}
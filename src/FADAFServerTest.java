@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FADAFServerTest {
+
+    @Test
+    public void roundTrip() throws Exception {
+        try (FADAFServer server = new FADAFServer(new FADAF<String, String>(10), 0);
+             FADAFClient client = new FADAFClient("127.0.0.1", server.getPort())) {
+            assertTrue(client.insert("b", "1"));
+            assertFalse(client.insert("b", "1"));
+            assertTrue(client.insert("b", "2"));
+            assertTrue(client.insert("a", "1"));
+            assertTrue(client.lookup("b", "2"));
+            assertTrue(client.lookupAny("a"));
+            assertEquals(2, client.getAllData("b").size());
+            assertEquals("a", client.getMinKey());
+            assertEquals("b", client.getMaxKey());
+            assertEquals(2, client.getKeysInRange("b", "c").size());
+            assertTrue(client.removeAll("b"));
+            assertEquals(1, client.size());
+        }
+    }
+
+    @Test
+    public void pipeline() throws Exception {
+        try (FADAFServer server = new FADAFServer(new FADAF<String, String>(10), 0);
+             FADAFClient client = new FADAFClient("127.0.0.1", server.getPort())) {
+            FADAFClient.Pipeline p = client.pipeline();
+            for (int i = 0; i < 100; i++) {
+                p.insert("k" + i, "d");
+            }
+            p.lookup("k7", "d").remove("k7", "d").lookup("k7", "d").size();
+            List<Object> results = p.sync();
+            assertEquals(104, results.size());
+            assertEquals(true, results.get(100));
+            assertEquals(true, results.get(101));
+            assertEquals(false, results.get(102));
+            assertEquals(99, results.get(103));
+        }
+    }
+
+    @Test
+    public void pipelineErrors() throws Exception {
+        FADAF<String, String> readOnly = new FADAF<String, String>(10) {
+            @Override
+            public boolean removeEqual(String key, String data) {
+                throw new IllegalStateException("read only");
+            }
+        };
+        try (FADAFServer server = new FADAFServer(readOnly, 0);
+             FADAFClient client = new FADAFClient("127.0.0.1", server.getPort())) {
+            FADAFClient.Pipeline p = client.pipeline();
+            p.insert("a", "1").remove("a", "1").lookup("a", "1");
+            try {
+                p.sync();
+                fail();
+            } catch (FADAFClient.PipelineException e) {
+                // every response was read, the rejected one holds its error
+                List<Object> results = e.getResults();
+                assertEquals(3, results.size());
+                assertEquals(true, results.get(0));
+                assertTrue(results.get(1) instanceof java.io.IOException);
+                assertEquals(true, results.get(2));
+            }
+            // later requests still get their own responses
+            assertTrue(p.lookupAny("a").sync().get(0) instanceof Boolean);
+            assertEquals(1, client.size());
+        }
+    }
+
+    @Test
+    public void expiringReads() throws Exception {
+        AtomicReference<FADAFServer> served = new AtomicReference<FADAFServer>();
+        AtomicBoolean unguarded = new AtomicBoolean();
+        FADAF<String, String> fadaf = new FADAF<String, String>(10) {
+            @Override
+            public boolean lookupAny(String key) {
+                ReentrantReadWriteLock l = (ReentrantReadWriteLock) served.get().getLock();
+                if (!l.isWriteLockedByCurrentThread()) {
+                    unguarded.set(true);
+                }
+                return super.lookupAny(key);
+            }
+        };
+        AtomicLong now = new AtomicLong();
+        fadaf.enableExpiry(1, now::get);
+        int n = 200;
+        for (int i = 0; i < n; i++) {
+            fadaf.insert("k" + i, "d", 10);
+        }
+        now.set(20);
+        try (FADAFServer server = new FADAFServer(fadaf, 0)) {
+            served.set(server);
+            // readers expire the pairs they look at, so they must not share the lock
+            List<Thread> readers = new ArrayList<Thread>();
+            AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+            for (int t = 0; t < 4; t++) {
+                Thread reader = new Thread(() -> {
+                    try (FADAFClient client = new FADAFClient("127.0.0.1", server.getPort())) {
+                        FADAFClient.Pipeline p = client.pipeline();
+                        for (int i = 0; i < n; i++) {
+                            p.lookupAny("k" + i);
+                        }
+                        for (Object found : p.sync()) {
+                            assertEquals(false, found);
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                });
+                readers.add(reader);
+                reader.start();
+            }
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            assertNull(error.get());
+            assertFalse(unguarded.get());
+            server.getLock().readLock().lock();
+            try {
+                assertEquals(0, fadaf.size());
+                assertEquals(0, fadaf.nUniqueKeys());
+            } finally {
+                server.getLock().readLock().unlock();
+            }
+        }
+    }
+
+    @Test
+    public void longPipeline() throws Exception {
+        try (FADAFServer server = new FADAFServer(new FADAF<String, String>(10), 0);
+             FADAFClient client = new FADAFClient("127.0.0.1", server.getPort())) {
+            StringBuilder data = new StringBuilder();
+            while (data.length() < 2000) {
+                data.append("data");
+            }
+            String key = data.toString();
+            client.insert(key, data.toString());
+            // far more requests and responses than the socket buffers hold
+            FADAFClient.Pipeline p = client.pipeline();
+            int n = 20 * FADAFClient.MAX_IN_FLIGHT;
+            for (int i = 0; i < n; i++) {
+                p.getAllData(key);
+            }
+            List<Object> results = p.sync();
+            assertEquals(n, results.size());
+            assertEquals(1, ((List<?>) results.get(n - 1)).size());
+            // copies of the data match the stored instance
+            assertTrue(client.lookup(key, new String(data)));
+            assertFalse(client.insert(key, data.toString()));
+            assertTrue(client.remove(key, data.toString()));
+            assertEquals(0, client.size());
+        }
+    }
+}
@@ -0,0 +1,742 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import javax.management.*;
+import javax.management.openmbean.*;
+
+/**
+ * Soak test that drives a FADAF in process with a configurable operation
+ * mix from many threads for a fixed time. Latencies go into a
+ * LatencyHistogram per thread and operation. Every interval a reporter
+ * prints the throughput, p99, heap in use and GC activity, and at the end
+ * everything is written as a JSON report. Given the report of an earlier
+ * run as baseline, the runner compares throughput and p99 of every operation
+ * and exits with status 1 on a regression beyond the tolerance.
+ * <p>
+ * Options are given as name=value:
+ * threads (8), seconds (60), interval (1), keys (100000), dups (4, data per
+ * key), dist (uniform, zipf or sequential), zipf (0.99, exponent),
+ * backend (locked: FADAF behind one lock, or concurrent: ConcurrentFADAF),
+ * mix (weights, default lookup:40,lookupAny:15,getAllData:15,insert:14,
+ * remove:12,removeAll:3,getAllKeys:1), rate (0, total ops/s; 0 runs closed
+ * loop), report (soak-report.json), baseline (none) and tolerance (0.10).
+ * With a rate, latency is measured from the time an operation was due, so
+ * stalls are not hidden by the threads waiting in them (coordinated
+ * omission).
+ * Usage: FADAFSoakRunner [name=value ...]
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class FADAFSoakRunner {
+
+    // operations
+    private static final String[] OPS = {
+        "insert", "remove", "removeAll", "lookup", "lookupAny", "getAllData", "getAllKeys"
+    };
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int REMOVE_ALL = 2;
+    private static final int LOOKUP = 3;
+    private static final int LOOKUP_ANY = 4;
+    private static final int GET_ALL_DATA = 5;
+    private static final int GET_ALL_KEYS = 6;
+
+    // constants
+    private static final String DEFAULT_MIX =
+            "lookup:40,lookupAny:15,getAllData:15,insert:14,remove:12,removeAll:3,getAllKeys:1";
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    // instance variables
+    private final Map<String, String> options; // name=value options with defaults
+    private final int threads;
+    private final int keyCount;
+    private final int dups;
+    private final String dist;
+    private final double[] mixCdf; // cumulative weight of every operation
+    private final double[] zipfCdf; // cumulative probability of every key rank, zipf only
+    private final String[] keys; // sorted key space, preallocated because DAFTree matches by reference
+    private final int[] permutation; // random order of the key indexes
+    private final String[] data; // data space
+    private final FADAFBackend<String, String> fadaf;
+    private final Lock lock; // global lock of the locked backend, null otherwise
+    private final AtomicLong sequence; // next key of the sequential distribution
+    private final LatencyHistogram[][] recorders; // per thread and operation, drained every interval
+    private final LatencyHistogram[] totals; // per operation over the whole run
+    private final LatencyHistogram gcPauses; // GC pause durations in nanoseconds
+    private final AtomicLong gcPauseMax; // longest GC pause of the current interval
+    private final List<String> timeline; // one JSON object per interval
+    private volatile boolean stop;
+
+    /**
+     * Runs the soak test.
+     *
+     * @param args options as name=value
+     * @throws Exception if a worker fails or the report cannot be written
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("threads", "8");
+        options.put("seconds", "60");
+        options.put("interval", "1");
+        options.put("keys", "100000");
+        options.put("dups", "4");
+        options.put("dist", "uniform");
+        options.put("zipf", "0.99");
+        options.put("backend", "locked");
+        options.put("mix", DEFAULT_MIX);
+        options.put("rate", "0");
+        options.put("report", "soak-report.json");
+        options.put("baseline", "");
+        options.put("tolerance", "0.10");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !options.containsKey(arg.substring(0, eq))) {
+                throw new IllegalArgumentException("unknown option " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        FADAFSoakRunner runner = new FADAFSoakRunner(options);
+        String report = runner.run();
+        Files.write(Paths.get(options.get("report")), report.getBytes(StandardCharsets.UTF_8));
+        System.out.println("report written to " + options.get("report"));
+        if (!options.get("baseline").isEmpty()) {
+            String baseline = new String(Files.readAllBytes(Paths.get(options.get("baseline"))),
+                    StandardCharsets.UTF_8);
+            List<String> regressions = compare(baseline, report, Double.parseDouble(options.get("tolerance")));
+            for (String regression : regressions) {
+                System.out.println("REGRESSION " + regression);
+            }
+            if (!regressions.isEmpty()) {
+                System.exit(1);
+            }
+            System.out.println("no regression against " + options.get("baseline"));
+        }
+    }
+
+    /**
+     * Sets up the key space, the backend and the recorders.
+     *
+     * @param options name=value options
+     */
+    private FADAFSoakRunner(Map<String, String> options) {
+        this.options = options;
+        this.threads = Integer.parseInt(options.get("threads"));
+        this.keyCount = Integer.parseInt(options.get("keys"));
+        this.dups = Integer.parseInt(options.get("dups"));
+        this.dist = options.get("dist");
+        if (!dist.equals("uniform") && !dist.equals("zipf") && !dist.equals("sequential")) {
+            throw new IllegalArgumentException("unknown dist " + dist);
+        }
+        this.mixCdf = parseMix(options.get("mix"));
+        this.zipfCdf = dist.equals("zipf") ? zipfCdf(keyCount, Double.parseDouble(options.get("zipf"))) : null;
+
+        // keys in ascending order so sequential walks the tree in order,
+        // zipf ranks and the preload go through a random permutation
+        this.keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key" + i;
+        }
+        Arrays.sort(keys);
+        List<Integer> shuffled = new ArrayList<Integer>();
+        for (int i = 0; i < keyCount; i++) {
+            shuffled.add(i);
+        }
+        Collections.shuffle(shuffled, new Random(1));
+        this.permutation = new int[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            permutation[i] = shuffled.get(i);
+        }
+        this.data = new String[dups];
+        for (int i = 0; i < dups; i++) {
+            data[i] = "data" + i;
+        }
+        if (options.get("backend").equals("locked")) {
+            this.fadaf = new FADAF<String, String>(keyCount * 2);
+            this.lock = new ReentrantLock();
+        } else if (options.get("backend").equals("concurrent")) {
+            this.fadaf = new ConcurrentFADAF<String, String>(keyCount * 2);
+            this.lock = null;
+        } else {
+            throw new IllegalArgumentException("unknown backend " + options.get("backend"));
+        }
+        // half of the pairs are there at the start, so reads hit and miss;
+        // random order because DAFTree does not rebalance on insert
+        for (int i : permutation) {
+            for (int d = 0; d < (dups + 1) / 2; d++) {
+                fadaf.insert(keys[i], data[d]);
+            }
+        }
+        this.sequence = new AtomicLong();
+        this.recorders = new LatencyHistogram[threads][OPS.length];
+        for (LatencyHistogram[] row : recorders) {
+            for (int op = 0; op < OPS.length; op++) {
+                row[op] = new LatencyHistogram();
+            }
+        }
+        this.totals = new LatencyHistogram[OPS.length];
+        for (int op = 0; op < OPS.length; op++) {
+            totals[op] = new LatencyHistogram();
+        }
+        this.gcPauses = new LatencyHistogram();
+        this.gcPauseMax = new AtomicLong();
+        this.timeline = new ArrayList<String>();
+    }
+
+    /**
+     * Runs the workers and the reporter and builds the report.
+     *
+     * @return JSON report
+     * @throws Exception if a worker fails
+     */
+    private String run() throws Exception {
+        int seconds = Integer.parseInt(options.get("seconds"));
+        double interval = Double.parseDouble(options.get("interval"));
+        double rate = Double.parseDouble(options.get("rate"));
+        listenForGcPauses();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<Future<?>>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers.add(pool.submit(() -> {
+                work(id, rate);
+                return null;
+            }));
+        }
+
+        System.out.printf("%8s %12s %10s %10s %8s %8s%n", "time s", "ops/s", "p99 us", "heap MB", "gc", "gc ms");
+        long intervalNanos = (long) (interval * 1e9);
+        long end = start + seconds * 1000000000L;
+        long last = start;
+        long lastGcCount = gcCount(collectors);
+        long lastGcTime = gcTime(collectors);
+        long maxHeap = 0;
+        LatencyHistogram slice = new LatencyHistogram();
+        while (last < end) {
+            long wake = Math.min(end, last + intervalNanos);
+            while (System.nanoTime() < wake) {
+                LockSupport.parkNanos(wake - System.nanoTime());
+            }
+            long now = System.nanoTime();
+            // drain every recorder into this interval and into the totals
+            long[] counts = new long[OPS.length];
+            LatencyHistogram all = new LatencyHistogram();
+            for (int op = 0; op < OPS.length; op++) {
+                slice.reset();
+                for (int t = 0; t < threads; t++) {
+                    recorders[t][op].drainInto(slice);
+                }
+                counts[op] = slice.getCount();
+                totals[op].add(slice);
+                all.add(slice);
+            }
+            long heap = memory.getHeapMemoryUsage().getUsed();
+            maxHeap = Math.max(maxHeap, heap);
+            long gcCount = gcCount(collectors);
+            long gcTime = gcTime(collectors);
+            double secs = (now - last) / 1e9;
+            double opsPerSec = all.getCount() / secs;
+            System.out.printf("%8.1f %12.0f %10.1f %10d %8d %8d%n", (now - start) / 1e9, opsPerSec,
+                    all.getValueAtPercentile(99) / 1e3, heap >> 20, gcCount - lastGcCount, gcTime - lastGcTime);
+            StringBuilder entry = new StringBuilder();
+            entry.append("{\"t\": ").append(fmt((now - start) / 1e9))
+                    .append(", \"opsPerSec\": ").append(fmt(opsPerSec))
+                    .append(", \"p99Us\": ").append(fmt(all.getValueAtPercentile(99) / 1e3))
+                    .append(", \"heapMb\": ").append(heap >> 20)
+                    .append(", \"gcCount\": ").append(gcCount - lastGcCount)
+                    .append(", \"gcMs\": ").append(gcTime - lastGcTime)
+                    .append(", \"gcPauseMaxMs\": ").append(fmt(gcPauseMax.getAndSet(0) / 1e6))
+                    .append(", \"ops\": {");
+            for (int op = 0; op < OPS.length; op++) {
+                entry.append((op == 0) ? "" : ", ").append('"').append(OPS[op]).append("\": ").append(counts[op]);
+            }
+            timeline.add(entry.append("}}").toString());
+            lastGcCount = gcCount;
+            lastGcTime = gcTime;
+            last = now;
+        }
+        stop = true;
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        pool.shutdown();
+        double elapsed = (last - start) / 1e9;
+        // records made after the last interval are left out on purpose
+        return report(elapsed, maxHeap, memory.getHeapMemoryUsage().getUsed(),
+                gcCount(collectors), gcTime(collectors));
+    }
+
+    /**
+     * Body of a worker thread.
+     *
+     * @param id   worker index
+     * @param rate total target ops/s, 0 for closed loop
+     */
+    private void work(int id, double rate) {
+        Random random = new Random(id + 1);
+        LatencyHistogram[] recorder = recorders[id];
+        long period = (rate > 0) ? (long) (1e9 * threads / rate) : 0;
+        long due = System.nanoTime();
+        while (!stop) {
+            long begin;
+            if (period > 0) {
+                due += period;
+                long now = System.nanoTime();
+                if (due > now) {
+                    LockSupport.parkNanos(due - now);
+                }
+                begin = due; // count the time the operation was kept waiting
+            } else {
+                begin = System.nanoTime();
+            }
+            int op = pick(mixCdf, random);
+            String key = keys[nextKey(random)];
+            String d = data[random.nextInt(dups)];
+            if (lock != null) {
+                lock.lock();
+                try {
+                    apply(op, key, d);
+                } finally {
+                    lock.unlock();
+                }
+            } else {
+                apply(op, key, d);
+            }
+            recorder[op].record(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * Runs one operation.
+     *
+     * @param op   operation index
+     * @param key  key to use
+     * @param data data to use
+     * @return result, so the call cannot be optimized away
+     */
+    private Object apply(int op, String key, String data) {
+        switch (op) {
+            case INSERT:
+                return fadaf.insert(key, data);
+            case REMOVE:
+                return fadaf.remove(key, data);
+            case REMOVE_ALL:
+                return fadaf.removeAll(key);
+            case LOOKUP:
+                return fadaf.lookup(key, data);
+            case LOOKUP_ANY:
+                return fadaf.lookupAny(key);
+            case GET_ALL_DATA:
+                return fadaf.getAllData(key);
+            default:
+                return fadaf.getAllKeys();
+        }
+    }
+
+    /**
+     * Draws the next key index from the configured distribution.
+     *
+     * @param random random source of the worker
+     * @return key index
+     */
+    private int nextKey(Random random) {
+        if (zipfCdf != null) {
+            return permutation[pick(zipfCdf, random)];
+        }
+        if (dist.equals("sequential")) {
+            return (int) (sequence.getAndIncrement() % keyCount);
+        }
+        return random.nextInt(keyCount);
+    }
+
+    /**
+     * Records the GC pauses announced by the collectors. Beans of
+     * concurrent cycles are skipped, their duration is not a pause.
+     */
+    private void listenForGcPauses() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String name = gc.getName();
+            if (!(gc instanceof NotificationEmitter) || name.contains("Concurrent") || name.contains("Cycles")) {
+                continue;
+            }
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (!"com.sun.management.gc.notification".equals(notification.getType())
+                        || !(notification.getUserData() instanceof CompositeData)) {
+                    return;
+                }
+                CompositeData info = (CompositeData) ((CompositeData) notification.getUserData()).get("gcInfo");
+                long nanos = (Long) info.get("duration") * 1000000L;
+                gcPauses.record(nanos);
+                long m = gcPauseMax.get();
+                while (nanos > m && !gcPauseMax.compareAndSet(m, nanos)) {
+                    m = gcPauseMax.get();
+                }
+            }, null, null);
+        }
+    }
+
+    /**
+     * Builds the JSON report.
+     *
+     * @param elapsed    measured seconds
+     * @param maxHeap    largest heap use seen by the reporter
+     * @param finalHeap  heap use at the end
+     * @param gcCount    collections since the JVM started
+     * @param gcTime     collection time since the JVM started, in ms
+     * @return JSON report
+     */
+    private String report(double elapsed, long maxHeap, long finalHeap, long gcCount, long gcTime) {
+        StringBuilder json = new StringBuilder("{\n  \"config\": {");
+        boolean first = true;
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            json.append(first ? "" : ", ").append(quote(option.getKey())).append(": ")
+                    .append(quote(option.getValue()));
+            first = false;
+        }
+        long totalOps = 0;
+        for (LatencyHistogram h : totals) {
+            totalOps += h.getCount();
+        }
+        json.append("},\n  \"jvm\": {\"version\": ").append(quote(System.getProperty("java.version")))
+                .append(", \"processors\": ").append(Runtime.getRuntime().availableProcessors())
+                .append(", \"maxHeapMb\": ").append(Runtime.getRuntime().maxMemory() >> 20).append("},\n");
+        json.append("  \"seconds\": ").append(fmt(elapsed)).append(",\n");
+        json.append("  \"totalOps\": ").append(totalOps).append(",\n");
+        json.append("  \"opsPerSec\": ").append(fmt(totalOps / elapsed)).append(",\n");
+        json.append("  \"operations\": {\n");
+        for (int op = 0; op < OPS.length; op++) {
+            LatencyHistogram h = totals[op];
+            json.append("    ").append(quote(OPS[op])).append(": {\"count\": ").append(h.getCount())
+                    .append(", \"opsPerSec\": ").append(fmt(h.getCount() / elapsed))
+                    .append(", \"meanUs\": ").append(fmt(h.getMean() / 1e3));
+            for (double p : PERCENTILES) {
+                json.append(", \"p").append(fmt(p).replace(".", "")).append("Us\": ")
+                        .append(fmt(h.getValueAtPercentile(p) / 1e3));
+            }
+            json.append(", \"maxUs\": ").append(fmt(h.getMax() / 1e3)).append('}')
+                    .append((op < OPS.length - 1) ? ",\n" : "\n");
+        }
+        json.append("  },\n  \"heap\": {\"maxUsedMb\": ").append(maxHeap >> 20)
+                .append(", \"finalUsedMb\": ").append(finalHeap >> 20).append("},\n");
+        json.append("  \"gc\": {\"collections\": ").append(gcCount).append(", \"timeMs\": ").append(gcTime)
+                .append(", \"pauses\": ").append(gcPauses.getCount())
+                .append(", \"pauseP99Ms\": ").append(fmt(gcPauses.getValueAtPercentile(99) / 1e6))
+                .append(", \"pauseMaxMs\": ").append(fmt(gcPauses.getMax() / 1e6)).append("},\n");
+        json.append("  \"timeline\": [\n");
+        for (int i = 0; i < timeline.size(); i++) {
+            json.append("    ").append(timeline.get(i)).append((i < timeline.size() - 1) ? ",\n" : "\n");
+        }
+        return json.append("  ]\n}\n").toString();
+    }
+
+    /**
+     * Compares the operations of two reports.
+     *
+     * @param baseline  JSON report of the earlier run
+     * @param current   JSON report of this run
+     * @param tolerance allowed relative loss of throughput or growth of p99
+     * @return description of every regression, empty if none
+     */
+    @SuppressWarnings("unchecked")
+    static List<String> compare(String baseline, String current, double tolerance) {
+        Map<String, Object> before = (Map<String, Object>) new Json(baseline).value();
+        Map<String, Object> after = (Map<String, Object>) new Json(current).value();
+        Map<String, Object> beforeOps = (Map<String, Object>) before.get("operations");
+        Map<String, Object> afterOps = (Map<String, Object>) after.get("operations");
+        List<String> regressions = new ArrayList<String>();
+        Map<String, Object> beforeConfig = (Map<String, Object>) before.get("config");
+        Map<String, Object> afterConfig = (Map<String, Object>) after.get("config");
+        for (String option : afterConfig.keySet()) {
+            if (!option.equals("report") && !option.equals("baseline") && !option.equals("tolerance")
+                    && !Objects.equals(beforeConfig.get(option), afterConfig.get(option))) {
+                System.out.println("warning: " + option + " differs from the baseline ("
+                        + beforeConfig.get(option) + " -> " + afterConfig.get(option) + ")");
+            }
+        }
+        for (String op : afterOps.keySet()) {
+            Map<String, Object> b = (Map<String, Object>) beforeOps.get(op);
+            Map<String, Object> a = (Map<String, Object>) afterOps.get(op);
+            if (b == null || ((Number) b.get("count")).longValue() == 0
+                    || ((Number) a.get("count")).longValue() == 0) {
+                continue;
+            }
+            double bRate = ((Number) b.get("opsPerSec")).doubleValue();
+            double aRate = ((Number) a.get("opsPerSec")).doubleValue();
+            if (aRate < bRate * (1 - tolerance)) {
+                regressions.add(String.format("%s throughput %.0f -> %.0f ops/s", op, bRate, aRate));
+            }
+            double bP99 = ((Number) b.get("p99Us")).doubleValue();
+            double aP99 = ((Number) a.get("p99Us")).doubleValue();
+            if (aP99 > bP99 * (1 + tolerance)) {
+                regressions.add(String.format("%s p99 %.1f -> %.1f us", op, bP99, aP99));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Parses a mix such as "lookup:40,insert:10" into cumulative weights.
+     *
+     * @param mix operation weights
+     * @return cumulative share of every operation
+     * @throws IllegalArgumentException if an operation is unknown or no
+     *                                  weight is positive
+     */
+    private static double[] parseMix(String mix) {
+        double[] weights = new double[OPS.length];
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split(":");
+            int op = Arrays.asList(OPS).indexOf(kv[0]);
+            if (op < 0 || kv.length != 2) {
+                throw new IllegalArgumentException("unknown operation " + part);
+            }
+            weights[op] = Double.parseDouble(kv[1]);
+        }
+        double total = 0;
+        for (double w : weights) {
+            total += w;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("empty mix " + mix);
+        }
+        double[] cdf = new double[OPS.length];
+        double sum = 0;
+        for (int i = 0; i < OPS.length; i++) {
+            sum += weights[i];
+            cdf[i] = sum / total;
+        }
+        return cdf;
+    }
+
+    /**
+     * Returns the cumulative distribution of Zipf(n, exponent).
+     *
+     * @param n        number of ranks
+     * @param exponent Zipf exponent
+     * @return cumulative probabilities of the ranks
+     */
+    private static double[] zipfCdf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    /**
+     * Draws an index from a cumulative distribution.
+     *
+     * @param cdf    cumulative probabilities
+     * @param random random source
+     * @return index
+     */
+    private static int pick(double[] cdf, Random random) {
+        int i = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(cdf.length - 1, (i >= 0) ? i : -i - 1);
+    }
+
+    /**
+     * Sums the collection counts of all collectors.
+     *
+     * @param collectors collector beans
+     * @return collections since the JVM started
+     */
+    private static long gcCount(List<GarbageCollectorMXBean> collectors) {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : collectors) {
+            n += Math.max(0, gc.getCollectionCount());
+        }
+        return n;
+    }
+
+    /**
+     * Sums the collection times of all collectors.
+     *
+     * @param collectors collector beans
+     * @return milliseconds spent collecting since the JVM started
+     */
+    private static long gcTime(List<GarbageCollectorMXBean> collectors) {
+        long ms = 0;
+        for (GarbageCollectorMXBean gc : collectors) {
+            ms += Math.max(0, gc.getCollectionTime());
+        }
+        return ms;
+    }
+
+    /**
+     * Formats a number for the report.
+     *
+     * @param value number
+     * @return number with at most three decimals
+     */
+    private static String fmt(double value) {
+        String s = String.format(Locale.ROOT, "%.3f", value);
+        return s.contains(".") ? s.replaceAll("0+$", "").replaceAll("\\.$", "") : s;
+    }
+
+    /**
+     * Quotes a string for the report.
+     *
+     * @param s string
+     * @return JSON string literal
+     */
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Minimal JSON reader for reports: objects become LinkedHashMaps,
+     * arrays ArrayLists and numbers Doubles.
+     */
+    static final class Json {
+        private final String text;
+        private int pos;
+
+        /**
+         * Initializes a reader.
+         *
+         * @param text JSON text
+         */
+        Json(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Reads the next value.
+         *
+         * @return parsed value
+         * @throws IllegalArgumentException if the text is not valid JSON
+         */
+        Object value() {
+            skipSpace();
+            if (pos >= text.length()) {
+                throw new IllegalArgumentException("unexpected end of JSON");
+            }
+            char c = text.charAt(pos);
+            if (c == '{') {
+                Map<String, Object> object = new LinkedHashMap<String, Object>();
+                pos++;
+                while (!consume('}')) {
+                    consume(',');
+                    skipSpace();
+                    String key = string();
+                    expect(':');
+                    object.put(key, value());
+                }
+                return object;
+            }
+            if (c == '[') {
+                List<Object> array = new ArrayList<Object>();
+                pos++;
+                while (!consume(']')) {
+                    consume(',');
+                    array.add(value());
+                }
+                return array;
+            }
+            if (c == '"') {
+                return string();
+            }
+            int start = pos;
+            while (pos < text.length() && "{}[],: \t\r\n".indexOf(text.charAt(pos)) < 0) {
+                pos++;
+            }
+            String word = text.substring(start, pos);
+            switch (word) {
+                case "true":
+                    return Boolean.TRUE;
+                case "false":
+                    return Boolean.FALSE;
+                case "null":
+                    return null;
+                default:
+                    try {
+                        return Double.parseDouble(word);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("bad JSON value " + word);
+                    }
+            }
+        }
+
+        /**
+         * Reads a string literal.
+         *
+         * @return the string
+         */
+        private String string() {
+            expect('"');
+            StringBuilder s = new StringBuilder();
+            while (pos < text.length() && text.charAt(pos) != '"') {
+                char c = text.charAt(pos++);
+                if (c == '\\' && pos < text.length()) {
+                    char e = text.charAt(pos++);
+                    if (e == 'u' && pos + 4 <= text.length()) {
+                        s.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                    } else {
+                        s.append(e == 'n' ? '\n' : e == 't' ? '\t' : e);
+                    }
+                } else {
+                    s.append(c);
+                }
+            }
+            expect('"');
+            return s.toString();
+        }
+
+        /**
+         * Skips whitespace and consumes a character if it comes next.
+         *
+         * @param c character
+         * @return true if it was consumed
+         */
+        private boolean consume(char c) {
+            skipSpace();
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Consumes a character that must come next.
+         *
+         * @param c character
+         * @throws IllegalArgumentException if something else comes next
+         */
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw new IllegalArgumentException("expected " + c + " at " + pos);
+            }
+        }
+
+        /**
+         * Skips whitespace.
+         */
+        private void skipSpace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
@@ -98,4 +98,698 @@ public class FADAFTest {
     @org.junit.Test
     public void main() {
     }
-}
\ No newline at end of file
+
+    @org.junit.Test
+    public void getKeysInRange() {
+        FADAF<Integer, Integer> fadaf = new FADAF<>(10);
+        fadaf.insert(5, 1);
+        fadaf.insert(2, 1);
+        fadaf.insert(8, 1);
+        fadaf.insert(5, 2);
+        fadaf.insert(7, 1);
+
+        LinkedList<Integer> range = fadaf.getKeysInRange(3, 8);
+        assertEquals(3, range.size());
+        assertEquals(5, (int) range.getFirst());
+        assertEquals(7, (int) range.getLast());
+        assertEquals(0, fadaf.getKeysInRange(9, 20).size());
+    }
+
+    @org.junit.Test
+    public void snapshot() {
+        FADAF<Integer, Integer> fadaf = new FADAF<>(10);
+        fadaf.insert(5, 1);
+        fadaf.insert(3, 1);
+        fadaf.enableSnapshots();
+        fadaf.insert(5, 2);
+
+        DAFSnapshot<Integer, Integer> old = fadaf.snapshot();
+        fadaf.insert(8, 1);
+        fadaf.removeAll(5);
+
+        assertEquals(3, old.size());
+        assertEquals(2, old.nUniqueKeys());
+        assertTrue(old.lookup(5, 2));
+        assertFalse(old.lookupAny(8));
+        assertEquals(3, (int) old.getMinKey());
+        assertEquals(5, (int) old.getMaxKey());
+        assertEquals(3, old.getAllKeys().size());
+
+        DAFSnapshot<Integer, Integer> now = fadaf.snapshot();
+        assertEquals(2, now.size());
+        assertFalse(now.lookupAny(5));
+        assertEquals(fadaf.getAllKeys(), now.getAllKeys());
+    }
+
+    @org.junit.Test
+    public void snapshotSequentialKeys() {
+        FADAF<Integer, Integer> fadaf = new FADAF<>(10);
+        Integer data = 1;
+        Integer[] keys = new Integer[30000]; // keys are matched by reference
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+        }
+        for (int i = 0; i < 20000; i++) {
+            fadaf.insert(keys[i], data);
+        }
+        fadaf.compact();
+        // keys in order must not turn the snapshot tree into a chain
+        fadaf.enableSnapshots();
+        for (int i = 20000; i < 30000; i++) {
+            fadaf.insert(keys[i], data);
+        }
+        for (int i = 0; i < 10000; i++) {
+            fadaf.removeAll(keys[i]);
+        }
+        DAFSnapshot<Integer, Integer> snapshot = fadaf.snapshot();
+        assertEquals(20000, snapshot.size());
+        assertEquals(10000, (int) snapshot.getMinKey());
+        assertEquals(29999, (int) snapshot.getMaxKey());
+        assertEquals(fadaf.getAllKeys(), snapshot.getAllKeys());
+    }
+
+    @org.junit.Test
+    public void snapshotDistinctEqualData() {
+        FADAF<Integer, String> fadaf = new FADAF<>(10);
+        fadaf.enableSnapshots();
+        String x = new String("v");
+        String y = new String("v");
+        fadaf.insert(1, x);
+        fadaf.insert(1, y);
+        // data is matched by reference, like the tree
+        assertEquals(2, fadaf.size());
+        assertEquals(2, fadaf.snapshot().size());
+        fadaf.remove(1, x);
+        DAFSnapshot<Integer, String> snapshot = fadaf.snapshot();
+        assertEquals(fadaf.size(), snapshot.size());
+        assertTrue(snapshot.lookupAny(1));
+        assertTrue(snapshot.lookup(1, y));
+        assertFalse(snapshot.lookup(1, x));
+
+        // removing the second of two equal data removes that one
+        String z = new String("v");
+        fadaf.insert(1, z);
+        assertTrue(fadaf.remove(1, z));
+        snapshot = fadaf.snapshot();
+        assertFalse(fadaf.lookup(1, z));
+        assertTrue(fadaf.lookup(1, y));
+        assertFalse(snapshot.lookup(1, z));
+        assertTrue(snapshot.lookup(1, y));
+        assertEquals(fadaf.size(), snapshot.size());
+    }
+
+    @org.junit.Test
+    public void equalDataOperations() {
+        FADAF<Integer, String> fadaf = new FADAF<>(10);
+        String x = new String("d");
+        String copy = new String("d");
+        assertTrue(fadaf.insert(1, x));
+        assertFalse(fadaf.lookup(1, copy));
+        assertSame(x, fadaf.lookupEqual(1, copy));
+        assertNull(fadaf.lookupEqual(1, "e"));
+        assertFalse(fadaf.insertEqual(1, copy));
+        assertTrue(fadaf.insertEqual(1, "e"));
+        assertEquals(2, fadaf.size());
+        assertTrue(fadaf.removeEqual(1, copy));
+        assertFalse(fadaf.lookup(1, x));
+        assertFalse(fadaf.removeEqual(1, copy));
+        assertEquals(1, fadaf.size());
+    }
+
+    @org.junit.Test
+    public void removeDistinctEqualData() {
+        FADAF<Integer, String> fadaf = new FADAF<>(10);
+        String x = new String("v");
+        String y = new String("v");
+        String z = new String("v");
+        fadaf.insert(1, x);
+        fadaf.insert(1, y);
+        fadaf.insert(1, z);
+        assertTrue(fadaf.remove(1, y));
+        assertTrue(fadaf.lookup(1, x));
+        assertFalse(fadaf.lookup(1, y));
+        assertTrue(fadaf.lookup(1, z));
+        assertFalse(fadaf.remove(1, y));
+        assertEquals(2, fadaf.size());
+    }
+
+    @org.junit.Test
+    public void bloomFilter() {
+        FADAF<Integer, Integer> fadaf = new FADAF<>(10);
+        fadaf.insert(1, 1);
+        fadaf.insert(1, 2);
+        fadaf.enableBloomFilter(1000, 0.01);
+        for (int i = 2; i < 100; i++) {
+            fadaf.insert(i, i);
+        }
+
+        assertTrue(fadaf.lookup(1, 2));
+        assertTrue(fadaf.lookupAny(50));
+        for (int i = 100; i < 1100; i++) {
+            assertFalse(fadaf.lookupAny(i));
+            assertFalse(fadaf.lookup(1, i));
+        }
+        assertTrue(fadaf.getKeyFilter().observedFalsePositiveRate() < 0.05);
+        assertTrue(fadaf.getPairFilter().memoryBytes() > 0);
+
+        // removing one pair keeps the key, removing the last drops it
+        assertTrue(fadaf.remove(1, 1));
+        assertTrue(fadaf.lookupAny(1));
+        assertFalse(fadaf.lookup(1, 1));
+        assertTrue(fadaf.removeAll(1));
+        assertFalse(fadaf.lookupAny(1));
+        assertFalse(fadaf.removeAll(1));
+        assertEquals(98, fadaf.size());
+    }
+
+    @org.junit.Test
+    public void bloomFilterCountsLookupsOnly() {
+        FADAF<Integer, Integer> fadaf = new FADAF<>(10);
+        fadaf.enableBloomFilter(1000, 0.01);
+        // the checks of insert and remove are not lookups
+        for (int i = 0; i < 100; i++) {
+            fadaf.insert(i, i);
+        }
+        fadaf.remove(1, 2);
+        fadaf.removeAll(200);
+        assertEquals(0, fadaf.getPairFilter().negatives());
+        assertEquals(0, fadaf.getKeyFilter().negatives());
+        assertFalse(fadaf.lookup(1, 2));
+        assertFalse(fadaf.lookupAny(200));
+        assertEquals(1, fadaf.getPairFilter().negatives());
+        assertEquals(1, fadaf.getKeyFilter().negatives());
+    }
+
+    @org.junit.Test
+    public void reverseIndex() {
+        FADAF<String, Integer> fadaf = new FADAF<>(10);
+        fadaf.insert("a", 1);
+        fadaf.insert("b", 1);
+        fadaf.insert("b", 2);
+        assertEquals(2, fadaf.getAllKeys(1).size());
+
+        fadaf.enableReverseIndex();
+        fadaf.insert("c", 1);
+        fadaf.insert("c", 3);
+        assertEquals(3, fadaf.getAllKeys(1).size());
+        assertTrue(fadaf.getAllKeys(1).contains("c"));
+        assertEquals(0, fadaf.getAllKeys(7).size());
+
+        fadaf.remove("a", 1);
+        assertFalse(fadaf.getAllKeys(1).contains("a"));
+        fadaf.removeAll("c");
+        assertEquals(1, fadaf.getAllKeys(1).size());
+        assertEquals(0, fadaf.getAllKeys(3).size());
+
+        fadaf.insert("d", 1);
+        assertTrue(fadaf.removeAllByData(1));
+        assertFalse(fadaf.removeAllByData(1));
+        assertEquals(1, fadaf.size());
+        assertTrue(fadaf.lookup("b", 2));
+    }
+
+    @org.junit.Test
+    public void reverseIndexEqualData() {
+        String x = new String("v");
+        String y = new String("v");
+        FADAF<Integer, String> scan = new FADAF<>(10);
+        FADAF<Integer, String> indexed = new FADAF<>(10);
+        indexed.enableReverseIndex();
+        for (FADAF<Integer, String> fadaf : java.util.Arrays.asList(scan, indexed)) {
+            fadaf.insert(1, x);
+            fadaf.insert(1, y);
+            assertEquals(java.util.Arrays.asList(1), fadaf.getAllKeys("v"));
+            // the key keeps a pair with equal data
+            assertTrue(fadaf.remove(1, x));
+            assertEquals(java.util.Arrays.asList(1), fadaf.getAllKeys("v"));
+            assertTrue(fadaf.remove(1, y));
+            assertEquals(0, fadaf.getAllKeys("v").size());
+        }
+    }
+
+    @org.junit.Test
+    public void concurrentBackend() throws Exception {
+        FADAFBackend<Integer, Integer> fadaf = new ConcurrentFADAF<>(10);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int base = t * 1000;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    fadaf.insert((base + i) % 500, base + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(4000, fadaf.size());
+        assertEquals(500, fadaf.nUniqueKeys());
+        assertEquals(8, fadaf.getAllData(7).size());
+        assertTrue(fadaf.lookup(7, 1507));
+        assertEquals(0, (int) fadaf.getMinKey());
+        assertEquals(499, (int) fadaf.getMaxKey());
+        assertEquals(80, fadaf.getKeysInRange(10, 20).size());
+
+        assertTrue(fadaf.remove(7, 1507));
+        assertTrue(fadaf.removeAll(8));
+        assertFalse(fadaf.lookupAny(8));
+        assertEquals(3991, fadaf.getAllKeys().size());
+    }
+
+    @org.junit.Test
+    public void expiry() {
+        long[] now = {1000};
+        FADAF<String, Integer> fadaf = new FADAF<>(10);
+        fadaf.enableExpiry(10, () -> now[0]);
+        fadaf.insert("s1", 1, 100);
+        fadaf.insert("s1", 2, 5000);
+        fadaf.insert("s2", 1, 300000);
+        fadaf.insert("keep", 1);
+        fadaf.insert("k", 1);
+        fadaf.insert("k", 2);
+        assertTrue(fadaf.expireKey("k", 200));
+        assertEquals(6, fadaf.size());
+
+        now[0] += 150;
+        assertFalse(fadaf.lookup("s1", 1));
+        assertTrue(fadaf.lookup("s1", 2));
+
+        now[0] += 100;
+        assertFalse(fadaf.lookupAny("k"));
+        assertEquals(3, fadaf.size());
+
+        // removing a pair cancels its timer, so a later insert is kept
+        fadaf.remove("s1", 2);
+        fadaf.insert("s1", 2);
+        now[0] += 400000;
+        assertEquals(1, fadaf.expire());
+        assertEquals(2, fadaf.size());
+        assertTrue(fadaf.lookup("s1", 2));
+        assertTrue(fadaf.lookupAny("keep"));
+        assertFalse(fadaf.lookupAny("s2"));
+    }
+
+    @org.junit.Test
+    public void expiredPairsInvisible() {
+        long[] now = {1000};
+        FADAF<String, Integer> fadaf = new FADAF<>(10);
+        fadaf.enableExpiry(10, () -> now[0]);
+        // more expired pairs than one batch removes
+        String[] keys = new String[3 * FADAF.EXPIRE_BATCH];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "k" + (100 + i);
+            fadaf.insert(keys[i], 1, 100);
+        }
+        fadaf.insert(keys[0], 2);
+        fadaf.insert("m", 1);
+        now[0] += 150;
+        assertEquals(java.util.Arrays.asList(2), fadaf.getAllData(keys[0]));
+        assertFalse(fadaf.lookupAny(keys[1]));
+        assertFalse(fadaf.lookup(keys[2], 1));
+        assertEquals(0, fadaf.getAllData(keys[3]).size());
+        assertEquals(java.util.Arrays.asList("k100", "m"), fadaf.getAllKeys());
+        assertEquals(java.util.Arrays.asList("k100"), fadaf.getAllKeys(2));
+        assertEquals("k100", fadaf.getMinKey());
+        assertEquals("m", fadaf.getMaxKey());
+        assertEquals(1, fadaf.getKeysInRange("k", "l").size());
+        assertEquals(1, fadaf.countRange("k", "l"));
+        assertEquals(2, fadaf.size());
+        assertEquals(2, fadaf.nUniqueKeys());
+        // an expired pair inserted again is kept
+        assertTrue(fadaf.insert(keys[4], 1));
+        assertFalse(fadaf.remove(keys[5], 1));
+        assertTrue(fadaf.lookup(keys[4], 1));
+    }
+
+    @org.junit.Test
+    public void expiryTimersByIdentity() {
+        long[] now = {0};
+        FADAF<Integer, String> fadaf = new FADAF<>(10);
+        fadaf.enableExpiry(1, () -> now[0]);
+        String x = new String("d");
+        String y = new String("d");
+        String z = new String("d");
+        fadaf.insert(1, x, 10);
+        fadaf.insert(1, y, 100);
+        fadaf.insert(1, z, 10);
+        // removing z keeps the timer of the equal y
+        assertTrue(fadaf.remove(1, z));
+        now[0] = 20;
+        assertFalse(fadaf.lookup(1, x));
+        assertTrue(fadaf.lookup(1, y));
+        assertEquals(1, fadaf.size());
+        now[0] = 200;
+        assertFalse(fadaf.lookupAny(1));
+        assertEquals(0, fadaf.size());
+    }
+
+    @org.junit.Test
+    public void expiryAfterLongIdle() {
+        long[] now = {0};
+        FADAF<Integer, Integer> fadaf = new FADAF<>(10);
+        fadaf.enableExpiry(1, () -> now[0]);
+        fadaf.insert(1, 1, 3000000000L);
+        fadaf.insert(2, 1, 10);
+        now[0] += 100;
+        assertEquals(1, fadaf.size());
+        now[0] = 2999999999L;
+        assertTrue(fadaf.lookupAny(1));
+        now[0]++;
+        assertFalse(fadaf.lookupAny(1));
+    }
+
+    @org.junit.Test
+    public void orderStatistics() {
+        FADAF<Integer, Integer> fadaf = new FADAF<>(10);
+        java.util.Random random = new java.util.Random(7);
+        for (int round = 0; round < 2000; round++) {
+            // small keys and data so DAFTree's reference matching holds
+            int key = random.nextInt(60);
+            int data = random.nextInt(5);
+            int op = random.nextInt(10);
+            if (op < 6) {
+                fadaf.insert(key, data);
+            } else if (op < 9) {
+                fadaf.remove(key, data);
+            } else {
+                fadaf.removeAll(key);
+            }
+
+            LinkedList<Integer> keys = fadaf.getAllKeys();
+            int probe = random.nextInt(62) - 1;
+            int smaller = 0;
+            for (int k : keys) {
+                smaller += (k < probe) ? 1 : 0;
+            }
+            assertEquals(smaller, fadaf.rank(probe));
+            if (!keys.isEmpty()) {
+                int k = random.nextInt(keys.size());
+                assertEquals(keys.get(k), fadaf.select(k));
+            }
+            assertEquals(fadaf.getKeysInRange(10, 40).size(), fadaf.countRange(10, 40));
+        }
+    }
+
+    @org.junit.Test
+    public void setAlgebra() {
+        FADAF<Integer, Integer> a = new FADAF<>(10);
+        FADAF<Integer, Integer> b = new FADAF<>(10);
+        java.util.Random random = new java.util.Random(11);
+        for (int i = 0; i < 300; i++) {
+            a.insert(random.nextInt(40), random.nextInt(12));
+            b.insert(random.nextInt(40), random.nextInt(12));
+        }
+        FADAF<Integer, Integer> union = FADAF.union(a, b);
+        FADAF<Integer, Integer> intersect = FADAF.intersect(a, b);
+        FADAF<Integer, Integer> difference = FADAF.difference(a, b);
+        int nUnion = 0, nIntersect = 0, nDifference = 0;
+        for (int key = 0; key < 40; key++) {
+            for (int data = 0; data < 12; data++) {
+                boolean inA = a.lookup(key, data), inB = b.lookup(key, data);
+                assertEquals(inA || inB, union.lookup(key, data));
+                assertEquals(inA && inB, intersect.lookup(key, data));
+                assertEquals(inA && !inB, difference.lookup(key, data));
+                nUnion += (inA || inB) ? 1 : 0;
+                nIntersect += (inA && inB) ? 1 : 0;
+                nDifference += (inA && !inB) ? 1 : 0;
+            }
+            assertEquals(union.lookupAny(key), a.lookupAny(key) || b.lookupAny(key));
+        }
+        assertEquals(nUnion, union.size());
+        assertEquals(nIntersect, intersect.size());
+        assertEquals(nDifference, difference.size());
+        // the merged tree keeps its subtree sizes
+        assertEquals(union.getAllKeys().get(nUnion / 2), union.select(nUnion / 2));
+
+        // mergeInto keeps the target's indexes in step
+        a.enableReverseIndex();
+        a.enableBloomFilter(1000, 0.01);
+        int before = a.size();
+        assertTrue(b.mergeInto(a));
+        assertFalse(b.mergeInto(a));
+        assertEquals(nUnion, a.size());
+        assertEquals(union.getAllKeys(), a.getAllKeys());
+        assertEquals(new java.util.HashSet<>(union.getAllKeys(7)), new java.util.HashSet<>(a.getAllKeys(7)));
+        assertTrue(a.size() > before);
+        for (int key = 0; key < 40; key++) {
+            assertEquals(union.getAllData(key), a.getAllData(key));
+        }
+
+        ConcurrentFADAF<Integer, Integer> c = new ConcurrentFADAF<>(10);
+        assertTrue(a.mergeInto(c));
+        assertFalse(a.mergeInto(c));
+        assertEquals(nUnion, c.size());
+        assertEquals(a.getAllKeys(), c.getAllKeys());
+        for (int key = 0; key < 40; key++) {
+            assertEquals(a.getAllData(key), c.getAllData(key));
+        }
+        FADAF<Integer, Integer> back = new FADAF<>(10);
+        assertTrue(c.mergeInto(back));
+        assertEquals(0, FADAF.difference(back, a).size());
+        assertEquals(nUnion, back.size());
+    }
+
+    @org.junit.Test
+    public void changeFeed() throws InterruptedException {
+        FADAF<String, Integer> fadaf = new FADAF<>(10);
+        FADAFChangeFeed<String, Integer> feed = fadaf.enableChangeFeed(64);
+        fadaf.insert("lost", 1); // published before anyone listens
+        final java.util.List<String> seen = java.util.Collections.synchronizedList(new java.util.ArrayList<String>());
+        feed.subscribe(changes -> {
+            for (FADAFChange<String, Integer> c : changes) {
+                seen.add(c.toString());
+            }
+        });
+        feed.subscribe(changes -> {
+            throw new IllegalStateException();
+        });
+        fadaf.insert("a", 1);
+        fadaf.insert("a", 1); // no change, nothing published
+        fadaf.insert("a", 2);
+        fadaf.remove("a", 1);
+        fadaf.removeAll("a");
+        fadaf.removeAll("a");
+        fadaf.clear();
+        feed.close();
+        assertEquals(java.util.Arrays.asList("INSERT(a, 1)", "INSERT(a, 2)", "REMOVE(a, 1)",
+                "REMOVE_ALL(a, null)", "CLEAR(null, null)"), seen);
+        assertEquals(5, feed.getPublished());
+        assertEquals(5, feed.getDelivered());
+        assertEquals(0, feed.getBacklog());
+        assertEquals(feed.getBatches(), feed.getFailures());
+
+        // a stalled listener makes the feed drop changes instead of blocking
+        FADAF<Integer, Integer> small = new FADAF<>(10);
+        FADAFChangeFeed<Integer, Integer> stalled = small.enableChangeFeed(4);
+        final java.util.concurrent.CountDownLatch release = new java.util.concurrent.CountDownLatch(1);
+        final long[] lost = new long[1];
+        stalled.subscribe(new FADAFChangeListener<Integer, Integer>() {
+            public void onChanges(java.util.List<FADAFChange<Integer, Integer>> changes) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            public void onOverflow(long n) {
+                lost[0] += n;
+            }
+        });
+        for (int i = 0; i < 100; i++) {
+            small.insert(i, 0);
+        }
+        assertTrue(stalled.getDropped() > 0);
+        release.countDown();
+        stalled.close();
+        assertEquals(100, stalled.getPublished() + stalled.getDropped());
+        assertEquals(stalled.getPublished(), stalled.getDelivered());
+        assertEquals(stalled.getDropped(), lost[0]);
+    }
+
+    @org.junit.Test
+    public void compact() {
+        // strings are reused because DAFTree matches keys by reference
+        String[] keys = new String[1000];
+        java.util.List<String> order = new java.util.ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = String.format("k%04d", i);
+            order.add(keys[i]);
+        }
+        java.util.Collections.shuffle(order, new java.util.Random(3));
+        FADAF<String, Integer> fadaf = new FADAF<>(10);
+        for (String key : order) {
+            fadaf.insert(key, 1);
+            fadaf.insert(key, 2);
+        }
+        int peak = fadaf.hashTable.capacity();
+        for (int i = 0; i < 980; i++) {
+            fadaf.removeAll(keys[i]);
+        }
+        // the table and the tree shrank on their own
+        assertTrue(fadaf.hashTable.capacity() < peak / 8);
+        assertEquals(40, fadaf.size());
+        assertEquals(20, fadaf.nUniqueKeys());
+        for (int i = 980; i < 1000; i++) {
+            assertTrue(fadaf.lookup(keys[i], 2));
+            assertEquals(2 * (i - 980), fadaf.rank(keys[i]));
+            assertEquals(keys[i], fadaf.select(2 * (i - 980) + 1));
+        }
+        fadaf.compact();
+        assertTrue(fadaf.hashTable.capacity() <= 40);
+        assertEquals(java.util.Arrays.asList(1, 2), fadaf.getAllData(keys[990]));
+        fadaf.remove(keys[990], 1);
+        assertEquals(39, fadaf.size());
+        assertTrue(fadaf.lookupAny(keys[990]));
+    }
+
+    @org.junit.Test
+    public void adaptive() {
+        String[] keys = new String[200];
+        java.util.List<String> order = new java.util.ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = String.format("k%03d", i);
+            order.add(keys[i]);
+        }
+        java.util.Collections.shuffle(order, new java.util.Random(5));
+        FADAF<String, Integer> fadaf = new FADAF<>(10);
+        for (String key : order) {
+            for (int d = 0; d < 4; d++) {
+                fadaf.insert(key, d);
+            }
+        }
+        fadaf.enableAdaptive();
+        assertTrue(fadaf.isAdaptive());
+        // skewed accesses reshape the tree but not what it holds
+        for (int i = 0; i < 1000; i++) {
+            String key = keys[(i * i) % 17];
+            assertTrue(fadaf.lookup(key, 3));
+            assertTrue(fadaf.lookupAny(keys[i % keys.length]));
+        }
+        assertEquals(java.util.Arrays.asList(0, 1, 2, 3), fadaf.getAllData(keys[16]));
+        assertFalse(fadaf.lookup(keys[16], 4));
+        java.util.List<String> sorted = new java.util.ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            sorted.addAll(java.util.Collections.nCopies(4, keys[i]));
+        }
+        assertEquals(sorted, fadaf.getKeysInRange(keys[0], keys[100]));
+        for (int i = 0; i < keys.length; i += 13) {
+            assertEquals(4 * i, fadaf.rank(keys[i]));
+            assertEquals(keys[i], fadaf.select(4 * i + 1));
+        }
+        // removing the remembered data must not leave a stale hint behind
+        assertTrue(fadaf.lookup(keys[16], 3));
+        assertTrue(fadaf.remove(keys[16], 3));
+        assertFalse(fadaf.lookup(keys[16], 3));
+        assertTrue(fadaf.lookup(keys[16], 2));
+        assertTrue(fadaf.remove(keys[16], 0));
+        assertEquals(java.util.Arrays.asList(1, 2), fadaf.getAllData(keys[16]));
+        assertEquals(798, fadaf.size());
+        assertEquals(198, fadaf.countRange(keys[0], keys[50]));
+    }
+
+    @org.junit.Test
+    public void batchLookup() {
+        String[] keys = new String[500];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "k" + i;
+        }
+        Integer[] data = {0, 1, 2, 3};
+        java.util.Random random = new java.util.Random(11);
+        FADAF<String, Integer> plain = new FADAF<>(10);
+        FADAF<String, Integer> filtered = new FADAF<>(10);
+        filtered.enableBloomFilter(1000, 0.05);
+        for (int i = 0; i < keys.length; i += 2) {
+            for (int d = 0; d <= i % 3; d++) {
+                plain.insert(keys[i], data[d]);
+                filtered.insert(keys[i], data[d]);
+            }
+        }
+        // duplicates, misses and a key equal by content but not by reference
+        String[] probeKeys = new String[300];
+        Integer[] probeData = new Integer[300];
+        for (int i = 0; i < probeKeys.length; i++) {
+            probeKeys[i] = keys[random.nextInt(keys.length)];
+            probeData[i] = data[random.nextInt(data.length)];
+        }
+        probeKeys[7] = new String(keys[0]);
+        probeData[7] = data[0];
+        for (FADAF<String, Integer> fadaf : java.util.Arrays.asList(plain, filtered)) {
+            java.util.BitSet any = fadaf.lookupAnyMany(probeKeys);
+            java.util.BitSet pairs = fadaf.lookupMany(probeKeys, probeData);
+            for (int i = 0; i < probeKeys.length; i++) {
+                assertEquals(fadaf.lookupAny(probeKeys[i]), any.get(i));
+                assertEquals(fadaf.lookup(probeKeys[i], probeData[i]), pairs.get(i));
+            }
+            assertTrue(any.get(7));
+            assertFalse(pairs.get(7));
+            assertTrue(pairs.cardinality() > 0);
+            assertTrue(any.cardinality() < probeKeys.length);
+        }
+        assertEquals(0, plain.lookupAnyMany(new String[0]).cardinality());
+        try {
+            plain.lookupMany(probeKeys, new Integer[1]);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            plain.lookupAnyMany(new String[]{"k0", null});
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+    @org.junit.Test
+    public void keyInterningMergesPairs() {
+        FADAF<String, Integer> fadaf = new FADAF<>(10);
+        fadaf.enableReverseIndex();
+        Integer one = 1;
+        Integer two = 2;
+        String key = "key";
+        fadaf.insert(key, one);
+        fadaf.insert(new String(key), one);
+        fadaf.insert(new String(key), two);
+        assertEquals(3, fadaf.size());
+        fadaf.enableKeyInterning();
+        assertEquals(java.util.Arrays.asList(one, two), fadaf.getAllData(key));
+        assertEquals(2, fadaf.size());
+        assertEquals(1, fadaf.nUniqueKeys());
+        assertTrue(fadaf.remove(new String(key), one));
+        assertEquals(0, fadaf.getAllKeys(one).size());
+        assertTrue(fadaf.remove(key, two));
+        assertFalse(fadaf.lookupAny(key));
+        assertEquals(0, fadaf.nUniqueKeys());
+    }
+
+    @org.junit.Test
+    public void keyInterning() {
+        FADAF<String, Integer> fadaf = new FADAF<>(10);
+        Integer one = 1;
+        Integer two = 2;
+        String key = "tenant/users/42";
+        fadaf.insert(key, one);
+        // a copy equal by content does not match before interning
+        assertFalse(fadaf.lookup(new String(key), one));
+        fadaf.enableKeyInterning();
+        assertTrue(fadaf.lookup(new String(key), one));
+        assertFalse(fadaf.insert(new String(key), one));
+        assertTrue(fadaf.insert(new String(key), two));
+        assertEquals(2, fadaf.size());
+        assertEquals(1, fadaf.nUniqueKeys());
+        // every pair shares the instance stored first
+        for (String k : fadaf.getAllKeys()) {
+            assertSame(key, k);
+        }
+        assertEquals(java.util.Arrays.asList(one, two), fadaf.getAllData(new String(key)));
+        java.util.BitSet found = fadaf.lookupMany(new String[]{new String(key), "x"}, new Integer[]{two, two});
+        assertTrue(found.get(0));
+        assertFalse(found.get(1));
+        assertTrue(fadaf.remove(new String(key), one));
+        assertTrue(fadaf.removeAll(new String(key)));
+        assertEquals(0, fadaf.size());
+        assertFalse(fadaf.lookupAny(key));
+    }
+}
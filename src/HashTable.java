@@ -19,10 +19,13 @@ public class HashTable<T> {
     public static final int RESIZE_FACTOR = 2; // resize factor
     public static final int MIN_CAPACITY = 10; // minimum initial capacity
     public static final double MAX_LOAD_FACTOR = (double) 2 / 3; // maximum load factor
+    public static final double MIN_LOAD_FACTOR = (double) 1 / 6; // load factor that shrinks the table
+    public static final int PROBE_GROUP = 16; // probes of lookupMany in flight at once
 
     // instance variables
     private LinkedList<T>[] table; // data storage
     private int nElems; // number of elements stored
+    private final int minCapacity; // initial capacity, the table never shrinks below it by itself
 
     /**
      * Constructor for hash table.
@@ -40,6 +43,7 @@ public class HashTable<T> {
             table[i] = new LinkedList();
         }
         nElems = 0;
+        minCapacity = capacity;
     }
 
     /**
@@ -60,7 +64,7 @@ public class HashTable<T> {
         }
         //check the loading factor, rehash when conditions met
         if(nElems+1 > table.length*MAX_LOAD_FACTOR) {
-            this.rehash();
+            this.rehash(capacity()*RESIZE_FACTOR);
         }
 
         table[this.hashValue(value)].add(value);
@@ -84,6 +88,12 @@ public class HashTable<T> {
         }
         table[this.hashValue(value)].remove(value);
         nElems--;
+        //shrink when mostly empty, halving leaves the load well below the
+        //grow threshold so a table near the boundary does not flip back and forth
+        int smaller = capacity()/RESIZE_FACTOR;
+        if(nElems < table.length*MIN_LOAD_FACTOR && smaller >= minCapacity) {
+            this.rehash(smaller);
+        }
         return true;
     }
 
@@ -101,6 +111,79 @@ public class HashTable<T> {
         return table[this.hashValue(value)].contains(value);
     }
 
+    /**
+     * Returns the stored value that equals the given one, so callers can
+     * keep one instance per value.
+     *
+     * @param value value to look up
+     * @return the stored value, or null if the value was not found
+     * @throws NullPointerException if the value is null
+     */
+    public T get(T value) {
+        if(value == null) {
+            throw new NullPointerException();
+        }
+        for(T stored : table[this.hashValue(value)]) {
+            if(stored.equals(value)) {
+                return stored;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check many values at once. Only the positions set in probes are
+     * checked, and the positions of values that are not present are
+     * cleared. Probes run in groups: the hashes of a group are computed
+     * first, then its buckets are loaded, then the buckets are searched.
+     * The loads of one stage do not depend on each other, so their cache
+     * misses overlap instead of being paid one after another.
+     *
+     * @param values values to look up
+     * @param probes positions to check, left set only for values found
+     * @throws NullPointerException if values or a value to check is null
+     */
+    @SuppressWarnings("unchecked")
+    public void lookupMany(T[] values, BitSet probes) {
+        if(values == null || probes == null) {
+            throw new NullPointerException();
+        }
+        for(int i = probes.nextSetBit(0); i >= 0 && i < values.length; i = probes.nextSetBit(i+1)) {
+            if(values[i] == null) {
+                throw new NullPointerException();
+            }
+        }
+        probes.clear(values.length, Math.max(values.length, probes.length()));
+        int[] positions = new int[PROBE_GROUP];
+        int[] buckets = new int[PROBE_GROUP];
+        LinkedList<T>[] lists = (LinkedList<T>[]) new LinkedList<?>[PROBE_GROUP];
+        int next = probes.nextSetBit(0);
+        while(next >= 0) {
+            //gather a group and hash it
+            int n = 0;
+            while(n < PROBE_GROUP && next >= 0) {
+                positions[n] = next;
+                buckets[n++] = this.hashValue(values[next]);
+                next = probes.nextSetBit(next+1);
+            }
+            //load the buckets, empty ones answer right away
+            for(int j=0; j<n; j++) {
+                lists[j] = table[buckets[j]];
+                if(lists[j].isEmpty()) {
+                    probes.clear(positions[j]);
+                    lists[j] = null;
+                }
+            }
+            //search the buckets
+            for(int j=0; j<n; j++) {
+                if(lists[j] != null && !lists[j].contains(values[positions[j]])) {
+                    probes.clear(positions[j]);
+                }
+                lists[j] = null;
+            }
+        }
+    }
+
     /**
      * Get the total number of elements stored in the hash table.
      *
@@ -119,6 +202,22 @@ public class HashTable<T> {
        return table.length;
     }
 
+    /**
+     * Shrink the table to the smallest capacity that holds the current
+     * elements and one more insert without growing, ignoring the initial
+     * capacity.
+     *
+     * @return true if the capacity changed, false otherwise
+     */
+    public boolean trimToSize() {
+        int fit = Math.max(MIN_CAPACITY, (int) Math.ceil((nElems+1)/MAX_LOAD_FACTOR));
+        if(fit >= table.length) {
+            return false;
+        }
+        this.rehash(fit);
+        return true;
+    }
+
     /**
      * Hash function calculated by the hash code of value.
      *
@@ -126,14 +225,19 @@ public class HashTable<T> {
      * @return hash value (index)
      */
     private int hashValue(T value) {
-        return (value.hashCode()%table.length);
+        // floorMod keeps the index non-negative for negative hash codes
+        return Math.floorMod(value.hashCode(), table.length);
     }
 
     /**
-     * Double the capacity of the array and rehash all values.
+     * Resize the array to the given capacity and rehash all values.
+     *
+     * @param capacity new capacity
      */
     @SuppressWarnings("unchecked")
-    private void rehash() {
+    private void rehash(int capacity) {
+        Object event = FADAFEvents.begin(FADAFEvents.REHASH);
+        int oldCapacity = capacity();
         List<T> temp = new ArrayList<>();
         for(int i=0; i<table.length; i++){
             for (T val: table[i]) {
@@ -142,15 +246,17 @@ public class HashTable<T> {
         }
 
         //resize
-        table = new LinkedList[capacity()*RESIZE_FACTOR];
+        table = new LinkedList[capacity];
         for(int i=0; i<table.length; i++) {
             table[i] = new LinkedList<T>();
         }
 
-        //add every element
-        nElems = 0;
+        //add every element, they are known to be distinct
         for(int i=0;i<temp.size();i++){
-            this.insert(temp.get(i));
+            table[this.hashValue(temp.get(i))].add(temp.get(i));
+        }
+        if(event != null) {
+            FADAFEvents.commit(event, oldCapacity, capacity(), temp.size());
         }
     }
 }
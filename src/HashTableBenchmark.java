@@ -0,0 +1,95 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+
+/**
+ * Compares hit and miss probe times of the chained HashTable and the
+ * SwissHashTable. Each table is filled to a high load factor (just below
+ * 2/3 for HashTable, 0.85 for SwissHashTable) and then probed with present
+ * and with absent values in random order.
+ * Usage: HashTableBenchmark [elements] [rounds]
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class HashTableBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 1 << 20;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        // SwissHashTable capacities are powers of two, trim n to load it to 0.85
+        int swissCapacity = Integer.highestOneBit((int) (n / 0.85));
+        n = (int) (swissCapacity * 0.85);
+
+        Random random = new Random(42);
+        Integer[] present = new Integer[n];
+        Integer[] absent = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            present[i] = 2 * i;
+            absent[i] = 2 * i + 1;
+        }
+        shuffle(present, random);
+        shuffle(absent, random);
+
+        // capacities chosen so that n elements sit just below the maximum load
+        HashTable<Integer> chained = new HashTable<Integer>((int) (n / HashTable.MAX_LOAD_FACTOR) + 1);
+        SwissHashTable<Integer> swiss = new SwissHashTable<Integer>(swissCapacity);
+        for (Integer v : present) {
+            chained.insert(v);
+            swiss.insert(v);
+        }
+        System.out.printf("n=%d  HashTable load %.2f  SwissHashTable load %.2f%n", n,
+                (double) n / chained.capacity(), (double) n / swiss.capacity());
+
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            int hits = 0;
+            for (Integer v : present) {
+                hits += chained.lookup(v) ? 1 : 0;
+            }
+            long t1 = System.nanoTime();
+            for (Integer v : absent) {
+                hits += chained.lookup(v) ? 1 : 0;
+            }
+            long t2 = System.nanoTime();
+            for (Integer v : present) {
+                hits += swiss.lookup(v) ? 1 : 0;
+            }
+            long t3 = System.nanoTime();
+            for (Integer v : absent) {
+                hits += swiss.lookup(v) ? 1 : 0;
+            }
+            long t4 = System.nanoTime();
+            if (hits != 2 * n) {
+                throw new IllegalStateException("wrong lookup result");
+            }
+            System.out.printf("round %d  HashTable hit %5.1f ns miss %5.1f ns | SwissHashTable hit %5.1f ns miss %5.1f ns%n",
+                    r, (t1 - t0) / (double) n, (t2 - t1) / (double) n,
+                    (t3 - t2) / (double) n, (t4 - t3) / (double) n);
+        }
+    }
+
+    /**
+     * Shuffles an array in place.
+     *
+     * @param array  array to shuffle
+     * @param random source of randomness
+     */
+    private static void shuffle(Integer[] array, Random random) {
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Integer temp = array[i];
+            array[i] = array[j];
+            array[j] = temp;
+        }
+    }
+}
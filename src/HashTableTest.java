@@ -21,6 +21,39 @@ public class HashTableTest {
     public void delete() {
     }
 
+    @Test
+    public void shrink() {
+        HashTable<Integer> table = new HashTable<Integer>(10);
+        for (int i = 0; i < 1000; i++) {
+            table.insert(i);
+        }
+        int peak = table.capacity();
+        for (int i = 0; i < 990; i++) {
+            assertTrue(table.delete(i));
+        }
+        assertTrue(table.capacity() < peak / 8);
+        assertTrue(table.capacity() >= 10);
+        for (int i = 990; i < 1000; i++) {
+            assertTrue(table.lookup(i));
+        }
+        // deleting and inserting one element at a boundary does not resize
+        int capacity = table.capacity();
+        table.delete(999);
+        table.insert(999);
+        table.delete(999);
+        table.insert(999);
+        assertEquals(capacity, table.capacity());
+
+        HashTable<Integer> big = new HashTable<Integer>(1000);
+        big.insert(1);
+        big.delete(1);
+        assertEquals(1000, big.capacity()); // never below the initial capacity
+        big.insert(1);
+        assertTrue(big.trimToSize());
+        assertEquals(10, big.capacity());
+        assertTrue(big.lookup(1));
+    }
+
     @Test
     public void lookup() {
     }
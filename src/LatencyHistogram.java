@@ -0,0 +1,193 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Histogram of latencies in the style of HdrHistogram. Values below 256
+ * get a bucket each; above that every power of two is split into 128
+ * linear buckets, so a recorded value is off by less than 1% and the whole
+ * long range fits in a few thousand counters. Recording is one atomic
+ * increment, and drainInto moves the counts out without losing concurrent
+ * records, so a reporter can take interval snapshots while workers keep
+ * recording.
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class LatencyHistogram {
+
+    // constants
+    private static final int SUB_BITS = 7; // linear buckets per power of two, as a shift
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS - 1) * SUB_BUCKETS + 2 * SUB_BUCKETS;
+
+    // instance variables
+    private final AtomicLongArray counts; // count of every bucket
+    private final AtomicLong sum; // sum of the recorded values
+    private final AtomicLong max; // largest recorded value
+
+    /**
+     * Initializes an empty histogram.
+     */
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value value to record, negative values count as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(value));
+        sum.addAndGet(value);
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        sum.addAndGet(other.sum.get());
+        raiseMax(other.max.get());
+    }
+
+    /**
+     * Moves every count of this histogram into another one and leaves this
+     * one empty. Values recorded concurrently end up in one of the two.
+     *
+     * @param target histogram that receives the counts
+     */
+    public void drainInto(LatencyHistogram target) {
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) != 0) {
+                target.counts.addAndGet(i, counts.getAndSet(i, 0));
+            }
+        }
+        target.sum.addAndGet(sum.getAndSet(0));
+        target.raiseMax(max.getAndSet(0));
+    }
+
+    /**
+     * Removes every value.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return count
+     */
+    public long getCount() {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        return n;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return maximum, 0 if empty
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return mean, 0 if empty
+     */
+    public double getMean() {
+        long n = getCount();
+        return (n == 0) ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the value at a percentile: at least that share of the
+     * recorded values is not larger than it, up to the bucket precision.
+     *
+     * @param percentile percentile between 0 and 100
+     * @return value at the percentile, 0 if empty
+     * @throws IllegalArgumentException if percentile is not in [0, 100]
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException();
+        }
+        long n = getCount();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Raises the maximum to a value.
+     *
+     * @param value candidate maximum
+     */
+    private void raiseMax(long value) {
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param value non-negative value
+     * @return bucket index
+     */
+    private static int bucketOf(long value) {
+        int shift = Math.max(0, Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BITS - 1);
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the largest value of a bucket.
+     *
+     * @param bucket bucket index
+     * @return largest value that falls into the bucket
+     */
+    private static long highestIn(int bucket) {
+        int shift = (bucket < 2 * SUB_BUCKETS) ? 0 : (bucket >> SUB_BITS) - 1;
+        long sub = bucket - ((long) shift << SUB_BITS);
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,51 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(5);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            // spread over several orders of magnitude like latencies
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        for (double p : new double[]{1, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            long estimate = histogram.getValueAtPercentile(p);
+            assertTrue(estimate >= exact);
+            assertTrue(estimate <= exact + exact / 100 + 1);
+        }
+        assertEquals(0, new LatencyHistogram().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void drain() {
+        LatencyHistogram source = new LatencyHistogram();
+        LatencyHistogram target = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            source.record(i);
+        }
+        source.record(Long.MAX_VALUE);
+        source.drainInto(target);
+        assertEquals(0, source.getCount());
+        assertEquals(0, source.getMax());
+        assertEquals(1001, target.getCount());
+        assertEquals(Long.MAX_VALUE, target.getMax());
+        assertEquals(500, target.getValueAtPercentile(49.95), 5);
+        LatencyHistogram sum = new LatencyHistogram();
+        sum.add(target);
+        sum.add(target);
+        assertEquals(2002, sum.getCount());
+    }
+}
@@ -0,0 +1,756 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * FADAF that takes part in primary/replica replication. A primary numbers
+ * every successful insert, remove and removeAll, keeps the most recent ones
+ * in an operation log and streams them to the replicas connected to it. A
+ * replica bootstraps from a full snapshot when it is too far behind, then
+ * applies the log in batches and is read only. Because replicas log what
+ * they apply with the primary's sequence numbers, a replica can be promoted
+ * in place and the other replicas resume from it without a full rebuild.
+ * Keys are interned, so keys received by a replica match the stored ones.
+ * Data received by a replica is stored as new instances, so data that the
+ * primary stores as distinct equal instances stays distinct on the replica,
+ * and a replicated remove takes the first stored data equal to it, which
+ * leaves the replica with the same data by equals as the primary.
+ * <p>
+ * Expiry can only be enabled on a primary, whose expired pairs are logged
+ * as removes. A replica only removes the pairs the log tells it to, so an
+ * instance that starts following drops its timers; timers are not
+ * replicated either, so a promoted replica does not expire the pairs it
+ * received. The operations and enable methods of FADAF are synchronized on
+ * this instance. Snapshots, filters and change feeds returned by it are
+ * only as thread safe as their own classes.
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class ReplicatedFADAF extends FADAF<String, String> implements Closeable {
+
+    // constants
+    public static final int MAX_LOG = 1 << 16; // entries kept for catching up replicas
+    public static final int MAX_BATCH = 1024; // most entries sent in one message
+    public static final int HEARTBEAT_MS = 200; // idle time before an empty batch is sent
+
+    // message types
+    private static final byte SNAPSHOT = 'S';
+    private static final byte BATCH = 'B';
+
+    // instance variables
+    private final ArrayList<Entry> log; // most recent operations, in order
+    private long logStart; // sequence number of log.get(0)
+    private long seq; // sequence number of the last applied operation
+    private volatile long primarySeq; // last sequence number known on the primary
+    private volatile long lastContact; // time of the last message from the primary
+    private volatile boolean primary; // true if this instance accepts writes
+    private ServerSocket serverSocket; // listens for replicas, null if not serving
+    private Socket upstream; // connection to the primary, null if not following
+    private final Set<Socket> downstream; // connections to replicas
+
+    /**
+     * One logged operation.
+     */
+    private static final class Entry {
+        final byte op; // FADAFProtocol.INSERT, REMOVE or REMOVE_ALL
+        final String key;
+        final String data; // null for REMOVE_ALL
+
+        /**
+         * Initializes an Entry object.
+         *
+         * @param op   opcode
+         * @param key  key of the operation
+         * @param data data of the operation
+         */
+        Entry(byte op, String key, String data) {
+            this.op = op;
+            this.key = key;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Creates an empty primary.
+     *
+     * @param capacity initial capacity
+     * @throws IllegalArgumentException if capacity is less than the minimum
+     *                                  threshold
+     */
+    public ReplicatedFADAF(int capacity) {
+        super(capacity);
+        super.enableKeyInterning();
+        this.log = new ArrayList<Entry>();
+        this.logStart = 1;
+        this.seq = 0;
+        this.primary = true;
+        this.downstream = Collections.synchronizedSet(new HashSet<Socket>());
+    }
+
+    /**
+     * Creates a replica that follows the primary at the given address.
+     *
+     * @param capacity initial capacity
+     * @param host     host of the primary
+     * @param port     replication port of the primary
+     * @return replica, bootstrapping in the background
+     * @throws IOException if the primary cannot be reached
+     */
+    public static ReplicatedFADAF replicaOf(int capacity, String host, int port) throws IOException {
+        ReplicatedFADAF replica = new ReplicatedFADAF(capacity);
+        replica.follow(host, port);
+        return replica;
+    }
+
+    /**
+     * Starts accepting replicas on the given port.
+     *
+     * @param port port to listen on, 0 for any free port
+     * @return port that is listened on
+     * @throws IOException if the port cannot be bound
+     */
+    public synchronized int serveReplicas(int port) throws IOException {
+        if (serverSocket != null) {
+            return serverSocket.getLocalPort();
+        }
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        final ServerSocket listener = serverSocket;
+        startDaemon("fadaf-repl-accept", () -> {
+            while (!listener.isClosed()) {
+                try {
+                    Socket socket = listener.accept();
+                    socket.setTcpNoDelay(true);
+                    downstream.add(socket);
+                    startDaemon("fadaf-repl-send", () -> feed(socket));
+                } catch (IOException e) {
+                    // listener closed
+                }
+            }
+        });
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Turns this instance into a replica of the primary at the given address.
+     * Any previous primary is dropped. The current content is kept and only
+     * the missing operations are fetched if the primary still has them.
+     *
+     * @param host host of the primary
+     * @param port replication port of the primary
+     * @throws IOException if the primary cannot be reached
+     */
+    public void follow(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        long from;
+        synchronized (this) {
+            closeQuietly(upstream);
+            upstream = socket;
+            primary = false;
+            from = seq;
+            // expired pairs arrive as logged removes from now on
+            disableExpiry();
+        }
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeLong(from);
+        out.flush();
+        startDaemon("fadaf-repl-receive", () -> receive(socket));
+    }
+
+    /**
+     * Stops following the primary and starts accepting writes. The content
+     * and the operation log are kept, so other replicas can follow this
+     * instance from where they are.
+     *
+     * @param port port to accept replicas on, 0 for any free port
+     * @return port that is listened on
+     * @throws IOException if the port cannot be bound
+     */
+    public int promote(int port) throws IOException {
+        synchronized (this) {
+            closeQuietly(upstream);
+            upstream = null;
+            primary = true;
+            primarySeq = seq;
+        }
+        return serveReplicas(port);
+    }
+
+    /**
+     * Checks if this instance accepts writes.
+     *
+     * @return true if primary, false if replica
+     */
+    public boolean isPrimary() {
+        return primary;
+    }
+
+    /**
+     * Returns the sequence number of the last applied operation.
+     *
+     * @return sequence number
+     */
+    public synchronized long getSequence() {
+        return seq;
+    }
+
+    /**
+     * Returns how many operations this replica is behind its primary, as of
+     * the last message received from the primary. Always 0 for a primary.
+     *
+     * @return replication lag in operations
+     */
+    public synchronized long getLag() {
+        return primary ? 0 : Math.max(0, primarySeq - seq);
+    }
+
+    /**
+     * Returns the time since the last message from the primary. The primary
+     * sends at least one message every HEARTBEAT_MS. Always 0 for a primary.
+     *
+     * @return milliseconds since the primary was last heard of
+     */
+    public long getMillisSinceContact() {
+        return primary ? 0 : System.currentTimeMillis() - lastContact;
+    }
+
+    /**
+     * Stops replication in both directions.
+     */
+    public void close() {
+        synchronized (this) {
+            closeQuietly(upstream);
+            upstream = null;
+            closeQuietly(serverSocket);
+            serverSocket = null;
+            notifyAll();
+        }
+        synchronized (downstream) {
+            for (Socket s : downstream) {
+                closeQuietly(s);
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean insert(String key, String data) {
+        checkPrimary();
+        return apply(FADAFProtocol.INSERT, key, data, false, false);
+    }
+
+    @Override
+    public synchronized boolean insertEqual(String key, String data) {
+        checkPrimary();
+        return apply(FADAFProtocol.INSERT, key, data, true, false);
+    }
+
+    @Override
+    public synchronized boolean remove(String key, String data) {
+        checkPrimary();
+        return apply(FADAFProtocol.REMOVE, key, data, false, false);
+    }
+
+    @Override
+    public synchronized boolean removeEqual(String key, String data) {
+        checkPrimary();
+        return apply(FADAFProtocol.REMOVE, key, data, true, false);
+    }
+
+    @Override
+    public synchronized boolean removeAll(String key) {
+        checkPrimary();
+        return apply(FADAFProtocol.REMOVE_ALL, key, null, false, false);
+    }
+
+    @Override
+    synchronized void enableExpiry(long tickMillis, LongSupplier clock) {
+        checkPrimary();
+        super.enableExpiry(tickMillis, clock);
+    }
+
+    /**
+     * Removes every key through removeAll, so the removes are logged for
+     * the replicas.
+     */
+    @Override
+    synchronized void clear() {
+        checkPrimary();
+        for (String key : super.getAllKeys()) {
+            apply(FADAFProtocol.REMOVE_ALL, key, null, false, false);
+        }
+    }
+
+    @Override
+    public synchronized void enableAdaptive() {
+        super.enableAdaptive();
+    }
+
+    @Override
+    public synchronized void enableKeyInterning() {
+        super.enableKeyInterning();
+    }
+
+    @Override
+    public synchronized void enableSnapshots() {
+        super.enableSnapshots();
+    }
+
+    @Override
+    public synchronized void enableBloomFilter(int expectedPairs, double fpp) {
+        super.enableBloomFilter(expectedPairs, fpp);
+    }
+
+    @Override
+    public synchronized void enableReverseIndex() {
+        super.enableReverseIndex();
+    }
+
+    @Override
+    public synchronized boolean isAdaptive() {
+        return super.isAdaptive();
+    }
+
+    @Override
+    public synchronized boolean isExpiring() {
+        return super.isExpiring();
+    }
+
+    @Override
+    public synchronized boolean insert(String key, String data, long ttlMillis) {
+        checkPrimary();
+        return super.insert(key, data, ttlMillis);
+    }
+
+    @Override
+    public synchronized boolean expireKey(String key, long ttlMillis) {
+        checkPrimary();
+        return super.expireKey(key, ttlMillis);
+    }
+
+    @Override
+    public synchronized int expire() {
+        return super.expire();
+    }
+
+    @Override
+    public synchronized int size() {
+        return super.size();
+    }
+
+    @Override
+    public synchronized int nUniqueKeys() {
+        return super.nUniqueKeys();
+    }
+
+    @Override
+    public synchronized boolean lookupAny(String key) {
+        return super.lookupAny(key);
+    }
+
+    @Override
+    public synchronized boolean lookup(String key, String data) {
+        return super.lookup(key, data);
+    }
+
+    @Override
+    public synchronized String lookupEqual(String key, String data) {
+        return super.lookupEqual(key, data);
+    }
+
+    @Override
+    public synchronized BitSet lookupAnyMany(String[] keys) {
+        return super.lookupAnyMany(keys);
+    }
+
+    @Override
+    public synchronized BitSet lookupMany(String[] keys, String[] data) {
+        return super.lookupMany(keys, data);
+    }
+
+    @Override
+    public synchronized LinkedList<String> getAllKeys() {
+        return super.getAllKeys();
+    }
+
+    @Override
+    public synchronized LinkedList<String> getAllData(String key) {
+        return super.getAllData(key);
+    }
+
+    @Override
+    public synchronized LinkedList<String> getAllKeys(String data) {
+        return super.getAllKeys(data);
+    }
+
+    @Override
+    public synchronized boolean removeAllByData(String data) {
+        checkPrimary();
+        // removes through removeEqual, which logs every pair
+        return super.removeAllByData(data);
+    }
+
+    @Override
+    public synchronized LinkedList<String> getKeysInRange(String lo, String hi) {
+        return super.getKeysInRange(lo, hi);
+    }
+
+    @Override
+    public synchronized int rank(String key) {
+        return super.rank(key);
+    }
+
+    @Override
+    public synchronized String select(int k) {
+        return super.select(k);
+    }
+
+    @Override
+    public synchronized int countRange(String lo, String hi) {
+        return super.countRange(lo, hi);
+    }
+
+    @Override
+    public synchronized boolean mergeInto(FADAFBackend<String, String> target) {
+        return super.mergeInto(target);
+    }
+
+    /**
+     * Inserts the pairs one by one so every new pair is logged for the
+     * replicas.
+     */
+    @Override
+    synchronized boolean absorb(Iterator<Map.Entry<String, List<String>>> source) {
+        checkPrimary();
+        boolean changed = false;
+        while (source.hasNext()) {
+            Map.Entry<String, List<String>> group = source.next();
+            for (String data : group.getValue()) {
+                changed |= apply(FADAFProtocol.INSERT, group.getKey(), data, false, false);
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public synchronized void compact() {
+        super.compact();
+    }
+
+    @Override
+    public synchronized String getMinKey() {
+        return super.getMinKey();
+    }
+
+    @Override
+    public synchronized String getMaxKey() {
+        return super.getMaxKey();
+    }
+
+    /**
+     * Throws if this instance is a replica.
+     *
+     * @throws IllegalStateException if this instance is a replica
+     */
+    private void checkPrimary() {
+        if (!primary) {
+            throw new IllegalStateException("read only replica");
+        }
+    }
+
+    /**
+     * Applies an operation and logs it if it changed anything. Must be
+     * called while holding the lock of this.
+     *
+     * @param op     opcode
+     * @param key    key of the operation
+     * @param data   data of the operation, null for REMOVE_ALL
+     * @param equal  match data with equals instead of by reference
+     * @param always log even if nothing changed, used by replicas to keep
+     *               the primary's numbering
+     * @return true if the content changed
+     */
+    private boolean apply(byte op, String key, String data, boolean equal, boolean always) {
+        boolean changed;
+        if (op == FADAFProtocol.INSERT) {
+            changed = equal ? super.insertEqual(key, data) : super.insert(key, data);
+        } else if (op == FADAFProtocol.REMOVE) {
+            changed = equal ? super.removeEqual(key, data) : super.remove(key, data);
+        } else {
+            changed = super.removeAll(key);
+        }
+        if (changed || always) {
+            log.add(new Entry(op, key, data));
+            seq++;
+            if (log.size() > MAX_LOG) {
+                int drop = MAX_LOG / 2;
+                log.subList(0, drop).clear();
+                logStart += drop;
+            }
+            notifyAll();
+        }
+        return changed;
+    }
+
+    /**
+     * Streams the log to one replica until it disconnects.
+     *
+     * @param socket connection to the replica
+     */
+    private void feed(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(s.getOutputStream(), FADAFServer.BUFFER_SIZE));
+            long next = in.readLong() + 1; // first sequence number the replica needs
+            List<String[]> pairs = null;
+            List<Entry> batch = new ArrayList<Entry>();
+            while (!s.isClosed()) {
+                long current;
+                synchronized (this) {
+                    if (next < logStart || next > seq + 1) {
+                        // the replica is outside of the log window
+                        pairs = pairs();
+                        next = seq + 1;
+                    } else {
+                        if (next > seq) {
+                            wait(HEARTBEAT_MS);
+                        }
+                        if (next < logStart) {
+                            continue;
+                        }
+                        int from = (int) (next - logStart);
+                        int to = Math.min(log.size(), from + MAX_BATCH);
+                        batch.addAll(log.subList(from, to));
+                    }
+                    current = seq;
+                }
+                if (pairs != null) {
+                    writeSnapshot(out, current, pairs);
+                    pairs = null;
+                } else {
+                    writeBatch(out, current, next, batch);
+                    next += batch.size();
+                    batch.clear();
+                }
+                out.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            // replica went away
+        } finally {
+            downstream.remove(socket);
+        }
+    }
+
+    /**
+     * Returns all pairs in key order. Must be called while holding the lock
+     * of this.
+     *
+     * @return list of {key, data}
+     */
+    @SuppressWarnings("rawtypes")
+    private List<String[]> pairs() {
+        List<String[]> pairs = new ArrayList<String[]>(super.size());
+        Iterator iterator = DAFTree.iterator();
+        while (iterator.hasNext()) {
+            DAFTree.DAFNode node = (DAFTree.DAFNode) iterator.next();
+            pairs.add(new String[]{(String) node.key, (String) node.data});
+        }
+        return pairs;
+    }
+
+    /**
+     * Writes a snapshot message.
+     *
+     * @param out   output stream
+     * @param upTo  sequence number the snapshot reflects
+     * @param pairs all pairs
+     * @throws IOException if writing fails
+     */
+    private static void writeSnapshot(DataOutputStream out, long upTo, List<String[]> pairs)
+            throws IOException {
+        out.writeByte(SNAPSHOT);
+        out.writeLong(upTo);
+        out.writeInt(pairs.size());
+        for (String[] pair : pairs) {
+            out.writeUTF(pair[0]);
+            out.writeUTF(pair[1]);
+        }
+    }
+
+    /**
+     * Writes a batch message. An empty batch is a heartbeat.
+     *
+     * @param out     output stream
+     * @param current last sequence number on the primary
+     * @param first   sequence number of the first entry
+     * @param batch   entries to send
+     * @throws IOException if writing fails
+     */
+    private static void writeBatch(DataOutputStream out, long current, long first, List<Entry> batch)
+            throws IOException {
+        out.writeByte(BATCH);
+        out.writeLong(current);
+        out.writeLong(first);
+        out.writeInt(batch.size());
+        for (Entry e : batch) {
+            out.writeByte(e.op);
+            out.writeUTF(e.key);
+            if (e.op != FADAFProtocol.REMOVE_ALL) {
+                out.writeUTF(e.data);
+            }
+        }
+    }
+
+    /**
+     * Applies messages from the primary until the connection ends.
+     *
+     * @param socket connection to the primary
+     */
+    private void receive(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream(), FADAFServer.BUFFER_SIZE));
+            while (true) {
+                byte type = in.readByte();
+                long current = in.readLong();
+                if (type == SNAPSHOT) {
+                    int n = in.readInt();
+                    List<String[]> pairs = new ArrayList<String[]>(n);
+                    for (int i = 0; i < n; i++) {
+                        pairs.add(new String[]{in.readUTF(), in.readUTF()});
+                    }
+                    synchronized (this) {
+                        if (upstream != socket) {
+                            return;
+                        }
+                        super.clear();
+                        for (String[] pair : pairs) {
+                            super.insert(pair[0], pair[1]);
+                        }
+                        log.clear();
+                        seq = current;
+                        logStart = current + 1;
+                    }
+                } else {
+                    long first = in.readLong();
+                    int n = in.readInt();
+                    List<Entry> batch = new ArrayList<Entry>(n);
+                    for (int i = 0; i < n; i++) {
+                        byte op = in.readByte();
+                        String key = in.readUTF();
+                        String data = (op != FADAFProtocol.REMOVE_ALL) ? in.readUTF() : null;
+                        batch.add(new Entry(op, key, data));
+                    }
+                    synchronized (this) {
+                        if (upstream != socket) {
+                            return;
+                        }
+                        // skip anything already applied
+                        for (int i = (int) Math.max(0, seq + 1 - first); i < n; i++) {
+                            Entry e = batch.get(i);
+                            // data received from the primary is a copy of the stored one
+                            apply(e.op, e.key, e.data, e.op == FADAFProtocol.REMOVE, true);
+                        }
+                    }
+                }
+                primarySeq = current;
+                lastContact = System.currentTimeMillis();
+            }
+        } catch (IOException e) {
+            // primary went away, stay readable until told to follow another one
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Starts a daemon thread.
+     *
+     * @param name name of the thread
+     * @param task task to run
+     */
+    private static void startDaemon(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Closes a resource, ignoring errors and null.
+     *
+     * @param c resource to close
+     */
+    private static void closeQuietly(Closeable c) {
+        if (c == null) {
+            return;
+        }
+        try {
+            c.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+    }
+
+    /**
+     * Runs a primary or a replica together with a FADAFServer for clients.
+     * Typing "promote" on stdin turns a replica into the primary, and "status"
+     * prints the sequence number and lag.
+     * Usage: ReplicatedFADAF primary [replication port] [client port]
+     *        ReplicatedFADAF replica [primary host] [primary port] [client port]
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        try {
+            run(args);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Body of main.
+     *
+     * @param args command line arguments
+     * @throws IOException if a port cannot be bound or the primary is unreachable
+     */
+    private static void run(String[] args) throws IOException {
+        ReplicatedFADAF fadaf;
+        int clientPort;
+        if (args.length >= 3 && args[0].equals("primary")) {
+            fadaf = new ReplicatedFADAF(1024);
+            fadaf.serveReplicas(Integer.parseInt(args[1]));
+            clientPort = Integer.parseInt(args[2]);
+        } else if (args.length >= 4 && args[0].equals("replica")) {
+            fadaf = replicaOf(1024, args[1], Integer.parseInt(args[2]));
+            clientPort = Integer.parseInt(args[3]);
+        } else {
+            System.err.println("usage: ReplicatedFADAF primary <replPort> <clientPort>");
+            System.err.println("       ReplicatedFADAF replica <host> <replPort> <clientPort>");
+            return;
+        }
+        FADAFServer server = new FADAFServer(fadaf, clientPort);
+        System.out.println("serving clients on " + server.getPort());
+        BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = console.readLine()) != null) {
+            String[] words = line.trim().split("\\s+");
+            if (words[0].equals("promote")) {
+                int port = fadaf.promote(words.length > 1 ? Integer.parseInt(words[1]) : 0);
+                System.out.println("promoted, accepting replicas on " + port);
+            } else if (words[0].equals("status")) {
+                System.out.println((fadaf.isPrimary() ? "primary" : "replica")
+                        + " seq=" + fadaf.getSequence() + " lag=" + fadaf.getLag()
+                        + " size=" + fadaf.size());
+            }
+        }
+    }
+}
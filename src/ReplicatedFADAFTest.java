@@ -0,0 +1,185 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReplicatedFADAFTest {
+
+    /**
+     * Waits until the replica has applied everything up to seq.
+     */
+    private static void awaitSequence(ReplicatedFADAF replica, long seq) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (replica.getSequence() < seq && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(seq, replica.getSequence());
+    }
+
+    @Test
+    public void replicate() throws Exception {
+        ReplicatedFADAF primary = new ReplicatedFADAF(10);
+        primary.insert("a", "1");
+        primary.insert("b", "1");
+        int port = primary.serveReplicas(0);
+        ReplicatedFADAF replica = ReplicatedFADAF.replicaOf(10, "127.0.0.1", port);
+        primary.insert("b", "2");
+        primary.remove("a", "1");
+        primary.insert("c", "1");
+        primary.removeAll("c");
+
+        awaitSequence(replica, primary.getSequence());
+        assertEquals(0, replica.getLag());
+        assertEquals(2, replica.size());
+        assertEquals(java.util.Arrays.asList("1", "2"), replica.getAllData("b"));
+        assertFalse(replica.lookupAny("a"));
+        assertEquals(2, replica.countRange("a", "c"));
+        assertEquals(0, replica.rank("b"));
+        assertEquals("b", replica.select(1));
+        try {
+            replica.insert("x", "1");
+            fail();
+        } catch (IllegalStateException e) {
+            // replicas are read only
+        }
+        replica.close();
+        primary.close();
+    }
+
+    @Test
+    public void failover() throws Exception {
+        ReplicatedFADAF primary = new ReplicatedFADAF(10);
+        int port = primary.serveReplicas(0);
+        ReplicatedFADAF first = ReplicatedFADAF.replicaOf(10, "127.0.0.1", port);
+        ReplicatedFADAF second = ReplicatedFADAF.replicaOf(10, "127.0.0.1", port);
+        for (int i = 0; i < 50; i++) {
+            primary.insert("k" + i, "d");
+        }
+        awaitSequence(first, 50);
+        awaitSequence(second, 50);
+        primary.close();
+
+        int newPort = first.promote(0);
+        assertTrue(first.isPrimary());
+        first.insert("k50", "d");
+        second.follow("127.0.0.1", newPort);
+        awaitSequence(second, 51);
+        assertEquals(51, second.size());
+        assertTrue(second.lookupAny("k50"));
+        second.close();
+        first.close();
+    }
+
+    @Test
+    public void expiry() throws Exception {
+        long[] now = {1000};
+        ReplicatedFADAF primary = new ReplicatedFADAF(10);
+        primary.enableExpiry(10, () -> now[0]);
+        int port = primary.serveReplicas(0);
+        ReplicatedFADAF replica = ReplicatedFADAF.replicaOf(10, "127.0.0.1", port);
+        primary.insert("a", "1", 100);
+        primary.insert("b", "1");
+        now[0] += 150;
+        // the expired pair is removed on the primary and logged
+        assertEquals(1, primary.size());
+        awaitSequence(replica, primary.getSequence());
+        assertEquals(1, replica.size());
+        assertFalse(replica.lookupAny("a"));
+        try {
+            replica.enableExpiry(10);
+            fail();
+        } catch (IllegalStateException e) {
+            // replicas are read only
+        }
+        replica.close();
+        primary.close();
+    }
+
+    @Test
+    public void demotedExpiry() throws Exception {
+        long[] now = {1000};
+        ReplicatedFADAF primary = new ReplicatedFADAF(10);
+        primary.enableExpiry(10, () -> now[0]);
+        int port = primary.serveReplicas(0);
+        ReplicatedFADAF replica = ReplicatedFADAF.replicaOf(10, "127.0.0.1", port);
+        primary.insert("a", "1", 100);
+        primary.insert("b", "1");
+        awaitSequence(replica, primary.getSequence());
+
+        int newPort = replica.promote(0);
+        primary.follow("127.0.0.1", newPort);
+        assertFalse(primary.isExpiring());
+        now[0] += 150;
+        // reads on the follower do not expire, removes come from the log
+        assertTrue(primary.lookupAny("a"));
+        assertEquals(2, primary.size());
+        assertTrue(replica.removeEqual("a", "1"));
+        awaitSequence(primary, replica.getSequence());
+        assertFalse(primary.lookupAny("a"));
+        primary.close();
+        replica.close();
+    }
+
+    @Test
+    public void clear() throws Exception {
+        ReplicatedFADAF primary = new ReplicatedFADAF(10);
+        int port = primary.serveReplicas(0);
+        ReplicatedFADAF replica = ReplicatedFADAF.replicaOf(10, "127.0.0.1", port);
+        primary.insert("a", "1");
+        primary.insert("b", "1");
+        primary.clear();
+        assertEquals(0, primary.size());
+        awaitSequence(replica, primary.getSequence());
+        assertEquals(0, replica.size());
+        try {
+            replica.clear();
+            fail();
+        } catch (IllegalStateException e) {
+            // replicas are read only
+        }
+        replica.close();
+        primary.close();
+    }
+
+    @Test
+    public void removeAllByData() throws Exception {
+        ReplicatedFADAF primary = new ReplicatedFADAF(10);
+        int port = primary.serveReplicas(0);
+        ReplicatedFADAF replica = ReplicatedFADAF.replicaOf(10, "127.0.0.1", port);
+        primary.insert("a", "1");
+        primary.insert("b", "1");
+        primary.insert("b", "2");
+        assertTrue(primary.removeAllByData("1"));
+        awaitSequence(replica, primary.getSequence());
+        assertEquals(1, replica.size());
+        assertEquals(0, replica.getAllKeys("1").size());
+        try {
+            replica.removeAllByData("2");
+            fail();
+        } catch (IllegalStateException e) {
+            // replicas are read only
+        }
+        replica.close();
+        primary.close();
+    }
+
+    @Test
+    public void distinctEqualData() throws Exception {
+        ReplicatedFADAF primary = new ReplicatedFADAF(10);
+        String x = new String("v");
+        String y = new String("v");
+        primary.insert("k", x);
+        int port = primary.serveReplicas(0);
+        ReplicatedFADAF replica = ReplicatedFADAF.replicaOf(10, "127.0.0.1", port);
+        primary.insert("k", y);
+        awaitSequence(replica, primary.getSequence());
+        // the replica keeps equal data apart like the primary
+        assertEquals(2, primary.size());
+        assertEquals(2, replica.size());
+        primary.remove("k", x);
+        awaitSequence(replica, primary.getSequence());
+        assertEquals(1, replica.size());
+        assertTrue(replica.lookupAny("k"));
+        replica.close();
+        primary.close();
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+
+/**
+ * Open addressing hash table in the Swiss table layout, with the same
+ * insert, delete and lookup semantics as HashTable. Next to the value array
+ * there is one control byte per slot: EMPTY, DELETED, or the low 7 bits of
+ * the value's hash for a full slot. Eight control bytes are packed into a
+ * long, so a probe tests a whole group of eight slots with a few word
+ * operations (SWAR) and only compares values whose 7-bit fragment matches.
+ * Most misses end at the first group that still has an empty slot without
+ * ever reading the value array.
+ *
+ * @param <T> Generic type of value
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class SwissHashTable<T> {
+
+    // constants
+    public static final int GROUP_SIZE = 8; // slots per control word
+    public static final double MAX_LOAD_FACTOR = (double) 7 / 8; // maximum load factor
+    private static final long EMPTY = 0x80L; // control byte of an empty slot
+    private static final long DELETED = 0xFEL; // control byte of a deleted slot
+    private static final long LSBS = 0x0101010101010101L; // lowest bit of every byte
+    private static final long MSBS = 0x8080808080808080L; // highest bit of every byte
+
+    // instance variables
+    private long[] ctrl; // control bytes, one group per long
+    private Object[] slots; // values
+    private int nElems; // number of elements stored
+    private int nDeleted; // number of DELETED control bytes
+
+    /**
+     * Constructor for the hash table. The capacity is rounded up to a power
+     * of two.
+     *
+     * @param capacity initial capacity
+     * @throws IllegalArgumentException if capacity is less than the minimum
+     *                                  threshold
+     */
+    public SwissHashTable(int capacity) {
+        if (capacity < HashTable.MIN_CAPACITY) {
+            throw new IllegalArgumentException();
+        }
+        allocate(Math.max(GROUP_SIZE, Integer.highestOneBit(capacity - 1) << 1));
+    }
+
+    /**
+     * Insert the value into the hash table.
+     *
+     * @param value value to insert
+     * @return true if the value was inserted, false if the value was already
+     *         present
+     * @throws NullPointerException if the value is null
+     */
+    public boolean insert(T value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int hash = hash(value);
+        if (find(value, hash) >= 0) {
+            return false;
+        }
+        if (nElems + nDeleted + 1 > slots.length * MAX_LOAD_FACTOR) {
+            // grow if mostly live, otherwise just clear out the tombstones
+            rehash(nElems + 1 > slots.length * MAX_LOAD_FACTOR / 2 ? slots.length * 2 : slots.length);
+        }
+        put(value, hash);
+        return true;
+    }
+
+    /**
+     * Delete the given value from the hash table.
+     *
+     * @param value value to delete
+     * @return true if the value was deleted, false if the value was not found
+     * @throws NullPointerException if the value is null
+     */
+    public boolean delete(T value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int slot = find(value, hash(value));
+        if (slot < 0) {
+            return false;
+        }
+        setCtrl(slot, DELETED);
+        slots[slot] = null;
+        nElems--;
+        nDeleted++;
+        return true;
+    }
+
+    /**
+     * Check if the given value is present in the hash table.
+     *
+     * @param value value to look up
+     * @return true if the value was found, false if the value was not found
+     * @throws NullPointerException if the value is null
+     */
+    public boolean lookup(T value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        return find(value, hash(value)) >= 0;
+    }
+
+    /**
+     * Get the total number of elements stored in the hash table.
+     *
+     * @return total number of elements
+     */
+    public int size() {
+        return nElems;
+    }
+
+    /**
+     * Get the capacity of the hash table.
+     *
+     * @return capacity
+     */
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Returns the slot holding value, probing group by group.
+     *
+     * @param value value to find
+     * @param hash  mixed hash of value
+     * @return slot index, or -1 if not found
+     */
+    private int find(Object value, int hash) {
+        int mask = ctrl.length - 1;
+        int group = (hash >>> 7) & mask;
+        long fragment = LSBS * (hash & 0x7F);
+        for (int step = 1; ; step++) {
+            long word = ctrl[group];
+            // bytes equal to the fragment become zero, then flag zero bytes
+            long x = word ^ fragment;
+            long match = (x - LSBS) & ~x & MSBS;
+            while (match != 0) {
+                int slot = group * GROUP_SIZE + (Long.numberOfTrailingZeros(match) >>> 3);
+                if (value.equals(slots[slot])) {
+                    return slot;
+                }
+                match &= match - 1;
+            }
+            if (matchEmpty(word) != 0) {
+                return -1;
+            }
+            // triangular probing visits every group of a power of two table
+            group = (group + step) & mask;
+        }
+    }
+
+    /**
+     * Stores a value that is known to be absent into the first free slot of
+     * its probe sequence.
+     *
+     * @param value value to store
+     * @param hash  mixed hash of value
+     */
+    private void put(Object value, int hash) {
+        int mask = ctrl.length - 1;
+        int group = (hash >>> 7) & mask;
+        for (int step = 1; ; step++) {
+            long free = ctrl[group] & MSBS; // EMPTY or DELETED
+            if (free != 0) {
+                int slot = group * GROUP_SIZE + (Long.numberOfTrailingZeros(free) >>> 3);
+                if (getCtrl(slot) == DELETED) {
+                    nDeleted--;
+                }
+                setCtrl(slot, hash & 0x7F);
+                slots[slot] = value;
+                nElems++;
+                return;
+            }
+            group = (group + step) & mask;
+        }
+    }
+
+    /**
+     * Rebuilds the table with the given capacity, dropping all tombstones.
+     *
+     * @param capacity new capacity, a power of two
+     */
+    private void rehash(int capacity) {
+        Object[] old = slots;
+        allocate(capacity);
+        for (Object value : old) {
+            if (value != null) {
+                put(value, hash(value));
+            }
+        }
+    }
+
+    /**
+     * Allocates empty arrays of the given capacity.
+     *
+     * @param capacity number of slots, a power of two of at least GROUP_SIZE
+     */
+    private void allocate(int capacity) {
+        ctrl = new long[capacity / GROUP_SIZE];
+        Arrays.fill(ctrl, LSBS * EMPTY);
+        slots = new Object[capacity];
+        nElems = 0;
+        nDeleted = 0;
+    }
+
+    /**
+     * Flags the EMPTY bytes of a control word. DELETED shares the high bit
+     * with EMPTY but also has bit 1 set, which tells them apart.
+     *
+     * @param word control word
+     * @return high bit set in every byte that is EMPTY
+     */
+    private static long matchEmpty(long word) {
+        return word & (~word << 6) & MSBS;
+    }
+
+    /**
+     * Returns the control byte of a slot.
+     *
+     * @param slot slot index
+     * @return control byte
+     */
+    private long getCtrl(int slot) {
+        return (ctrl[slot / GROUP_SIZE] >>> ((slot % GROUP_SIZE) * 8)) & 0xFF;
+    }
+
+    /**
+     * Sets the control byte of a slot.
+     *
+     * @param slot  slot index
+     * @param value new control byte
+     */
+    private void setCtrl(int slot, long value) {
+        int shift = (slot % GROUP_SIZE) * 8;
+        int group = slot / GROUP_SIZE;
+        ctrl[group] = (ctrl[group] & ~(0xFFL << shift)) | (value << shift);
+    }
+
+    /**
+     * Hash function that spreads the hash code of value over all bits, so
+     * both the group index and the 7-bit fragment are well distributed.
+     *
+     * @param value input
+     * @return mixed hash
+     */
+    private static int hash(Object value) {
+        int h = value.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,62 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SwissHashTableTest {
+
+    @Test
+    public void insert() {
+        SwissHashTable<Integer> table = new SwissHashTable<>(10);
+        assertEquals(16, table.capacity());
+        for (int i = 0; i < 14; i++) {
+            assertTrue(table.insert(i));
+        }
+        assertFalse(table.insert(3));
+        assertEquals(14, table.size());
+        assertEquals(16, table.capacity());
+        table.insert(14);
+        assertEquals(32, table.capacity());
+        for (int i = 0; i < 15; i++) {
+            assertTrue(table.lookup(i));
+        }
+    }
+
+    @Test
+    public void delete() {
+        SwissHashTable<String> table = new SwissHashTable<>(10);
+        for (int i = 0; i < 1000; i++) {
+            table.insert("v" + i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertTrue(table.delete("v" + i));
+        }
+        assertFalse(table.delete("v0"));
+        assertEquals(500, table.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 1, table.lookup("v" + i));
+        }
+        // reuse tombstones many times without growing
+        int capacity = table.capacity();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 100; i++) {
+                table.insert("w" + i);
+            }
+            for (int i = 0; i < 100; i++) {
+                table.delete("w" + i);
+            }
+        }
+        assertEquals(capacity, table.capacity());
+        assertEquals(500, table.size());
+    }
+
+    @Test
+    public void lookup() {
+        SwissHashTable<Integer> table = new SwissHashTable<>(10);
+        for (int i = -5000; i < 5000; i += 3) {
+            table.insert(i);
+        }
+        for (int i = -5000; i < 5000; i++) {
+            assertEquals((i + 5000) % 3 == 0, table.lookup(i));
+        }
+    }
+}
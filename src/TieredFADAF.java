@@ -0,0 +1,983 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * FADAF whose content lives mostly on local disk, for data sets larger
+ * than the heap. New pairs go into a DAFTree memtable, and removals are
+ * kept next to it as tombstones. When the memtable holds memtableLimit
+ * entries it is written to disk as an immutable sorted run (see DAFRun),
+ * and a background thread merges runs so their number stays small. A
+ * lookup checks the memtable first and then the runs from newest to
+ * oldest, skipping every run whose Bloom filter rules the key out.
+ * getAllKeys, getKeysInRange and the other ordered operations merge the
+ * tiers lazily through scan, which never loads more than one block per run
+ * and a copy of the memtable.
+ * <p>
+ * Keys and data are matched with equals, since they are read back from
+ * disk as new objects. The directory holds a MANIFEST that lists the runs,
+ * so a TieredFADAF can be reopened; changes made after the last flush are
+ * lost if the process ends without close. The optional indexes of FADAF
+ * (snapshots, Bloom filters, reverse index, expiry, adaptive mode) are not
+ * available on this backend, the change feed is. All methods are thread
+ * safe.
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class TieredFADAF extends FADAF<String, String> implements Closeable {
+
+    // constants
+    public static final int MIN_MEMTABLE = 16; // smallest memtable limit
+    public static final int COMPACT_TRIGGER = 4; // runs that start a background compaction
+    public static final int MAX_RUNS = 10; // runs merged regardless of their sizes
+    private static final String MANIFEST = "MANIFEST"; // list of runs in the directory
+    private static final String HEADER = "fadaf-tiered 1"; // first line of the manifest
+
+    // instance variables
+    private final File dir; // directory of the runs
+    private final int memtableLimit; // memtable entries that trigger a flush
+    private DAFTree<String, String> memtable; // pairs inserted since the last flush
+    private final HashMap<String, String> memKeys; // key instances in the memtable, DAFTree matches by reference
+    private final TreeMap<String, DAFRun.Record> tombstones; // removals since the last flush
+    private ArrayList<DAFRun> runs; // runs on disk, oldest first
+    private long nextRun; // number of the next run file
+    private int nPairs; // pairs stored in all tiers
+    private int nKeys; // unique keys stored in all tiers
+    private int flushedPairs; // nPairs at the last flush, written to the manifest
+    private int flushedKeys; // nKeys at the last flush, written to the manifest
+    private final ExecutorService compactor; // runs background compactions
+    private boolean compacting; // true while a compaction runs
+    private IOException failure; // error of the last background compaction
+    private boolean closed; // true once close was called
+
+    /**
+     * Opens the TieredFADAF stored in a directory, or creates an empty one.
+     *
+     * @param dir           directory of the runs, created if missing
+     * @param memtableLimit memtable entries that trigger a flush
+     * @throws IOException              if the directory cannot be used or a
+     *                                  run is corrupt
+     * @throws IllegalArgumentException if memtableLimit is less than
+     *                                  MIN_MEMTABLE
+     */
+    public TieredFADAF(File dir, int memtableLimit) throws IOException {
+        super(HashTable.MIN_CAPACITY); // the inherited indexes stay unused
+        if (memtableLimit < MIN_MEMTABLE) {
+            throw new IllegalArgumentException();
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        this.dir = dir;
+        this.memtableLimit = memtableLimit;
+        this.memtable = new DAFTree<String, String>();
+        this.memKeys = new HashMap<String, String>();
+        this.tombstones = new TreeMap<String, DAFRun.Record>();
+        this.runs = new ArrayList<DAFRun>();
+        readManifest();
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "fadaf-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public synchronized int size() {
+        return nPairs;
+    }
+
+    @Override
+    public synchronized int nUniqueKeys() {
+        return nKeys;
+    }
+
+    @Override
+    public synchronized boolean insert(String key, String data) {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        checkOpen();
+        List<String> current = read(key);
+        if (current.contains(data)) {
+            return false;
+        }
+        String canonical = memKeys.get(key);
+        if (canonical == null) {
+            canonical = key;
+            memKeys.put(key, key);
+        }
+        memtable.insert(canonical, data);
+        nPairs++;
+        if (current.isEmpty()) {
+            nKeys++;
+        }
+        publish(FADAFChange.INSERT, key, data);
+        flushIfFull();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(String key, String data) {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        checkOpen();
+        List<String> current = read(key);
+        if (!current.contains(data)) {
+            return false;
+        }
+        String canonical = memKeys.get(key);
+        if (canonical != null) {
+            for (String d : memtable.getAllData(canonical)) {
+                if (d.equals(data)) {
+                    memtable.remove(canonical, d);
+                    break;
+                }
+            }
+            if (!memtable.lookupAny(canonical)) {
+                memKeys.remove(key);
+            }
+        }
+        // the pair may also be in a run, hide it there
+        tombstone(key).dels.add(data);
+        nPairs--;
+        if (current.size() == 1) {
+            nKeys--;
+        }
+        publish(FADAFChange.REMOVE, key, data);
+        flushIfFull();
+        return true;
+    }
+
+    /**
+     * Same as insert, data is always matched with equals.
+     */
+    @Override
+    public synchronized boolean insertEqual(String key, String data) {
+        return insert(key, data);
+    }
+
+    /**
+     * Same as remove, data is always matched with equals.
+     */
+    @Override
+    public synchronized boolean removeEqual(String key, String data) {
+        return remove(key, data);
+    }
+
+    @Override
+    public synchronized boolean removeAll(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        checkOpen();
+        List<String> current = read(key);
+        if (current.isEmpty()) {
+            return false;
+        }
+        String canonical = memKeys.remove(key);
+        if (canonical != null) {
+            memtable.removeAll(canonical);
+        }
+        DAFRun.Record tombstone = tombstone(key);
+        tombstone.keyDeleted = true;
+        tombstone.dels.clear();
+        nPairs -= current.size();
+        nKeys--;
+        publish(FADAFChange.REMOVE_ALL, key, null);
+        flushIfFull();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean lookupAny(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return !read(key).isEmpty();
+    }
+
+    @Override
+    public synchronized boolean lookup(String key, String data) {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        return read(key).contains(data);
+    }
+
+    @Override
+    public synchronized String lookupEqual(String key, String data) {
+        if (key == null || data == null) {
+            throw new NullPointerException();
+        }
+        List<String> current = read(key);
+        int index = current.indexOf(data);
+        return (index >= 0) ? current.get(index) : null;
+    }
+
+    /**
+     * Looks the keys up one by one, every key goes through the tiers on its
+     * own.
+     */
+    @Override
+    public synchronized BitSet lookupAnyMany(String[] keys) {
+        BitSet found = new BitSet(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            found.set(i, lookupAny(keys[i]));
+        }
+        return found;
+    }
+
+    /**
+     * Looks the pairs up one by one, every key goes through the tiers on its
+     * own.
+     */
+    @Override
+    public synchronized BitSet lookupMany(String[] keys, String[] data) {
+        if (keys.length != data.length) {
+            throw new IllegalArgumentException();
+        }
+        BitSet found = new BitSet(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            found.set(i, lookup(keys[i], data[i]));
+        }
+        return found;
+    }
+
+    @Override
+    public synchronized LinkedList<String> getAllData(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return new LinkedList<String>(read(key));
+    }
+
+    @Override
+    public LinkedList<String> getAllKeys() {
+        return getKeysInRange(null, null);
+    }
+
+    /**
+     * Returns the keys in [lo, hi) with duplicates. Unlike FADAF, null
+     * leaves a side of the range open.
+     */
+    @Override
+    public LinkedList<String> getKeysInRange(String lo, String hi) {
+        LinkedList<String> keys = new LinkedList<String>();
+        Iterator<Map.Entry<String, List<String>>> groups = scan(lo, hi);
+        while (groups.hasNext()) {
+            Map.Entry<String, List<String>> group = groups.next();
+            for (int i = 0; i < group.getValue().size(); i++) {
+                keys.add(group.getKey());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Scans every tier, O(n) on this backend.
+     */
+    @Override
+    public LinkedList<String> getAllKeys(String data) {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        LinkedList<String> keys = new LinkedList<String>();
+        Iterator<Map.Entry<String, List<String>>> groups = scan(null, null);
+        while (groups.hasNext()) {
+            Map.Entry<String, List<String>> group = groups.next();
+            if (group.getValue().contains(data)) {
+                keys.add(group.getKey());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Scans every tier, O(n) on this backend.
+     */
+    @Override
+    public synchronized boolean removeAllByData(String data) {
+        boolean removed = false;
+        for (String key : getAllKeys(data)) {
+            removed |= remove(key, data);
+        }
+        return removed;
+    }
+
+    /**
+     * Scans the tiers up to the key.
+     */
+    @Override
+    public int rank(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return countRange(null, key);
+    }
+
+    /**
+     * Scans the tiers up to the k-th pair.
+     */
+    @Override
+    public String select(int k) {
+        if (k < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        Iterator<Map.Entry<String, List<String>>> groups = scan(null, null);
+        while (groups.hasNext()) {
+            Map.Entry<String, List<String>> group = groups.next();
+            k -= group.getValue().size();
+            if (k < 0) {
+                return group.getKey();
+            }
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    /**
+     * Scans the range. Unlike FADAF, null leaves a side of the range open.
+     */
+    @Override
+    public int countRange(String lo, String hi) {
+        int count = 0;
+        Iterator<Map.Entry<String, List<String>>> groups = scan(lo, hi);
+        while (groups.hasNext()) {
+            count += groups.next().getValue().size();
+        }
+        return count;
+    }
+
+    @Override
+    public String getMinKey() {
+        Iterator<Map.Entry<String, List<String>>> groups = scan(null, null);
+        return groups.hasNext() ? groups.next().getKey() : null;
+    }
+
+    /**
+     * Scans every tier, O(n) on this backend.
+     */
+    @Override
+    public String getMaxKey() {
+        String max = null;
+        Iterator<Map.Entry<String, List<String>>> groups = scan(null, null);
+        while (groups.hasNext()) {
+            max = groups.next().getKey();
+        }
+        return max;
+    }
+
+    /**
+     * Returns the key and data groups in [lo, hi), merged lazily from the
+     * memtable and the runs. The iterator sees the content at the time scan
+     * was called and may be used without holding any lock while the
+     * TieredFADAF keeps changing.
+     *
+     * @param lo smallest key, null for no lower bound
+     * @param hi key after the largest, null for no upper bound
+     * @return iterator of key and data groups in ascending key order
+     */
+    public Iterator<Map.Entry<String, List<String>>> scan(final String lo, final String hi) {
+        final Iterator<DAFRun.Record> records;
+        synchronized (this) {
+            ArrayList<Iterator<DAFRun.Record>> sources = new ArrayList<Iterator<DAFRun.Record>>();
+            sources.add(memtableRecords(lo, hi).iterator());
+            for (int i = runs.size() - 1; i >= 0; i--) {
+                sources.add(runs.get(i).cursor(lo));
+            }
+            records = merge(sources, true);
+        }
+        return new Iterator<Map.Entry<String, List<String>>>() {
+            private DAFRun.Record next = advance();
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Map.Entry<String, List<String>> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                DAFRun.Record result = next;
+                next = advance();
+                return new AbstractMap.SimpleImmutableEntry<String, List<String>>(
+                        result.key, Collections.unmodifiableList(result.puts));
+            }
+
+            private DAFRun.Record advance() {
+                while (records.hasNext()) {
+                    DAFRun.Record r = records.next();
+                    if (hi != null && r.key.compareTo(hi) >= 0) {
+                        return null;
+                    }
+                    if (!r.puts.isEmpty()) {
+                        return r;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    @Override
+    Iterator<Map.Entry<String, List<String>>> groupIterator() {
+        return scan(null, null);
+    }
+
+    /**
+     * Inserts the pairs one by one, each goes through the memtable.
+     */
+    @Override
+    synchronized boolean absorb(Iterator<Map.Entry<String, List<String>>> source) {
+        boolean changed = false;
+        while (source.hasNext()) {
+            Map.Entry<String, List<String>> group = source.next();
+            for (String data : group.getValue()) {
+                changed |= insert(group.getKey(), data);
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    synchronized void clear() {
+        checkOpen();
+        for (DAFRun run : runs) {
+            run.getFile().delete();
+        }
+        runs = new ArrayList<DAFRun>();
+        memtable = new DAFTree<String, String>();
+        memKeys.clear();
+        tombstones.clear();
+        nPairs = 0;
+        nKeys = 0;
+        flushedPairs = 0;
+        flushedKeys = 0;
+        try {
+            writeManifest();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        publish(FADAFChange.CLEAR, null, null);
+    }
+
+    /**
+     * Flushes the memtable and merges every run into one, dropping all
+     * tombstones. Waits for a background compaction to finish first.
+     *
+     * @throws UncheckedIOException if writing the runs fails
+     */
+    @Override
+    public synchronized void compact() {
+        checkOpen();
+        awaitCompaction();
+        compacting = true; // keeps the flush below from starting another one
+        try {
+            flush();
+            if (runs.size() > 1) {
+                List<DAFRun> all = new ArrayList<DAFRun>(runs);
+                replace(all, mergeRuns(all, true));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            compacting = false;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writes the memtable and its tombstones to a new run and empties it.
+     *
+     * @throws IOException if writing the run or the manifest fails, or the
+     *                     last background compaction failed
+     */
+    public synchronized void flush() throws IOException {
+        if (failure != null) {
+            IOException e = failure;
+            failure = null;
+            throw e;
+        }
+        if (memtable.size() > 0 || !tombstones.isEmpty()) {
+            List<DAFRun.Record> records = memtableRecords(null, null);
+            if (runs.isEmpty()) {
+                // nothing older to hide, tombstones can go right away
+                ArrayList<DAFRun.Record> live = new ArrayList<DAFRun.Record>();
+                for (DAFRun.Record r : records) {
+                    live.add(DAFRun.Record.combine(Collections.singletonList(r), true));
+                }
+                records = live;
+            }
+            runs.add(DAFRun.write(nextRunFile(), records.iterator(), records.size()));
+            memtable = new DAFTree<String, String>();
+            memKeys.clear();
+            tombstones.clear();
+        }
+        flushedPairs = nPairs;
+        flushedKeys = nKeys;
+        writeManifest();
+        compactInBackground();
+    }
+
+    /**
+     * Flushes the memtable and stops the compaction thread. Runs already
+     * open stay readable, but no more changes are accepted.
+     *
+     * @throws IOException if the last flush fails
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            flush();
+            closed = true;
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of runs on disk.
+     *
+     * @return number of runs
+     */
+    public synchronized int nRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Returns the size of all runs on disk.
+     *
+     * @return bytes on disk
+     */
+    public synchronized long diskBytes() {
+        long bytes = 0;
+        for (DAFRun run : runs) {
+            bytes += run.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Not supported by this backend.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void enableSnapshots() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported by this backend, every run has its own key filter.
+     *
+     * @param expectedPairs ignored
+     * @param fpp           ignored
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void enableBloomFilter(int expectedPairs, double fpp) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported by this backend.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void enableReverseIndex() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported by this backend.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void enableAdaptive() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Does nothing, the memtable already keeps one key instance per key
+     * and the runs store every key once.
+     */
+    @Override
+    public void enableKeyInterning() {
+    }
+
+    /**
+     * Not supported by this backend.
+     *
+     * @param tickMillis ignored
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void enableExpiry(long tickMillis) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the data of a key, merged from all tiers.
+     *
+     * @param key key to read
+     * @return data in insertion order, empty if the key is not stored
+     */
+    private List<String> read(String key) {
+        ArrayList<DAFRun.Record> tiers = new ArrayList<DAFRun.Record>();
+        DAFRun.Record newest = memtableRecord(key);
+        if (newest != null) {
+            tiers.add(newest);
+        }
+        for (int i = runs.size() - 1; i >= 0 && (newest == null || !newest.keyDeleted); i--) {
+            newest = runs.get(i).find(key);
+            if (newest != null) {
+                tiers.add(newest);
+            }
+        }
+        if (tiers.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return DAFRun.Record.combine(tiers, true).puts;
+    }
+
+    /**
+     * Returns the memtable entries of a key as a record.
+     *
+     * @param key key to read
+     * @return record, or null if the memtable has nothing for the key
+     */
+    private DAFRun.Record memtableRecord(String key) {
+        String canonical = memKeys.get(key);
+        DAFRun.Record tombstone = tombstones.get(key);
+        if (canonical == null && tombstone == null) {
+            return null;
+        }
+        List<String> puts = (canonical == null) ? new ArrayList<String>() : memtable.getAllData(canonical);
+        if (tombstone == null) {
+            return new DAFRun.Record(key, false, puts, Collections.<String>emptyList());
+        }
+        return new DAFRun.Record(key, tombstone.keyDeleted, puts, new ArrayList<String>(tombstone.dels));
+    }
+
+    /**
+     * Copies the memtable entries with keys in [lo, hi) into records.
+     *
+     * @param lo smallest key, null for no lower bound
+     * @param hi key after the largest, null for no upper bound
+     * @return records in ascending key order
+     */
+    private List<DAFRun.Record> memtableRecords(String lo, String hi) {
+        TreeMap<String, DAFRun.Record> records = new TreeMap<String, DAFRun.Record>();
+        for (DAFRun.Record t : tombstones.values()) {
+            if (inRange(t.key, lo, hi)) {
+                records.put(t.key, new DAFRun.Record(t.key, t.keyDeleted,
+                        new ArrayList<String>(), new ArrayList<String>(t.dels)));
+            }
+        }
+        Iterator<DAFTree<String, String>.DAFNode<String, String>> nodes = memtable.iterator();
+        while (nodes.hasNext()) {
+            DAFTree<String, String>.DAFNode<String, String> node = nodes.next();
+            if (!inRange(node.key, lo, hi)) {
+                continue;
+            }
+            DAFRun.Record r = records.get(node.key);
+            if (r == null) {
+                r = new DAFRun.Record(node.key, false, new ArrayList<String>(), new ArrayList<String>());
+                records.put(node.key, r);
+            }
+            r.puts.add(node.data);
+        }
+        return new ArrayList<DAFRun.Record>(records.values());
+    }
+
+    /**
+     * Returns the tombstone record of a key, creating it if needed.
+     *
+     * @param key key of the tombstone
+     * @return tombstone record
+     */
+    private DAFRun.Record tombstone(String key) {
+        DAFRun.Record tombstone = tombstones.get(key);
+        if (tombstone == null) {
+            tombstone = new DAFRun.Record(key, false, Collections.<String>emptyList(), new ArrayList<String>());
+            tombstones.put(key, tombstone);
+        }
+        return tombstone;
+    }
+
+    /**
+     * Flushes the memtable if it reached its limit.
+     *
+     * @throws UncheckedIOException if the flush fails
+     */
+    private void flushIfFull() {
+        if (memtable.size() + tombstones.size() < memtableLimit) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Starts a background compaction if enough runs piled up and none is
+     * running. The newest runs are merged while the run before them is not
+     * larger than all of them together, so run sizes grow geometrically
+     * from newest to oldest and there are O(log n) of them.
+     */
+    private void compactInBackground() {
+        if (compacting || closed || runs.size() < COMPACT_TRIGGER) {
+            return;
+        }
+        int from = runs.size() - 1;
+        long newer = runs.get(from).bytes();
+        while (from > 0 && runs.get(from - 1).bytes() <= newer) {
+            from--;
+            newer += runs.get(from).bytes();
+        }
+        if (from == runs.size() - 1) {
+            if (runs.size() <= MAX_RUNS) {
+                return;
+            }
+            from--;
+        }
+        final List<DAFRun> inputs = new ArrayList<DAFRun>(runs.subList(from, runs.size()));
+        final boolean bottom = (from == 0);
+        compacting = true;
+        compactor.execute(() -> {
+            DAFRun merged = null;
+            try {
+                merged = mergeRuns(inputs, bottom);
+            } catch (IOException e) {
+                synchronized (TieredFADAF.this) {
+                    failure = e;
+                }
+            }
+            synchronized (TieredFADAF.this) {
+                compacting = false;
+                try {
+                    if (merged != null && !replace(inputs, merged)) {
+                        merged.getFile().delete(); // cleared meanwhile
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+                TieredFADAF.this.notifyAll();
+                compactInBackground();
+            }
+        });
+    }
+
+    /**
+     * Waits until no compaction runs.
+     */
+    private synchronized void awaitCompaction() {
+        while (compacting) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Merges consecutive runs into a new run file. Only reads the runs, so
+     * it can run without the lock.
+     *
+     * @param inputs runs to merge, oldest first
+     * @param bottom true if the oldest run is among them, so tombstones can
+     *               be dropped
+     * @return the merged run
+     * @throws IOException if writing fails
+     */
+    private DAFRun mergeRuns(List<DAFRun> inputs, boolean bottom) throws IOException {
+        ArrayList<Iterator<DAFRun.Record>> sources = new ArrayList<Iterator<DAFRun.Record>>();
+        int expected = 0;
+        for (int i = inputs.size() - 1; i >= 0; i--) {
+            sources.add(inputs.get(i).cursor(null));
+            expected += inputs.get(i).nRecords();
+        }
+        File file;
+        synchronized (this) {
+            file = nextRunFile();
+        }
+        return DAFRun.write(file, merge(sources, bottom), expected);
+    }
+
+    /**
+     * Replaces consecutive runs with the run they were merged into, then
+     * deletes their files.
+     *
+     * @param inputs runs that were merged, oldest first
+     * @param merged merged run
+     * @return false if the runs are gone, because of clear
+     * @throws IOException if writing the manifest fails
+     */
+    private synchronized boolean replace(List<DAFRun> inputs, DAFRun merged) throws IOException {
+        int from = runs.indexOf(inputs.get(0));
+        if (from < 0 || from + inputs.size() > runs.size()
+                || !runs.subList(from, from + inputs.size()).equals(inputs)) {
+            return false;
+        }
+        runs.subList(from, from + inputs.size()).clear();
+        runs.add(from, merged);
+        writeManifest();
+        for (DAFRun run : inputs) {
+            // open iterators keep reading through their mappings
+            run.getFile().delete();
+        }
+        return true;
+    }
+
+    /**
+     * Merges sorted record sources into one, combining the records of a
+     * key.
+     *
+     * @param newestFirst    sources in ascending key order, newest tier first
+     * @param dropTombstones true if no older tier exists below the sources
+     * @return records in ascending key order
+     */
+    private static Iterator<DAFRun.Record> merge(final List<Iterator<DAFRun.Record>> newestFirst,
+                                                 final boolean dropTombstones) {
+        final DAFRun.Record[] heads = new DAFRun.Record[newestFirst.size()];
+        final PriorityQueue<Integer> queue = new PriorityQueue<Integer>(Math.max(1, heads.length), (a, b) -> {
+            int cmp = heads[a].key.compareTo(heads[b].key);
+            return (cmp != 0) ? cmp : Integer.compare(a, b);
+        });
+        for (int i = 0; i < heads.length; i++) {
+            if (newestFirst.get(i).hasNext()) {
+                heads[i] = newestFirst.get(i).next();
+                queue.add(i);
+            }
+        }
+        return new Iterator<DAFRun.Record>() {
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            public DAFRun.Record next() {
+                if (queue.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                ArrayList<DAFRun.Record> same = new ArrayList<DAFRun.Record>();
+                String key = heads[queue.peek()].key;
+                // ties come out newest first
+                while (!queue.isEmpty() && heads[queue.peek()].key.equals(key)) {
+                    int i = queue.poll();
+                    same.add(heads[i]);
+                    if (newestFirst.get(i).hasNext()) {
+                        heads[i] = newestFirst.get(i).next();
+                        queue.add(i);
+                    }
+                }
+                return DAFRun.Record.combine(same, dropTombstones);
+            }
+        };
+    }
+
+    /**
+     * Checks if a key is in [lo, hi).
+     *
+     * @param key key to check
+     * @param lo  smallest key, null for no lower bound
+     * @param hi  key after the largest, null for no upper bound
+     * @return true if in range
+     */
+    private static boolean inRange(String key, String lo, String hi) {
+        return (lo == null || key.compareTo(lo) >= 0) && (hi == null || key.compareTo(hi) < 0);
+    }
+
+    /**
+     * Returns the file of the next run.
+     *
+     * @return new run file
+     */
+    private File nextRunFile() {
+        return new File(dir, String.format("run-%08d.dat", nextRun++));
+    }
+
+    /**
+     * Throws if the TieredFADAF was closed.
+     *
+     * @throws IllegalStateException if closed
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Loads the manifest and opens its runs. Run files it does not list are
+     * leftovers of an interrupted flush or compaction and are deleted.
+     *
+     * @throws IOException if reading fails or the manifest is corrupt
+     */
+    private void readManifest() throws IOException {
+        File manifest = new File(dir, MANIFEST);
+        HashSet<String> listed = new HashSet<String>();
+        if (manifest.exists()) {
+            List<String> lines = Files.readAllLines(manifest.toPath());
+            if (lines.size() < 4 || !HEADER.equals(lines.get(0))) {
+                throw new IOException("corrupt manifest in " + dir);
+            }
+            nPairs = flushedPairs = Integer.parseInt(lines.get(1));
+            nKeys = flushedKeys = Integer.parseInt(lines.get(2));
+            nextRun = Long.parseLong(lines.get(3));
+            for (String name : lines.subList(4, lines.size())) {
+                runs.add(DAFRun.open(new File(dir, name)));
+                listed.add(name);
+            }
+        } else {
+            writeManifest();
+        }
+        File[] files = dir.listFiles();
+        for (File file : (files == null) ? new File[0] : files) {
+            if (file.getName().startsWith("run-") && !listed.contains(file.getName())) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Replaces the manifest with the current runs and the counts of the
+     * last flush.
+     *
+     * @throws IOException if writing fails
+     */
+    private void writeManifest() throws IOException {
+        ArrayList<String> lines = new ArrayList<String>();
+        lines.add(HEADER);
+        lines.add(Integer.toString(flushedPairs));
+        lines.add(Integer.toString(flushedKeys));
+        lines.add(Long.toString(nextRun));
+        for (DAFRun run : runs) {
+            lines.add(run.getFile().getName());
+        }
+        Path temp = new File(dir, MANIFEST + ".tmp").toPath();
+        Files.write(temp, lines);
+        Files.move(temp, new File(dir, MANIFEST).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
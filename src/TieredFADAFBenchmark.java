@@ -0,0 +1,127 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Loads synthetic data into a TieredFADAF and measures it. The load phase
+ * inserts random keys with DATA_PER_KEY data each until the given volume
+ * of key and data bytes is written, so it can exceed the heap; run it with
+ * a small -Xmx to check that only the memtable, the block indexes and the
+ * Bloom filters stay in memory. Then it times random lookups of stored and
+ * absent keys, short range scans and one full scan.
+ * Usage: TieredFADAFBenchmark [directory] [megabytes] [memtable entries]
+ *
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class TieredFADAFBenchmark {
+
+    // constants
+    private static final int DATA_PER_KEY = 4; // data inserted per key
+    private static final int DATA_LENGTH = 48; // characters per data
+    private static final int PROBES = 200000; // random lookups timed
+    private static final int RANGES = 2000; // range scans timed
+    private static final int RANGE_WIDTH = 1 << 20; // key ids covered by a range scan
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command line arguments
+     * @throws IOException if the directory cannot be used
+     */
+    public static void main(String[] args) throws IOException {
+        File dir = new File((args.length > 0) ? args[0] : "tiered-benchmark");
+        long megabytes = (args.length > 1) ? Long.parseLong(args[1]) : 2048;
+        int memtable = (args.length > 2) ? Integer.parseInt(args[2]) : 1 << 18;
+
+        Random random = new Random(1);
+        char[] chars = new char[DATA_LENGTH];
+        long target = megabytes << 20;
+        long written = 0;
+        int inserted = 0;
+        ArrayList<Integer> sample = new ArrayList<Integer>(); // stored key ids to probe later
+        try (TieredFADAF fadaf = new TieredFADAF(dir, memtable)) {
+            fadaf.clear();
+            long start = System.nanoTime();
+            while (written < target) {
+                int id = random.nextInt() & Integer.MAX_VALUE;
+                String key = key(id);
+                for (int d = 0; d < DATA_PER_KEY; d++) {
+                    for (int i = 0; i < chars.length; i++) {
+                        chars[i] = (char) ('a' + random.nextInt(26));
+                    }
+                    if (fadaf.insert(key, new String(chars))) {
+                        inserted++;
+                        written += key.length() + DATA_LENGTH;
+                    }
+                }
+                if (sample.size() < PROBES) {
+                    sample.add(id);
+                }
+            }
+            double loadSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("load       %d pairs, %d MB in %.1f s: %.0f pairs/s, %.1f MB/s%n",
+                    inserted, written >> 20, loadSeconds, inserted / loadSeconds, (written >> 20) / loadSeconds);
+            fadaf.flush();
+            System.out.printf("disk       %d runs, %d MB, heap used %d MB%n",
+                    fadaf.nRuns(), fadaf.diskBytes() >> 20, usedHeap() >> 20);
+
+            long found = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < PROBES; i++) {
+                // every other probe is a key that was most likely never inserted
+                String key = (i % 2 == 0) ? key(sample.get(random.nextInt(sample.size())))
+                        : key(random.nextInt() & Integer.MAX_VALUE) + "x";
+                found += fadaf.lookupAny(key) ? 1 : 0;
+            }
+            System.out.printf("lookupAny  %.1f us/op, %d of %d found%n",
+                    (System.nanoTime() - start) / 1e3 / PROBES, found, PROBES);
+
+            long pairs = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < RANGES; i++) {
+                int lo = random.nextInt(Integer.MAX_VALUE - RANGE_WIDTH);
+                pairs += fadaf.countRange(key(lo), key(lo + RANGE_WIDTH));
+            }
+            System.out.printf("countRange %.1f us/op, %.1f pairs per range%n",
+                    (System.nanoTime() - start) / 1e3 / RANGES, (double) pairs / RANGES);
+
+            start = System.nanoTime();
+            long groups = 0;
+            Iterator<Map.Entry<String, List<String>>> scan = fadaf.scan(null, null);
+            while (scan.hasNext()) {
+                scan.next();
+                groups++;
+            }
+            double scanSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("full scan  %d keys in %.1f s: %.0f keys/s, heap used %d MB%n",
+                    groups, scanSeconds, groups / scanSeconds, usedHeap() >> 20);
+        }
+    }
+
+    /**
+     * Returns the key of an id, padded so keys sort like their ids.
+     *
+     * @param id key id
+     * @return key
+     */
+    private static String key(int id) {
+        return String.format("user%010d", id);
+    }
+
+    /**
+     * Returns the heap in use after a garbage collection.
+     *
+     * @return bytes in use
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
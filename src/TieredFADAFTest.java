@@ -0,0 +1,164 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TieredFADAFTest {
+
+    /**
+     * Checks every key of the model against the TieredFADAF.
+     */
+    private static void assertMatches(Map<String, LinkedHashSet<String>> model, TieredFADAF fadaf) {
+        int pairs = 0;
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, LinkedHashSet<String>> e : model.entrySet()) {
+            assertEquals(new ArrayList<>(e.getValue()), fadaf.getAllData(e.getKey()));
+            pairs += e.getValue().size();
+            keys.addAll(Collections.nCopies(e.getValue().size(), e.getKey()));
+        }
+        assertEquals(pairs, fadaf.size());
+        assertEquals(model.size(), fadaf.nUniqueKeys());
+        assertEquals(keys, fadaf.getAllKeys());
+    }
+
+    /**
+     * Deletes a directory and its files.
+     */
+    private static void delete(File dir) {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void tiers() throws Exception {
+        File dir = Files.createTempDirectory("tiered").toFile();
+        TieredFADAF fadaf = new TieredFADAF(dir, TieredFADAF.MIN_MEMTABLE);
+        TreeMap<String, LinkedHashSet<String>> model = new TreeMap<>();
+        Random random = new Random(17);
+        for (int i = 0; i < 5000; i++) {
+            String key = "k" + random.nextInt(200);
+            String data = "d" + random.nextInt(6);
+            int op = random.nextInt(10);
+            LinkedHashSet<String> current = model.get(key);
+            if (op < 6) {
+                boolean added = model.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(data);
+                assertEquals(added, fadaf.insert(key, data));
+            } else if (op < 9) {
+                boolean removed = current != null && current.remove(data);
+                if (current != null && current.isEmpty()) {
+                    model.remove(key);
+                }
+                assertEquals(removed, fadaf.remove(key, data));
+            } else {
+                assertEquals(model.remove(key) != null, fadaf.removeAll(key));
+            }
+            assertEquals(model.containsKey(key), fadaf.lookupAny(key));
+        }
+        assertTrue(fadaf.nRuns() >= 1);
+        assertMatches(model, fadaf);
+        String lo = "k150";
+        String hi = "k170";
+        int inRange = 0;
+        for (LinkedHashSet<String> data : model.subMap(lo, hi).values()) {
+            inRange += data.size();
+        }
+        assertEquals(inRange, fadaf.countRange(lo, hi));
+        assertEquals(model.firstKey(), fadaf.getMinKey());
+        assertEquals(model.lastKey(), fadaf.getMaxKey());
+
+        // a scan keeps its view while the content changes
+        Iterator<Map.Entry<String, List<String>>> scan = fadaf.scan(null, null);
+        String first = model.firstKey();
+        fadaf.removeAll(first);
+        assertEquals(first, scan.next().getKey());
+        model.remove(first);
+
+        // reopening restores what was flushed
+        fadaf.close();
+        fadaf = new TieredFADAF(dir, TieredFADAF.MIN_MEMTABLE);
+        assertMatches(model, fadaf);
+
+        fadaf.compact();
+        assertEquals(1, fadaf.nRuns());
+        assertMatches(model, fadaf);
+        fadaf.close();
+        delete(dir);
+    }
+
+    @Test
+    public void mergeAcrossTiers() throws Exception {
+        File dir = Files.createTempDirectory("tiered").toFile();
+        TieredFADAF fadaf = new TieredFADAF(dir, TieredFADAF.MIN_MEMTABLE);
+        fadaf.insert("a", "1");
+        fadaf.insert("a", "2");
+        fadaf.flush();
+        fadaf.remove("a", "1");
+        fadaf.insert("a", "3");
+        fadaf.flush();
+        fadaf.insert("a", "1");
+        // newer tiers hide what they removed and add after the older data
+        assertEquals(Arrays.asList("2", "3", "1"), fadaf.getAllData("a"));
+        assertEquals("3", fadaf.lookupEqual("a", new String("3")));
+        assertFalse(fadaf.insertEqual("a", new String("3")));
+        assertTrue(fadaf.removeEqual("a", new String("3")));
+        assertTrue(fadaf.insertEqual("a", "3"));
+        assertEquals(Arrays.asList("2", "1", "3"), fadaf.getAllData("a"));
+        fadaf.removeAll("a");
+        fadaf.insert("a", "4");
+        assertEquals(Collections.singletonList("4"), fadaf.getAllData("a"));
+        assertEquals(1, fadaf.size());
+        fadaf.compact();
+        assertEquals(Collections.singletonList("4"), fadaf.getAllData("a"));
+
+        FADAF<String, String> copy = new FADAF<>(10);
+        fadaf.mergeInto(copy);
+        assertEquals(Collections.singletonList("a"), copy.getAllKeys());
+        try {
+            fadaf.enableSnapshots();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        fadaf.close();
+        delete(dir);
+    }
+
+    @Test
+    public void prefixCompressedRuns() throws Exception {
+        File dir = Files.createTempDirectory("tiered").toFile();
+        TieredFADAF fadaf = new TieredFADAF(dir, TieredFADAF.MIN_MEMTABLE);
+        TreeMap<String, LinkedHashSet<String>> model = new TreeMap<>();
+        // long shared prefixes, and characters whose UTF-8 order differs
+        // from the UTF-16 order of String
+        String[] tails = {"", "a", "ab", "\u00e9", "\ue000", "\uffff", "\ud83d\ude00", "\ud83d\ude00x"};
+        for (int i = 0; i < 3000; i++) {
+            String key = "tenant-" + (i % 7) + "/users/profile/" + tails[i % tails.length] + (i / 7);
+            String data = "d" + (i % 3);
+            model.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(data);
+            fadaf.insert(key, data);
+        }
+        fadaf.compact();
+        assertEquals(1, fadaf.nRuns());
+        assertMatches(model, fadaf);
+        for (String key : model.keySet()) {
+            assertTrue(fadaf.lookupAny(key));
+            assertFalse(fadaf.lookupAny(key + "\u0000"));
+        }
+        String lo = "tenant-3/users/profile/\ue000";
+        String hi = "tenant-3/users/profile/\uffff";
+        List<String> inRange = new ArrayList<>(model.subMap(lo, hi).keySet());
+        List<String> scanned = new ArrayList<>();
+        Iterator<Map.Entry<String, List<String>>> scan = fadaf.scan(lo, hi);
+        while (scan.hasNext()) {
+            scanned.add(scan.next().getKey());
+        }
+        assertEquals(inRange, scanned);
+        fadaf.close();
+        delete(dir);
+    }
+}
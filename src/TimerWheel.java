@@ -0,0 +1,273 @@
+/*
+ * Name: Linghang Kong
+ * PID: A16127732
+ */
+
+import java.util.*;
+
+/**
+ * Hierarchical timing wheel that keeps one timer per item. Level 0 has one
+ * slot per tick, and every higher level has slots that are 64 times wider.
+ * A timer goes into the coarsest level that still tells its deadline apart
+ * from now, and it is cascaded down when the wheel reaches its slot.
+ * Scheduling, rescheduling and cancelling are O(1). Advancing skips the
+ * ticks at which only empty slots would be processed, so it costs
+ * O(LEVELS * SLOTS) per tick that has work plus O(1) per timer that is
+ * cascaded or becomes due, whatever the time that passed. The work done is
+ * proportional to what expires and not to how many timers are pending.
+ *
+ * @param <E> Generic type of item
+ * @author Linghang Kong
+ * @since June 5th 2020
+ */
+
+public class TimerWheel<E> {
+
+    // constants
+    public static final int LEVELS = 4; // number of wheels
+    public static final int SLOT_BITS = 6; // log2 of slots per wheel
+    public static final int SLOTS = 1 << SLOT_BITS; // slots per wheel
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    // instance variables
+    private final long tickMillis; // length of one tick
+    private final Timer<E>[][] wheels; // head of the timer list of each slot
+    private final HashMap<E, Timer<E>> timers; // pending or due timer of each item
+    private final ArrayDeque<Timer<E>> due; // timers past their deadline, in order
+    private long currentTick; // last tick that was processed
+    private int nPending; // number of timers in the wheels
+
+    /**
+     * Timer of one item, linked into the list of its slot.
+     *
+     * @param <E> Generic type of item
+     */
+    private static final class Timer<E> {
+        final E item;
+        final long deadline; // tick the timer fires at
+        Timer<E> prev, next; // neighbours in the slot list
+        int level = -1, slot; // position, level is -1 once due
+
+        /**
+         * Initializes a Timer object.
+         *
+         * @param item     item of the timer
+         * @param deadline tick the timer fires at
+         */
+        Timer(E item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Initializes an empty timing wheel.
+     *
+     * @param tickMillis length of one tick in milliseconds
+     * @param nowMillis  current time in milliseconds
+     * @throws IllegalArgumentException if tickMillis is not positive
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis, long nowMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.tickMillis = tickMillis;
+        this.wheels = (Timer<E>[][]) new Timer<?>[LEVELS][SLOTS];
+        this.timers = new HashMap<E, Timer<E>>();
+        this.due = new ArrayDeque<Timer<E>>();
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Returns the number of timers, pending or due.
+     *
+     * @return number of timers
+     */
+    public int size() {
+        return timers.size();
+    }
+
+    /**
+     * Sets the timer of an item, replacing any timer it already has.
+     *
+     * @param item           item to schedule
+     * @param deadlineMillis time the item expires at, in milliseconds
+     * @throws NullPointerException if item is null
+     */
+    public void schedule(E item, long deadlineMillis) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+        cancel(item);
+        // round up so a timer never fires before its deadline
+        Timer<E> timer = new Timer<E>(item, (deadlineMillis + tickMillis - 1) / tickMillis);
+        timers.put(item, timer);
+        place(timer);
+    }
+
+    /**
+     * Removes the timer of an item.
+     *
+     * @param item item whose timer is removed
+     * @return true if the item had a timer, false otherwise
+     */
+    public boolean cancel(E item) {
+        Timer<E> timer = timers.remove(item);
+        if (timer == null) {
+            return false;
+        }
+        if (timer.level >= 0) {
+            unlink(timer);
+        }
+        // a due timer stays in the due queue and is skipped when polled
+        return true;
+    }
+
+    /**
+     * Advances the wheel to the given time and returns the next item whose
+     * deadline has passed. Its timer is removed.
+     *
+     * @param nowMillis current time in milliseconds
+     * @return next expired item, or null if none
+     */
+    public E poll(long nowMillis) {
+        advance(nowMillis / tickMillis);
+        while (!due.isEmpty()) {
+            Timer<E> timer = due.poll();
+            // skip timers that were cancelled or replaced after becoming due
+            if (timers.get(timer.item) == timer) {
+                timers.remove(timer.item);
+                return timer.item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes all timers.
+     */
+    public void clear() {
+        for (Timer<E>[] wheel : wheels) {
+            Arrays.fill(wheel, null);
+        }
+        timers.clear();
+        due.clear();
+        nPending = 0;
+    }
+
+    /**
+     * Processes every tick up to the given one. Ticks at which only empty
+     * slots would be processed are skipped.
+     *
+     * @param nowTick tick to advance to
+     */
+    private void advance(long nowTick) {
+        while (currentTick < nowTick) {
+            if (nPending == 0) {
+                currentTick = nowTick;
+                return;
+            }
+            currentTick = nextBusyTick(nowTick);
+            // cascade coarser slots that start at this tick, coarsest first
+            for (int level = LEVELS - 1; level > 0; level--) {
+                long shift = (long) SLOT_BITS * level;
+                if ((currentTick & ((1L << shift) - 1)) == 0) {
+                    cascade(level, (int) ((currentTick >>> shift) & SLOT_MASK));
+                }
+            }
+            cascade(0, (int) (currentTick & SLOT_MASK));
+        }
+    }
+
+    /**
+     * Returns the first tick after the current one at which a non-empty slot
+     * is processed. Every timer of a level is processed within SLOTS slot
+     * widths of that level, so each level is scanned for at most SLOTS slots.
+     *
+     * @param limit tick to return if no slot is processed before it
+     * @return first tick with work, at most limit
+     */
+    private long nextBusyTick(long limit) {
+        long next = limit;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = SLOT_BITS * level;
+            // slots of this level are processed when a slot width starts
+            long start = (currentTick >>> shift) + 1;
+            for (int i = 0; i < SLOTS && (start << shift) < next; i++, start++) {
+                if (wheels[level][(int) (start & SLOT_MASK)] != null) {
+                    next = start << shift;
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Empties one slot and places its timers again relative to the current
+     * tick, which moves them to a finer level or to the due queue.
+     *
+     * @param level level of the slot
+     * @param slot  index of the slot
+     */
+    private void cascade(int level, int slot) {
+        Timer<E> timer = wheels[level][slot];
+        wheels[level][slot] = null;
+        while (timer != null) {
+            Timer<E> next = timer.next;
+            timer.prev = timer.next = null;
+            nPending--;
+            place(timer);
+            timer = next;
+        }
+    }
+
+    /**
+     * Puts a timer into the slot matching its deadline, or into the due
+     * queue if the deadline is not after the current tick.
+     *
+     * @param timer timer to place
+     */
+    private void place(Timer<E> timer) {
+        long delta = timer.deadline - currentTick;
+        if (delta <= 0) {
+            timer.level = -1;
+            due.add(timer);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        // timers beyond the last wheel wait in its farthest slot and get re-placed
+        long deadline = Math.min(timer.deadline, currentTick + (1L << (SLOT_BITS * LEVELS)) - 1);
+        int slot = (int) ((deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+        timer.level = level;
+        timer.slot = slot;
+        timer.next = wheels[level][slot];
+        if (timer.next != null) {
+            timer.next.prev = timer;
+        }
+        wheels[level][slot] = timer;
+        nPending++;
+    }
+
+    /**
+     * Removes a pending timer from its slot list.
+     *
+     * @param timer timer to remove
+     */
+    private void unlink(Timer<E> timer) {
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            wheels[timer.level][timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = timer.next = null;
+        timer.level = -1;
+        nPending--;
+    }
+}